@@ -0,0 +1,63 @@
+package com.pragone.jphash.image;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+
+/**
+ * {@link PixelStorage.Backend#ARENA} storage: a MemorySegment allocated in a shared Arena of its own, freed as soon as
+ * the storage is closed. Storages that are never closed are freed once they become unreachable, like direct buffers.
+ *
+ * Built by the foreign profile only (it needs Java 22+), and loaded by {@link PixelStorage} when it's there.
+ */
+final class ArenaPixelStorage extends PixelStorage {
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final MemorySegment pixels;
+    private final int size;
+    private final Cleaner.Cleanable cleanable;
+
+    ArenaPixelStorage(int size) {
+        Arena arena = Arena.ofShared();
+        this.pixels = arena.allocate(size);
+        this.size = size;
+        // The action only holds the arena, so it doesn't keep the storage reachable
+        this.cleanable = CLEANER.register(this, arena::close);
+    }
+
+    @Override
+    public Backend getBackend() {
+        return Backend.ARENA;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int get(int index) {
+        return pixels.get(ValueLayout.JAVA_BYTE, index) & 0xFF;
+    }
+
+    @Override
+    public void put(int index, byte level) {
+        pixels.set(ValueLayout.JAVA_BYTE, index, level);
+    }
+
+    @Override
+    public void get(int index, byte[] dest, int offset, int length) {
+        MemorySegment.copy(pixels, ValueLayout.JAVA_BYTE, index, dest, offset, length);
+    }
+
+    @Override
+    public void put(int index, byte[] src, int offset, int length) {
+        MemorySegment.copy(src, offset, pixels, ValueLayout.JAVA_BYTE, index, length);
+    }
+
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+}
@@ -0,0 +1,163 @@
+package com.pragone.jphash.benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Helpers shared by the JMH benchmarks to build input images out of the test fixtures.
+ *
+ * Images are described by three benchmark parameters: the fixture name (one of the earth*.jpg files in
+ * src/test/resources), the size of the longest edge (0 keeps the fixture's own size) and the name of a
+ * BufferedImage.TYPE_* constant the pixels should be converted to.
+ */
+public class BenchmarkImages {
+    public static final int NATIVE_SIZE = 0;
+
+    private BenchmarkImages() {
+    }
+
+    public static BufferedImage load(String fixture) throws IOException {
+        InputStream is = BenchmarkImages.class.getClassLoader().getResourceAsStream(fixture);
+        if (is == null) {
+            throw new IOException("Fixture not found in classpath: " + fixture);
+        }
+        try {
+            return ImageIO.read(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    public static BufferedImage load(String fixture, int size, String type) throws IOException {
+        return convert(scale(load(fixture), size), imageType(type));
+    }
+
+    /**
+     * Scales the image so that its longest edge measures <code>size</code> pixels (keeping the aspect ratio)
+     */
+    public static BufferedImage scale(BufferedImage image, int size) {
+        if (size == NATIVE_SIZE) {
+            return image;
+        }
+        int longest = Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) ((long) image.getWidth() * size / longest));
+        int height = Math.max(1, (int) ((long) image.getHeight() * size / longest));
+        BufferedImage temp = new BufferedImage(width, height, image.getType());
+        Graphics2D g = temp.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return temp;
+    }
+
+    /**
+     * @return a size x size picture of a few random shapes over a random gradient, for benchmarks that need many
+     * unrelated images (their hashes correlate about as much as those of unrelated photos do)
+     */
+    public static BufferedImage randomScene(Random random, int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0xFFFFFF)), size, size,
+                    new Color(random.nextInt(0xFFFFFF))));
+            g.fillRect(0, 0, size, size);
+            for (int i = 0; i < 12; i++) {
+                g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                int side = size / 12 + random.nextInt(size * 5 / 12);
+                int x = random.nextInt(size) - side / 2;
+                int y = random.nextInt(size) - side / 2;
+                if (random.nextBoolean()) {
+                    g.fillOval(x, y, side, side);
+                } else {
+                    g.fillRect(x, y, side, side / 2 + random.nextInt(side));
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    public static BufferedImage convert(BufferedImage image, int type) {
+        if (image.getType() == type) {
+            return image;
+        }
+        BufferedImage temp = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = temp.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return temp;
+    }
+
+    public static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, bos)) {
+            throw new IOException("No ImageIO writer for format " + format + " and image type " + image.getType());
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * @return the JPEG with an EXIF APP1 segment, holding the given JPEG thumbnail in IFD1 as cameras do, inserted
+     * after its SOI marker
+     */
+    public static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail) {
+        // Big endian TIFF header, an empty IFD0 and an IFD1 with the compression, offset and length of the thumbnail
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 6 + 2 + 3 * 12 + 4 + thumbnail.length);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        tiff.putShort((short) 0).putInt(14);
+        tiff.putShort((short) 3);
+        tiff.putShort((short) 0x0103).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(tiff.capacity() - thumbnail.length);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        int segmentLength = 2 + 6 + tiff.capacity();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write(segmentLength >> 8);
+        out.write(segmentLength & 0xFF);
+        out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+        out.write(tiff.array(), 0, tiff.capacity());
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    public static BufferedImage decode(byte[] encoded) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    /**
+     * Resolves a name such as "TYPE_3BYTE_BGR" to the value of the BufferedImage constant
+     */
+    public static int imageType(String name) {
+        try {
+            Field field = BufferedImage.class.getField(name);
+            return field.getInt(null);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown BufferedImage type: " + name);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unknown BufferedImage type: " + name);
+        }
+    }
+}
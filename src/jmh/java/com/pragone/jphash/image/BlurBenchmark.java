@@ -0,0 +1,123 @@
+package com.pragone.jphash.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap array blur ({@link GrayscaleBlur}, what {@link SimpleGrayscaleImage#blur()} runs, copies to and
+ * from the direct buffer included) with the original one working straight on the direct ByteBuffer.
+ *
+ * Blurring takes the same work whatever the levels, so the same image is blurred over and over.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlurBenchmark {
+
+    @Param({"128", "512", "1024", "2048", "4096"})
+    public int size;
+
+    private ByteBuffer direct;
+    private SimpleGrayscaleImage image;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        byte[] pixels = new byte[size * size];
+        new Random(size).nextBytes(pixels);
+        direct = ByteBuffer.allocateDirect(pixels.length);
+        direct.put(pixels);
+        image = new SimpleGrayscaleImage(new ImageBuffers());
+        image.load(new SimpleGrayscaleImage(size, size), size);
+    }
+
+    @Benchmark
+    public ByteBuffer directBufferBlur() {
+        directBufferBlur(direct, size, size);
+        return direct;
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage heapArrayBlur() {
+        image.blur();
+        return image;
+    }
+
+    /**
+     * The original SimpleGrayscaleImage.blur
+     */
+    private static void directBufferBlur(ByteBuffer data, int width, int height) {
+        if (width <= 6 || height <= 6) {
+            return;
+        }
+        // First a horizontal pass
+        int[] buffer = new int[width];
+        int[] buffer_1 = new int[width];
+        int[] buffer_2 = new int[width];
+        data.rewind();
+        for (int y = 0; y < height; y++) {
+            // Copy this horizontal line
+            for (int i = 0; i < width; i++) {
+                buffer[i] = data.get(width*y + i) & 0xFF;
+                buffer_1[i] = (byte) (buffer[i] >> 1);  // buffer * 0.5
+                buffer_2[i] = (byte) (buffer[i] >> 2);  // buffer * 0.25
+            }
+            // idx: 0
+            long t = ((buffer[0] + buffer_1[1] + buffer_2[2])*585)>>10; // 1024/585 = 1.75042
+            data.put(width*y,(byte) (t > 255 ? 255 : t));
+            t = ((buffer_1[0] + buffer[1] + buffer_1[2] + buffer_2[3])*455)>>10;  // 1024/455 = 2.250549
+            data.put(width*y+1,(byte) (t > 255 ? 255 : t));
+            for (int x = 2; x < width-2; x++) {
+                t = (int) (((long) (buffer_2[x-2] + buffer_1[x-1] + buffer[x] + buffer_1[x+1] + buffer_2[x+2]))*409)>>10; // 1024/409 = 2.503 ~ 1 + 2*0.5 + 2*0.25
+                data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+            }
+            int x = width-2;
+            t = ((buffer_2[x-2] + buffer_1[x-1] + buffer[x] + buffer_1[x+1])*455)>>10; // 1024/455 = 2.250549
+            data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+            x++;
+            t = ((buffer_2[x-2] + buffer_1[x-1] + buffer[x])*585)>>10; // 1024/585 = 1.75042
+            data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+        }
+
+        // Now a vertical pass
+        buffer = new int[height];
+        buffer_1 = new int[height];
+        buffer_2 = new int[height];
+        for (int x = 0; x < width; x++) {
+            // Copy this vertical line
+            for (int i = 0; i < height; i++) {
+                buffer[i] = data.get(width*i + x) & 0xFF;
+                buffer_1[i] = (byte) (buffer[i] >> 1);  // buffer * 0.5
+                buffer_2[i] = (byte) (buffer[i] >> 2);  // buffer * 0.25
+            }
+            // y = 0
+            data.put(x,(byte) (((buffer[0] + buffer_1[1] + buffer_2[2])*585)>>10)); // 1024/585 = 1.75042
+            // y = 1
+            data.put(width+x,(byte) (((buffer_1[0] + buffer[1] + buffer_1[2] + buffer_2[3])*455)>>10)); // 1024/455 = 2.250549
+            for (int y = 2; y < height-2; y++) {
+                long t =  (((long) (buffer_2[y-2] + buffer_1[y-1] + buffer[y] + buffer_1[y+1] + buffer_2[y+2]))*409)>>10;
+                data.put(width*y+x, (byte) (t > 255 ? 255 : t)); // 1024/409 = 2.503 ~ 1 + 2*0.5 + 2*0.25
+            }
+            int y = height-2;
+            data.put(width*y+x, (byte) (((buffer_2[y-2] + buffer_1[y-1] + buffer[y] + buffer_1[y+1])*455)>>10)); // 1024/455 = 2.250549
+            y++;
+            data.put(width*y+x, (byte) (((buffer_2[y-2] + buffer_1[y-1] + buffer[y])*585)>>10)); // 1024/585 = 1.75042
+        }
+    }
+}
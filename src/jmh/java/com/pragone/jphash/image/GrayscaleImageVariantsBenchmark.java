@@ -0,0 +1,131 @@
+package com.pragone.jphash.image;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the pixel storage backends (see {@link PixelStorage}) on the full preprocessing (load + resize + blur) and
+ * on each of its steps. The arena backend is only there when built with the foreign profile on Java 22+; run it with
+ * -p backend=ARENA.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GrayscaleImageVariantsBenchmark {
+
+    @Param({"earth1.jpg", "earth1_caption.jpeg", "earth1_cropped.jpeg", "earth1_resized.jpeg"})
+    public String fixture;
+
+    @Param({"0", "2048"})
+    public int size;
+
+    @Param({"TYPE_3BYTE_BGR", "TYPE_BYTE_GRAY"})
+    public String type;
+
+    @Param({"HEAP", "DIRECT"})
+    public PixelStorage.Backend backend;
+
+    private BufferedImage image;
+    private SimpleGrayscaleImage current;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        image = BenchmarkImages.load(fixture, size, type);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage preprocess() {
+        current = new SimpleGrayscaleImage(image.getWidth(), image.getHeight(), backend);
+        current.loadImage(image);
+        current.resizeToNextSize();
+        current.blur();
+        return current;
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage load() {
+        current = new SimpleGrayscaleImage(image.getWidth(), image.getHeight(), backend);
+        current.loadImage(image);
+        return current;
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage resize(LoadedImage loaded) {
+        loaded.image.resizeToNextSize();
+        return loaded.image;
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage blur(ResizedImage resized) {
+        resized.image.blur();
+        return resized.image;
+    }
+
+    /**
+     * The image loaded, rebuilt before each invocation
+     */
+    @State(Scope.Thread)
+    public static class LoadedImage {
+        SimpleGrayscaleImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(GrayscaleImageVariantsBenchmark benchmark) {
+            BufferedImage source = benchmark.image;
+            image = new SimpleGrayscaleImage(source.getWidth(), source.getHeight(), benchmark.backend);
+            image.loadImage(source);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            image.close();
+        }
+    }
+
+    /**
+     * The image loaded and resized to the next power of 2, rebuilt before each invocation
+     */
+    @State(Scope.Thread)
+    public static class ResizedImage {
+        SimpleGrayscaleImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(GrayscaleImageVariantsBenchmark benchmark) {
+            BufferedImage source = benchmark.image;
+            image = new SimpleGrayscaleImage(source.getWidth(), source.getHeight(), benchmark.backend);
+            image.loadImage(source);
+            image.resizeToNextSize();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            image.close();
+        }
+    }
+}
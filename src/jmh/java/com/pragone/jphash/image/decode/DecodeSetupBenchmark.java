@@ -0,0 +1,58 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding small images, where the per image setup of ImageIO.read (registry lookup, new reader, stream cache) weighs
+ * the most, against {@link ImageDecoder} with this thread's readers (see {@link ImageReaders}) and in place streams.
+ * The images are earth1.jpg scaled to a longest edge of size pixels.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeSetupBenchmark {
+
+    @Param({"64", "256", "1024"})
+    public int size;
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        encoded = BenchmarkImages.encode(BenchmarkImages.load("earth1.jpg", size, "TYPE_3BYTE_BGR"), format);
+    }
+
+    @Benchmark
+    public BufferedImage imageIO() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public BufferedImage imageDecoder() throws IOException {
+        return ImageDecoder.read(encoded, ImageDecoder.FULL_RESOLUTION);
+    }
+}
@@ -0,0 +1,69 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import com.pragone.jphash.image.radial.RadialHash;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing a camera-like JPEG (a fixture scaled to a longest edge of size pixels, with an EXIF thumbnail of
+ * thumbnailSize pixels) from its embedded thumbnail (see {@link JpegThumbnail}) against the reduced decode of the
+ * image. How well the two hashes agree is printed when each trial is set up, as "thumbnail agreement".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ThumbnailBenchmark {
+
+    @Param({"earth1.jpg", "earth2.jpg"})
+    public String fixture;
+
+    @Param({"4096"})
+    public int size;
+
+    @Param({"160", "320"})
+    public int thumbnailSize;
+
+    @Param({"64", "128"})
+    public int targetSize;
+
+    private byte[] jpeg;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        BufferedImage image = BenchmarkImages.load(fixture, size, "TYPE_3BYTE_BGR");
+        byte[] thumbnail = BenchmarkImages.encode(BenchmarkImages.scale(image, thumbnailSize), "jpg");
+        jpeg = BenchmarkImages.withExifThumbnail(BenchmarkImages.encode(image, "jpg"), thumbnail);
+        boolean used = JpegThumbnail.read(jpeg, targetSize) != null;
+        double agreement = RadialHashAlgorithm.getSimilarity(decode(), thumbnail());
+        System.out.println("\nthumbnail agreement: " + agreement + (used ? "" : " (thumbnail too small, not used)"));
+    }
+
+    @Benchmark
+    public RadialHash decode() throws IOException {
+        return RadialHashAlgorithm.getHash(ImageDecoder.read(jpeg, targetSize), targetSize);
+    }
+
+    @Benchmark
+    public RadialHash thumbnail() throws IOException {
+        return RadialHashAlgorithm.getHash(ImageDecoder.read(jpeg, targetSize, true), targetSize);
+    }
+}
@@ -0,0 +1,62 @@
+package com.pragone.jphash.image.multi;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import com.pragone.jphash.image.decode.ImageDecoder;
+import com.pragone.jphash.image.radial.RadialHash;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing a JPEG (a fixture scaled to a longest edge of size pixels) with the radial hash alone against all the hash
+ * types of a {@link MultiHashPipeline}, which share the decode and the preprocessing
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiHashBenchmark {
+
+    @Param({"earth1.jpg"})
+    public String fixture;
+
+    @Param({"1024", "4096"})
+    public int size;
+
+    @Param({"64", "128", "256"})
+    public int targetSize;
+
+    private byte[] jpeg;
+    private MultiHashPipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        jpeg = BenchmarkImages.encode(BenchmarkImages.load(fixture, size, "TYPE_3BYTE_BGR"), "jpg");
+        pipeline = new MultiHashPipeline(targetSize);
+    }
+
+    @Benchmark
+    public RadialHash radial() throws IOException {
+        return RadialHashAlgorithm.getHash(ImageDecoder.read(jpeg, targetSize), targetSize);
+    }
+
+    @Benchmark
+    public MultiHash allTypes() throws IOException {
+        return pipeline.getHashes(jpeg);
+    }
+}
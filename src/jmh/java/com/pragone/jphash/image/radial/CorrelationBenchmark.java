@@ -0,0 +1,79 @@
+package com.pragone.jphash.image.radial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The best circular correlation of prepared hashes of N coefficients, from the direct sums against from the cached
+ * spectra by FFT (see {@link CircularCorrelation}), over {@link #CANDIDATES} pairs: where the two cross is
+ * {@link CircularCorrelation#FFT_MIN_LENGTH}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CorrelationBenchmark {
+    static final int CANDIDATES = 256;
+
+    @Param({"16", "32", "64", "128", "256", "512"})
+    public int N;
+
+    private double[] query;
+    private double[] querySpectrum;
+    private double[][] candidates;
+    private double[][] candidateSpectra;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        Random random = new Random(5);
+        PreparedRadialHash prepared = randomHash(random);
+        query = prepared.centered;
+        querySpectrum = CircularCorrelation.spectrum(query, N);
+        candidates = new double[CANDIDATES][];
+        candidateSpectra = new double[CANDIDATES][];
+        for (int i = 0; i < CANDIDATES; i++) {
+            prepared = randomHash(random);
+            candidates[i] = prepared.centered;
+            candidateSpectra[i] = CircularCorrelation.spectrum(prepared.centered, N);
+        }
+    }
+
+    private PreparedRadialHash randomHash(Random random) {
+        RadialHash hash = new RadialHash(N);
+        random.nextBytes(hash.getCoefficients());
+        return new PreparedRadialHash(hash);
+    }
+
+    @Benchmark
+    public double direct() {
+        double best = Double.NEGATIVE_INFINITY;
+        for (double[] candidate : candidates) {
+            best = Math.max(best, CircularCorrelation.maxDirect(query, candidate, N));
+        }
+        return best;
+    }
+
+    @Benchmark
+    public double fft() {
+        double best = Double.NEGATIVE_INFINITY;
+        for (double[] candidate : candidateSpectra) {
+            best = Math.max(best, CircularCorrelation.maxFft(querySpectrum, candidate, N));
+        }
+        return best;
+    }
+}
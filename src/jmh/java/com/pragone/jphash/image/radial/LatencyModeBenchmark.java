@@ -0,0 +1,68 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long hashing one big image takes on the calling thread and in latency mode
+ * ({@link RadialHashAlgorithm#getHash(BufferedImage, int, ForkJoinPool)}) with pools of a few sizes. The image is
+ * earth1.jpg scaled up to a longest edge of size pixels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyModeBenchmark {
+
+    @Param({"2048", "4096", "8192"})
+    public int size;
+
+    @Param({"2", "4", "8"})
+    public int parallelism;
+
+    @Param({"0", "512"})
+    public int maxSize;
+
+    private BufferedImage image;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        image = BenchmarkImages.load("earth1.jpg", size, "TYPE_3BYTE_BGR");
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public RadialHash callingThread() throws IOException {
+        return RadialHashAlgorithm.getHash(image, maxSize);
+    }
+
+    @Benchmark
+    public RadialHash latencyMode() {
+        return RadialHashAlgorithm.getHash(image, maxSize, pool);
+    }
+}
@@ -0,0 +1,151 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every stage of {@link RadialHashAlgorithm#getHash(BufferedImage)} on its own, so a change to any of
+ * them can be evaluated in isolation.
+ *
+ * Stages that modify the image in place (resize and blur) get a freshly prepared image on every invocation;
+ * that preparation is not part of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RadialHashStagesBenchmark {
+
+    @Param({"earth1.jpg", "earth1_caption.jpeg", "earth1_cropped.jpeg", "earth1_resized.jpeg"})
+    public String fixture;
+
+    @Param({"0", "512", "2048", "4096"})
+    public int size;
+
+    @Param({"TYPE_3BYTE_BGR", "TYPE_BYTE_GRAY"})
+    public String type;
+
+    private BufferedImage image;
+    private byte[] encoded;
+    private SimpleGrayscaleImage preprocessed;
+    private RadialHashAlgorithm.Projections projections;
+    private RadialHashAlgorithm.Features features;
+    private RadialHash hash;
+    private RadialHash otherHash;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        image = BenchmarkImages.load(fixture, size, type);
+        encoded = BenchmarkImages.encode(image, "jpg");
+        preprocessed = new SimpleGrayscaleImage(image);
+        projections = RadialHashAlgorithm.calculate180Projections(preprocessed);
+        features = RadialHashAlgorithm.calculateFeatures(projections);
+        hash = RadialHashAlgorithm.calculateHash(features);
+        otherHash = RadialHashAlgorithm.getHash(BenchmarkImages.load("earth2.jpg", size, type));
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return BenchmarkImages.decode(encoded);
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage loadImage() {
+        SimpleGrayscaleImage temp = new SimpleGrayscaleImage(image.getWidth(), image.getHeight());
+        temp.loadImage(image);
+        return temp;
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage resizeToNextSize(LoadedImage loaded) {
+        loaded.image.resizeToNextSize();
+        return loaded.image;
+    }
+
+    @Benchmark
+    public SimpleGrayscaleImage blur(ResizedImage resized) {
+        resized.image.blur();
+        return resized.image;
+    }
+
+    @Benchmark
+    public RadialHashAlgorithm.Projections calculate180Projections() {
+        return RadialHashAlgorithm.calculate180Projections(preprocessed);
+    }
+
+    @Benchmark
+    public RadialHashAlgorithm.Features calculateFeatures() {
+        return RadialHashAlgorithm.calculateFeatures(projections);
+    }
+
+    /**
+     * calculate180Projections and calculateFeatures in one go, without the projections
+     */
+    @Benchmark
+    public RadialHashAlgorithm.Features calculateFusedFeatures() {
+        return RadialHashAlgorithm.calculateFeatures(preprocessed,
+                new RadialHashAlgorithm.Features(RadialHashAlgorithm.NUMBER_OF_PROJECTIONS));
+    }
+
+    @Benchmark
+    public RadialHash calculateHash() {
+        return RadialHashAlgorithm.calculateHash(features);
+    }
+
+    @Benchmark
+    public double getSimilarity() {
+        return RadialHashAlgorithm.getSimilarity(hash, otherHash);
+    }
+
+    @Benchmark
+    public RadialHash getHash() throws IOException {
+        return RadialHashAlgorithm.getHash(image);
+    }
+
+    /**
+     * A grayscale image right after loadImage, rebuilt before each invocation
+     */
+    @State(Scope.Thread)
+    public static class LoadedImage {
+        SimpleGrayscaleImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(RadialHashStagesBenchmark benchmark) {
+            image = new SimpleGrayscaleImage(benchmark.image.getWidth(), benchmark.image.getHeight());
+            image.loadImage(benchmark.image);
+        }
+    }
+
+    /**
+     * A grayscale image right after resizeToNextSize, rebuilt before each invocation
+     */
+    @State(Scope.Thread)
+    public static class ResizedImage {
+        SimpleGrayscaleImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(RadialHashStagesBenchmark benchmark) {
+            image = new SimpleGrayscaleImage(benchmark.image.getWidth(), benchmark.image.getHeight());
+            image.loadImage(benchmark.image);
+            image.resizeToNextSize();
+        }
+    }
+}
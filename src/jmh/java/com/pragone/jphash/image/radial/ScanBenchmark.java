@@ -0,0 +1,126 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import com.pragone.jphash.image.PixelStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows scanned per second: a {@link HashArena} of {@link #ROWS} hashes on the calling thread, which is the rate per
+ * core, and split over the common pool, against prepared hashes (see {@link PreparedRadialHash}) held as objects.
+ * The "scenes" rows are hashes of unrelated pictures (see {@link BenchmarkImages#randomScene(Random, int)}),
+ * shifted and with some noise to make up the numbers: about half of them get to the threshold and the bound rules out
+ * most of the rest. Random coefficients all correlate about as well, so every row is summed up in full. The rows are
+ * kept on the heap or off it (see {@link PixelStorage.Backend}); the sums over the shifts are SIMD when the
+ * benchmarks are built with the vector profile and run with -jvmArgsAppend "--add-modules jdk.incubator.vector".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanBenchmark {
+    static final int ROWS = 1 << 16;
+    static final int SCENES = 512;
+    static final double THRESHOLD = 0.9;
+
+    @Param({"scenes", "random"})
+    public String rows;
+
+    @Param({"HEAP", "DIRECT"})
+    public PixelStorage.Backend backend;
+
+    private HashArena arena;
+    private RadialHash query;
+    private PreparedRadialHash preparedQuery;
+    private PreparedRadialHash[] prepared;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        int N = RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS;
+        Random random = new Random(9);
+        RadialHash[] scenes = new RadialHash[SCENES];
+        if ("scenes".equals(rows)) {
+            for (int i = 0; i < SCENES; i++) {
+                scenes[i] = RadialHashAlgorithm.getHash(BenchmarkImages.randomScene(random, 96), 64);
+            }
+        }
+        query = "scenes".equals(rows) ? RadialHashAlgorithm.getHash(BenchmarkImages.randomScene(random, 96), 64)
+                : randomHash(random);
+        preparedQuery = new PreparedRadialHash(query);
+        arena = new HashArena(N, ROWS, backend);
+        prepared = new PreparedRadialHash[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            RadialHash hash = randomHash(random);
+            if ("scenes".equals(rows)) {
+                byte[] scene = scenes[i % SCENES].getCoefficients();
+                int shift = random.nextInt(N);
+                for (int j = 0; j < N; j++) {
+                    hash.getCoefficients()[j] = (byte) (scene[(j + shift) % N] + random.nextInt(5) - 2);
+                }
+            }
+            arena.add(hash);
+            prepared[i] = new PreparedRadialHash(hash);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        arena.close();
+    }
+
+    private static RadialHash randomHash(Random random) {
+        RadialHash hash = new RadialHash(RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS);
+        random.nextBytes(hash.getCoefficients());
+        return hash;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<HashArena.Match> scanAbove() {
+        return arena.scanAbove(query, THRESHOLD);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<HashArena.Match> scanTopK() {
+        return arena.scanTopK(query, 10);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<HashArena.Match> scanAboveParallel() {
+        return arena.scanAbove(query, THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int preparedObjects() {
+        int matches = 0;
+        for (PreparedRadialHash hash : prepared) {
+            if (RadialHashAlgorithm.getSimilarity(preparedQuery, hash) >= THRESHOLD) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
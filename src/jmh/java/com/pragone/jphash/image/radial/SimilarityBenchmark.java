@@ -0,0 +1,99 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 1 vs many scan: one hash compared against {@link #CANDIDATES} others, with
+ * {@link RadialHashAlgorithm#getSimilarity(RadialHash, RadialHash)} and with prepared hashes (see
+ * {@link PreparedRadialHash}), the query prepared once and the candidates ahead of the scan. The hashes are those of
+ * unrelated pictures (see {@link BenchmarkImages#randomScene(Random, int)}), hardly any of which gets past the
+ * threshold: the threshold comparisons show the cost of a rejected pair.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimilarityBenchmark {
+    static final int CANDIDATES = 1024;
+
+    @Param({"0.9"})
+    public double threshold;
+
+    private RadialHash query;
+    private RadialHash[] candidates;
+    private PreparedRadialHash preparedQuery;
+    private PreparedRadialHash[] preparedCandidates;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        Random random = new Random(3);
+        query = randomHash(random);
+        preparedQuery = new PreparedRadialHash(query);
+        candidates = new RadialHash[CANDIDATES];
+        preparedCandidates = new PreparedRadialHash[CANDIDATES];
+        for (int i = 0; i < CANDIDATES; i++) {
+            candidates[i] = randomHash(random);
+            preparedCandidates[i] = new PreparedRadialHash(candidates[i]);
+        }
+    }
+
+    private static RadialHash randomHash(Random random) throws IOException {
+        return RadialHashAlgorithm.getHash(BenchmarkImages.randomScene(random, 96), 64);
+    }
+
+    @Benchmark
+    public double similarity() {
+        double best = 0;
+        for (RadialHash candidate : candidates) {
+            best = Math.max(best, RadialHashAlgorithm.getSimilarity(query, candidate));
+        }
+        return best;
+    }
+
+    @Benchmark
+    public double preparedSimilarity() {
+        double best = 0;
+        for (PreparedRadialHash candidate : preparedCandidates) {
+            best = Math.max(best, RadialHashAlgorithm.getSimilarity(preparedQuery, candidate));
+        }
+        return best;
+    }
+
+    @Benchmark
+    public double thresholdSimilarity() {
+        double best = 0;
+        for (PreparedRadialHash candidate : preparedCandidates) {
+            best = Math.max(best, RadialHashAlgorithm.getSimilarity(preparedQuery, candidate, threshold));
+        }
+        return best;
+    }
+
+    @Benchmark
+    public int matches() {
+        int matches = 0;
+        for (PreparedRadialHash candidate : preparedCandidates) {
+            if (RadialHashAlgorithm.matches(preparedQuery, candidate, threshold)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
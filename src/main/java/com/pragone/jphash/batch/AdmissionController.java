@@ -0,0 +1,326 @@
+package com.pragone.jphash.batch;
+
+import com.pragone.jphash.image.decode.ImageDecoder;
+import com.pragone.jphash.image.decode.ImageHeader;
+import com.pragone.jphash.image.radial.RadialHash;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the images being decoded and hashed at a time within a memory budget.
+ *
+ * The memory an image takes is estimated from its header (see {@link ImageHeader#estimateMemory(int, boolean)})
+ * before decoding it, and the work is admitted once that much of the budget is free. Admission isn't first come first
+ * served: an image that doesn't fit waits while smaller ones that do go ahead, so a few huge images don't hold up all
+ * the others. An image estimated to need more than the whole budget is admitted alone, once nothing else is running.
+ * So that a steady stream of small images can't keep a big one waiting forever, a waiting image (see
+ * {@link #admit(long)} and {@link #queue(long)}) passed over {@link #MAX_BYPASSES} times holds back all the others
+ * until it gets in.
+ *
+ * An optional limit on the pixels of an image rejects decompression bombs (tiny files claiming to be huge images)
+ * without trying to decode them. Thread safe.
+ */
+public class AdmissionController {
+    /**
+     * Max pixels meaning "no limit"
+     */
+    public static final long NO_PIXEL_LIMIT = 0;
+    /**
+     * How many times a waiting image lets others go ahead of it before they have to wait for it
+     */
+    public static final int MAX_BYPASSES = 16;
+
+    private final long budget;
+    private volatile long maxPixels = NO_PIXEL_LIMIT;
+
+    private final List<Ticket> queued = new ArrayList<Ticket>();
+    /**
+     * The first queued ticket passed over MAX_BYPASSES times, which nothing else is admitted before
+     */
+    private Ticket starving;
+
+    private long admittedBytes;
+    private long peakBytes;
+    private long admissions;
+    private long waits;
+    private long rejections;
+
+    /**
+     * @param budget the most bytes the admitted work can be estimated to take at a time
+     */
+    public AdmissionController(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The budget must be positive, not " + budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the most pixels (width * height) an image can have, {@link #NO_PIXEL_LIMIT} by default
+     */
+    public AdmissionController setMaxPixels(long maxPixels) {
+        if (maxPixels < 0) {
+            throw new IllegalArgumentException("The pixel limit can't be negative");
+        }
+        this.maxPixels = maxPixels;
+        return this;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @throws ImageTooLargeException if the image has more pixels than allowed (see {@link #setMaxPixels(long)})
+     */
+    public void checkPixels(ImageHeader header) throws ImageTooLargeException {
+        long limit = maxPixels;
+        if (limit != NO_PIXEL_LIMIT && header.getPixels() > limit) {
+            synchronized (this) {
+                rejections++;
+            }
+            throw new ImageTooLargeException(header + " is over the limit of " + limit + " pixels");
+        }
+    }
+
+    /**
+     * Decodes and hashes the image in data once it fits in the budget, as
+     * {@link RadialHashAlgorithm#getHash(BufferedImage, int)} would
+     *
+     * @return the hash or null if no registered ImageReader can decode the data
+     * @throws ImageTooLargeException if the image has more pixels than allowed
+     */
+    public RadialHash getHash(byte[] data, int targetSize) throws IOException, InterruptedException {
+        ImageHeader header = ImageHeader.read(data);
+        if (header == null) {
+            return null;
+        }
+        checkPixels(header);
+        try (Permit permit = admit(header.estimateMemory(targetSize, false))) {
+            BufferedImage image = ImageDecoder.read(data, targetSize);
+            return image == null ? null : RadialHashAlgorithm.getHash(image, targetSize);
+        }
+    }
+
+    /**
+     * Waits until the given bytes fit in the budget and takes them
+     */
+    public Permit admit(long bytes) throws InterruptedException {
+        Ticket ticket = queue(bytes);
+        synchronized (this) {
+            try {
+                boolean waited = false;
+                Permit permit;
+                while ((permit = ticket.tryAdmit()) == null) {
+                    if (!waited) {
+                        waits++;
+                        waited = true;
+                    }
+                    wait();
+                }
+                return permit;
+            } finally {
+                ticket.close();
+            }
+        }
+    }
+
+    /**
+     * @return the permit for the given bytes if they fit in the budget now and no waiting image is being held up,
+     * null otherwise
+     */
+    public synchronized Permit tryAdmit(long bytes) {
+        long taken = clamp(bytes);
+        return fits(taken) && starving == null ? take(taken, null) : null;
+    }
+
+    /**
+     * Queues the given bytes to be admitted without blocking (see {@link Ticket#tryAdmit()}), their admission being
+     * held up by others no more than {@link #MAX_BYPASSES} times. The ticket must be closed if it's given up on.
+     */
+    public synchronized Ticket queue(long bytes) {
+        Ticket ticket = new Ticket(clamp(bytes));
+        queued.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Waits until some admitted work is released, or the timeout elapses
+     */
+    public synchronized void awaitRelease(long timeout, TimeUnit unit) throws InterruptedException {
+        if (admittedBytes > 0) {
+            unit.timedWait(this, timeout);
+        }
+    }
+
+    private long clamp(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Can't admit " + bytes + " bytes");
+        }
+        return Math.min(bytes, budget);
+    }
+
+    private boolean fits(long bytes) {
+        return admittedBytes + bytes <= budget;
+    }
+
+    /**
+     * @param ticket the ticket admitted, if any, which the others queued are passed over for
+     */
+    private Permit take(long bytes, Ticket ticket) {
+        admittedBytes += bytes;
+        peakBytes = Math.max(peakBytes, admittedBytes);
+        admissions++;
+        for (Ticket waiting : queued) {
+            if (waiting != ticket && ++waiting.bypasses >= MAX_BYPASSES && starving == null) {
+                starving = waiting;
+            }
+        }
+        return new Permit(bytes);
+    }
+
+    private void dequeue(Ticket ticket) {
+        queued.remove(ticket);
+        if (starving == ticket) {
+            starving = null;
+            // The others can go again
+            notifyAll();
+        }
+    }
+
+    private synchronized void release(long bytes) {
+        admittedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return the bytes of the work admitted and not yet released
+     */
+    public synchronized long getAdmittedBytes() {
+        return admittedBytes;
+    }
+
+    /**
+     * @return the most bytes admitted at a time
+     */
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized long getAdmissions() {
+        return admissions;
+    }
+
+    /**
+     * @return how many admissions had to wait for others to be released
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return how many images were rejected for having too many pixels
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdmissionController{admitted " + admittedBytes + " of " + budget + " bytes, peak " + peakBytes
+                + " bytes, " + admissions + " admissions, " + waits + " waits, " + rejections + " rejections}";
+    }
+
+    /**
+     * Bytes queued for admission (see {@link #queue(long)})
+     */
+    public class Ticket implements Closeable {
+        private final long bytes;
+        private int bypasses;
+        private boolean done = false;
+
+        private Ticket(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the permit for the ticket's bytes if it's their turn and they fit in the budget now, null otherwise.
+         * Once admitted the ticket is done with.
+         */
+        public Permit tryAdmit() {
+            synchronized (AdmissionController.this) {
+                if (done) {
+                    throw new IllegalStateException("The ticket was already admitted or closed");
+                }
+                if (!fits(bytes) || (starving != null && starving != this)) {
+                    return null;
+                }
+                done = true;
+                dequeue(this);
+                return take(bytes, this);
+            }
+        }
+
+        /**
+         * @return how many times others were admitted while this waited
+         */
+        public int getBypasses() {
+            synchronized (AdmissionController.this) {
+                return bypasses;
+            }
+        }
+
+        /**
+         * Gives up on the admission, if it wasn't admitted yet. Closing it again does nothing.
+         */
+        @Override
+        public void close() {
+            synchronized (AdmissionController.this) {
+                if (!done) {
+                    done = true;
+                    dequeue(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Admitted work, to be closed once it's done. Closing it again does nothing.
+     */
+    public class Permit implements Closeable {
+        private final long bytes;
+        private boolean released = false;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the bytes of the budget this permit holds
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            synchronized (AdmissionController.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(bytes);
+        }
+    }
+}
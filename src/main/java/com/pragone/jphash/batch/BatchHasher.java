@@ -0,0 +1,593 @@
+package com.pragone.jphash.batch;
+
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+import com.pragone.jphash.image.decode.ImageDecoder;
+import com.pragone.jphash.image.decode.ImageHeader;
+import com.pragone.jphash.image.decode.JpegThumbnail;
+import com.pragone.jphash.image.radial.HashWorkspace;
+import com.pragone.jphash.image.radial.RadialHash;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Hashes many image files concurrently.
+ *
+ * Every file goes through three stages: {@link Stage#READ} loads its bytes, {@link Stage#DECODE} turns them into
+ * a BufferedImage (or a grayscale image, see {@link #setLumaDecoding(boolean)}) and {@link Stage#HASH} calculates
+ * its {@link RadialHash}. Each stage runs on its own set of threads and is fed through a bounded queue, so a slow
+ * stage makes the previous ones block instead of piling up decoded images in memory.
+ *
+ * An {@link AdmissionController} (see {@link #setAdmission(AdmissionController)}) makes files wait between reading
+ * and decoding until the memory their decoding and hashing is estimated to need fits in its budget.
+ *
+ * Results are streamed out as they are ready (not in the order the paths were given). Closing the returned stream
+ * before it is exhausted stops the run.
+ */
+public class BatchHasher {
+    public static final int DEFAULT_READ_THREADS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /**
+     * Accepts the files ImageIO has a reader for (judging by their extension)
+     */
+    public static final PathMatcher IMAGE_FILES = suffixMatcher(ImageIO.getReaderFileSuffixes());
+
+    private static final long ADMISSION_POLL_MILLIS = 10;
+
+    private static final Job END = new Job(null);
+    private static final AtomicInteger RUN_COUNTER = new AtomicInteger();
+
+    public enum Stage {
+        READ, DECODE, HASH
+    }
+
+    private final int[] parallelism = new int[Stage.values().length];
+    private final int[] queueCapacity = new int[Stage.values().length];
+    private int decodeSize = ImageDecoder.FULL_RESOLUTION;
+    private boolean lumaDecoding = false;
+    private boolean thumbnailDecoding = false;
+    private AdmissionController admission;
+
+    public BatchHasher() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        setParallelism(Stage.READ, DEFAULT_READ_THREADS);
+        setParallelism(Stage.DECODE, processors);
+        setParallelism(Stage.HASH, Math.max(1, processors / 2));
+        for (Stage stage : Stage.values()) {
+            setQueueCapacity(stage, DEFAULT_QUEUE_CAPACITY);
+        }
+    }
+
+    public BatchHasher(int readThreads, int decodeThreads, int hashThreads) {
+        this();
+        setParallelism(Stage.READ, readThreads);
+        setParallelism(Stage.DECODE, decodeThreads);
+        setParallelism(Stage.HASH, hashThreads);
+    }
+
+    /**
+     * @return a matcher accepting the files with any of the given extensions (case insensitive)
+     */
+    public static PathMatcher suffixMatcher(String... suffixes) {
+        return new SuffixMatcher(suffixes);
+    }
+
+    /**
+     * Sets how many threads work on the given stage
+     */
+    public BatchHasher setParallelism(Stage stage, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A stage needs at least one thread");
+        }
+        this.parallelism[stage.ordinal()] = threads;
+        return this;
+    }
+
+    public int getParallelism(Stage stage) {
+        return this.parallelism[stage.ordinal()];
+    }
+
+    /**
+     * Sets how many files can be waiting for the given stage before the previous one blocks
+     */
+    public BatchHasher setQueueCapacity(Stage stage, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A stage queue needs a capacity of at least one");
+        }
+        this.queueCapacity[stage.ordinal()] = capacity;
+        return this;
+    }
+
+    public int getQueueCapacity(Stage stage) {
+        return this.queueCapacity[stage.ordinal()];
+    }
+
+    /**
+     * Makes the hashes be calculated on (at most) a targetSize square, decoding images at the reduced resolution
+     * that still covers it (see {@link RadialHashAlgorithm#getHash(java.io.File, int)}). Defaults to
+     * {@link ImageDecoder#FULL_RESOLUTION}.
+     */
+    public BatchHasher setDecodeSize(int targetSize) {
+        ImageDecoder.checkTargetSize(targetSize);
+        this.decodeSize = targetSize;
+        return this;
+    }
+
+    public int getDecodeSize() {
+        return decodeSize;
+    }
+
+    /**
+     * Makes the decode stage go straight to a grayscale image, using the luma only JPEG decoder where it can (see
+     * {@link ImageDecoder#readGrayscale(byte[], int)}). Hashes are very similar, but not identical, to the ImageIO
+     * ones. Off by default.
+     */
+    public BatchHasher setLumaDecoding(boolean lumaDecoding) {
+        this.lumaDecoding = lumaDecoding;
+        return this;
+    }
+
+    public boolean isLumaDecoding() {
+        return lumaDecoding;
+    }
+
+    /**
+     * Makes the decode stage hash the preview embedded in camera JPEGs instead of decoding them when it covers the
+     * decode size (see {@link JpegThumbnail}), which needs a decode size to be set.
+     * Hashes are very similar, but not identical, to those of the image. Off by default.
+     */
+    public BatchHasher setThumbnailDecoding(boolean thumbnailDecoding) {
+        this.thumbnailDecoding = thumbnailDecoding;
+        return this;
+    }
+
+    public boolean isThumbnailDecoding() {
+        return thumbnailDecoding;
+    }
+
+    /**
+     * Makes files wait to be decoded until the controller admits them, and rejects those with more pixels than it
+     * allows (with an {@link ImageTooLargeException} result). The same controller can be shared by several runs and
+     * hashers. Null (the default) decodes files as soon as a thread is free.
+     */
+    public BatchHasher setAdmission(AdmissionController admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Hashes every image file (see {@link #IMAGE_FILES}) found walking the directory recursively
+     */
+    public Stream<HashResult> hashDirectory(Path directory) throws IOException {
+        return hashDirectory(directory, IMAGE_FILES);
+    }
+
+    /**
+     * Hashes every regular file found walking the directory recursively that is accepted by the matcher
+     */
+    public Stream<HashResult> hashDirectory(Path directory, final PathMatcher matcher) throws IOException {
+        Stream<Path> files = Files.walk(directory).filter(new Predicate<Path>() {
+            @Override
+            public boolean test(Path path) {
+                return Files.isRegularFile(path) && matcher.matches(path);
+            }
+        });
+        return hash(files);
+    }
+
+    public Stream<HashResult> hash(List<Path> paths) {
+        return hash(paths.stream());
+    }
+
+    /**
+     * Hashes the given files. The source stream is consumed by a background thread and closed once the run ends.
+     */
+    public Stream<HashResult> hash(Stream<Path> paths) {
+        final Run run = new Run(paths);
+        run.start();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(run, Spliterator.NONNULL), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        run.cancel();
+                    }
+                });
+    }
+
+    private void process(Stage stage, Job job) throws Exception {
+        switch (stage) {
+            case READ:
+                job.bytes = Files.readAllBytes(job.path);
+                break;
+            case DECODE:
+                if (thumbnailDecoding) {
+                    job.image = JpegThumbnail.read(job.bytes, decodeSize);
+                }
+                if (job.image == null) {
+                    if (lumaDecoding) {
+                        job.grayscale = ImageDecoder.readGrayscale(job.bytes, decodeSize);
+                    } else {
+                        job.image = ImageDecoder.read(job.bytes, decodeSize);
+                    }
+                }
+                job.bytes = null;
+                if (job.image == null && job.grayscale == null) {
+                    throw new IOException("No ImageIO reader could decode " + job.path);
+                }
+                break;
+            case HASH:
+                // Hash threads live as long as the run, so their workspaces get reused for every image
+                HashWorkspace workspace = HashWorkspace.forCurrentThread();
+                if (job.grayscale != null) {
+                    job.hash = RadialHashAlgorithm.getHash(job.grayscale, decodeSize, workspace);
+                } else {
+                    job.hash = RadialHashAlgorithm.getHash(job.image, decodeSize, workspace);
+                }
+                job.image = null;
+                job.grayscale = null;
+                break;
+        }
+    }
+
+    /**
+     * The state of one file as it goes through the stages
+     */
+    private static class Job {
+        final Path path;
+        byte[] bytes;
+        BufferedImage image;
+        SimpleGrayscaleImage grayscale;
+        RadialHash hash;
+        Exception error;
+
+        ImageHeader header;
+        long estimate;
+        AdmissionController.Ticket ticket;
+        AdmissionController.Permit permit;
+
+        Job(Path path) {
+            this.path = path;
+        }
+
+        void release() {
+            if (ticket != null) {
+                ticket.close();
+                ticket = null;
+            }
+            if (permit != null) {
+                permit.close();
+                permit = null;
+            }
+        }
+
+        HashResult toResult() {
+            return new HashResult(path, hash, error);
+        }
+    }
+
+    /**
+     * One execution of the pipeline. Queue i feeds stage i and the last queue holds the results. With admission
+     * control the decode queue feeds the admission thread instead, which passes the files it admits on to the
+     * decode threads through the admitted queue.
+     */
+    private class Run implements Iterator<HashResult> {
+        private final Stream<Path> source;
+        private final AdmissionController admission;
+        private final BlockingQueue<Job>[] queues;
+        private final BlockingQueue<Job> admitted;
+        private final AtomicInteger[] runningWorkers;
+        private final ExecutorService executor;
+        private volatile boolean cancelled = false;
+        private Job next;
+
+        @SuppressWarnings("unchecked")
+        Run(Stream<Path> source) {
+            this.source = source;
+            this.admission = BatchHasher.this.admission;
+            int numStages = Stage.values().length;
+            this.queues = new BlockingQueue[numStages + 1];
+            this.runningWorkers = new AtomicInteger[numStages];
+            for (int i = 0; i < numStages; i++) {
+                this.queues[i] = new ArrayBlockingQueue<Job>(queueCapacity[i]);
+                this.runningWorkers[i] = new AtomicInteger(parallelism[i]);
+            }
+            this.queues[numStages] = new ArrayBlockingQueue<Job>(DEFAULT_QUEUE_CAPACITY);
+            int decodeCapacity = queueCapacity[Stage.DECODE.ordinal()];
+            this.admitted = admission == null ? null : new ArrayBlockingQueue<Job>(decodeCapacity);
+            this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory("jphash-batch-" + RUN_COUNTER.incrementAndGet()));
+        }
+
+        void start() {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    feed();
+                }
+            });
+            if (admission != null) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        admit();
+                    }
+                });
+            }
+            for (final Stage stage : Stage.values()) {
+                for (int i = 0; i < parallelism[stage.ordinal()]; i++) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            work(stage);
+                        }
+                    });
+                }
+            }
+        }
+
+        private void feed() {
+            BlockingQueue<Job> out = queues[0];
+            try {
+                try {
+                    Iterator<Path> paths = source.iterator();
+                    while (!cancelled && paths.hasNext()) {
+                        out.put(new Job(paths.next()));
+                    }
+                } catch (RuntimeException e) {
+                    // The source failed (e.g. an unreadable directory while walking), report it as a result
+                    Job failed = new Job(null);
+                    failed.error = e;
+                    out.put(failed);
+                }
+                out.put(END);
+            } catch (InterruptedException e) {
+                // Cancelled
+            }
+        }
+
+        /**
+         * Reads the header of the files coming out of the read stage and hands them to the decode threads as the
+         * admission controller lets them in. Files that don't fit yet wait, up to a decode queue's worth of them.
+         */
+        private void admit() {
+            BlockingQueue<Job> in = queues[Stage.DECODE.ordinal()];
+            int capacity = queueCapacity[Stage.DECODE.ordinal()];
+            List<Job> pending = new ArrayList<Job>();
+            boolean ended = false;
+            try {
+                while (!ended || !pending.isEmpty()) {
+                    if (!ended && pending.size() < capacity) {
+                        Job job = pending.isEmpty() ? in.take()
+                                : in.poll(ADMISSION_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (job == END) {
+                            ended = true;
+                        } else if (job != null) {
+                            estimate(job);
+                            pending.add(job);
+                        }
+                    } else {
+                        admission.awaitRelease(ADMISSION_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    admitPending(pending);
+                }
+                admitted.put(END);
+            } catch (InterruptedException e) {
+                // Cancelled, give up their place in the controller's queue
+                for (Job job : pending) {
+                    job.release();
+                }
+            }
+        }
+
+        private void estimate(Job job) {
+            if (job.error != null) {
+                return;
+            }
+            try {
+                job.header = ImageHeader.read(job.bytes);
+                if (job.header != null) {
+                    admission.checkPixels(job.header);
+                    job.estimate = job.header.estimateMemory(decodeSize, lumaDecoding);
+                }
+                // Otherwise there's no reader for it and the decode stage reports the error
+                job.ticket = admission.queue(job.estimate);
+            } catch (Exception e) {
+                job.bytes = null;
+                job.error = e;
+            }
+        }
+
+        /**
+         * Passes on, in order, the pending files the controller admits now. A file that doesn't fit lets later ones go
+         * ahead of it up to {@link AdmissionController#MAX_BYPASSES} times, then the controller holds them back (and
+         * the work of other runs sharing it) until it gets in.
+         */
+        private void admitPending(List<Job> pending) throws InterruptedException {
+            for (Iterator<Job> jobs = pending.iterator(); jobs.hasNext(); ) {
+                Job job = jobs.next();
+                if (job.error == null) {
+                    job.permit = job.ticket.tryAdmit();
+                    if (job.permit == null) {
+                        continue;
+                    }
+                    job.ticket = null;
+                }
+                jobs.remove();
+                try {
+                    admitted.put(job);
+                } catch (InterruptedException e) {
+                    job.release();
+                    throw e;
+                }
+            }
+        }
+
+        private void work(Stage stage) {
+            BlockingQueue<Job> in = (stage == Stage.DECODE && admitted != null) ? admitted : queues[stage.ordinal()];
+            BlockingQueue<Job> out = queues[stage.ordinal() + 1];
+            Job job = null;
+            try {
+                while (true) {
+                    job = in.take();
+                    if (job == END) {
+                        // Leave it for the other workers of this stage, the last one to finish passes it on
+                        in.put(END);
+                        return;
+                    }
+                    if (job.error == null) {
+                        try {
+                            process(stage, job);
+                        } catch (Exception e) {
+                            job.error = e;
+                        } catch (OutOfMemoryError e) {
+                            job.bytes = null;
+                            job.image = null;
+                            job.grayscale = null;
+                            job.error = new ExecutionException("Ran out of memory while processing " + job.path, e);
+                        } catch (Throwable e) {
+                            // Such as a LinkageError from an ImageIO plugin choking on the file
+                            job.error = new ExecutionException("Failed processing " + job.path, e);
+                        }
+                    }
+                    if (stage == Stage.HASH || job.error != null) {
+                        // Done with its memory
+                        job.release();
+                    }
+                    out.put(job);
+                    job = null;
+                }
+            } catch (InterruptedException e) {
+                // Cancelled
+                if (job != null) {
+                    job.release();
+                }
+            } finally {
+                // Even if the worker died, or the results would never end
+                if (runningWorkers[stage.ordinal()].decrementAndGet() == 0 && !cancelled) {
+                    try {
+                        out.put(END);
+                    } catch (InterruptedException e) {
+                        // Cancelled
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = queues[queues.length - 1].take();
+                } catch (InterruptedException e) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for hash results", e);
+                }
+                if (next == END) {
+                    finish();
+                }
+            }
+            return next != END;
+        }
+
+        @Override
+        public HashResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HashResult result = next.toResult();
+            next = null;
+            return result;
+        }
+
+        private void finish() {
+            executor.shutdown();
+            source.close();
+        }
+
+        void cancel() {
+            cancelled = true;
+            executor.shutdownNow();
+            source.close();
+            if (admission != null) {
+                // Give back the budget of the files left in the queues, the threads release the ones they hold
+                releaseQueued(admitted);
+                for (BlockingQueue<Job> queue : queues) {
+                    releaseQueued(queue);
+                }
+            }
+        }
+
+        private void releaseQueued(BlockingQueue<Job> queue) {
+            for (Job job = queue.poll(); job != null; job = queue.poll()) {
+                job.release();
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class SuffixMatcher implements PathMatcher {
+        private final Set<String> suffixes = new HashSet<String>();
+
+        SuffixMatcher(String... suffixes) {
+            for (String suffix : suffixes) {
+                this.suffixes.add(suffix.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        @Override
+        public boolean matches(Path path) {
+            Path fileName = path.getFileName();
+            if (fileName == null) {
+                return false;
+            }
+            String name = fileName.toString();
+            int pos = name.lastIndexOf('.');
+            return pos > 0 && suffixes.contains(name.substring(pos + 1).toLowerCase(Locale.ROOT));
+        }
+    }
+}
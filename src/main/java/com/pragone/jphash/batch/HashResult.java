@@ -0,0 +1,45 @@
+package com.pragone.jphash.batch;
+
+import com.pragone.jphash.image.radial.RadialHash;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of hashing one file in a {@link BatchHasher} run: either the hash or the error that prevented
+ * calculating it.
+ */
+public class HashResult {
+    private final Path path;
+    private final RadialHash hash;
+    private final Exception error;
+
+    public HashResult(Path path, RadialHash hash, Exception error) {
+        this.path = path;
+        this.hash = hash;
+        this.error = error;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the hash of the file or null if it couldn't be calculated (see {@link #getError()})
+     */
+    public RadialHash getHash() {
+        return hash;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return path + "\t" + (isSuccess() ? hash : "ERROR: " + error);
+    }
+}
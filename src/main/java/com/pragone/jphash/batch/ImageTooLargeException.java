@@ -0,0 +1,12 @@
+package com.pragone.jphash.batch;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link AdmissionController} for images with more pixels than its limit, before they are decoded
+ */
+public class ImageTooLargeException extends IOException {
+    public ImageTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,120 @@
+package com.pragone.jphash.image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The 5 tap blur of {@link SimpleGrayscaleImage#blur()} on a heap byte[]: each pixel becomes
+ * (p[-2]/4 + p[-1]/2 + p + p[1]/2 + p[2]/4) * 409 / 1024 (integer halves and quarters), first along the rows and
+ * then along the columns. At the edges the missing taps are left out and the weight is 455 / 1024 (one missing) or
+ * 585 / 1024 (two missing). Results never go above 254, so there's nothing to clamp.
+ *
+ * The rows are blurred with a sliding window of the 5 original levels. The columns are blurred a row at a time over
+ * blocks of columns, keeping copies of the few original rows still needed, so memory is walked sequentially instead of
+ * a whole column at a time. The per pixel loops are {@link PixelKernels}, SIMD ones when available.
+ */
+class GrayscaleBlur {
+    /**
+     * Columns blurred together by the vertical pass, sized so its rows stay in the L1 cache
+     */
+    private static final int COLUMN_BLOCK = 1024;
+    /**
+     * The narrowest column block the parallel blur splits the columns into: a cache line
+     */
+    private static final int MIN_PARALLEL_COLUMN_BLOCK = 64;
+
+    private GrayscaleBlur() {
+    }
+
+    /**
+     * Blurs the width x height image in the first width * height bytes of pixels. Images 6 pixels wide or high (or
+     * smaller) are left as they are.
+     */
+    static void blur(byte[] pixels, int width, int height, ImageBuffers buffers) {
+        if (width <= 6 || height <= 6) {
+            return;
+        }
+        PixelKernels kernels = PixelKernels.get();
+        byte[] scratch = buffers.blurScratch(width);
+        for (int y = 0; y < height; y++) {
+            kernels.blurRow(pixels, y * width, width, scratch);
+        }
+        int blockWidth = Math.min(width, COLUMN_BLOCK);
+        byte[][] rows = buffers.blurRows(blockWidth);
+        byte[] zeros = buffers.blurZeros(blockWidth);
+        for (int x = 0; x < width; x += blockWidth) {
+            blurColumns(kernels, pixels, width, height, x, Math.min(blockWidth, width - x), rows, zeros);
+        }
+    }
+
+    /**
+     * Same as {@link #blur(byte[], int, int, ImageBuffers)} but splitting the rows of the horizontal pass and the
+     * column blocks of the vertical one between the workers of the pool (see {@link ParallelRanges}). The tasks use
+     * buffers of their own, the given ones are only used without a pool.
+     */
+    static void blur(final byte[] pixels, final int width, final int height, ImageBuffers buffers, ForkJoinPool pool) {
+        if (pool == null) {
+            blur(pixels, width, height, buffers);
+            return;
+        }
+        if (width <= 6 || height <= 6) {
+            return;
+        }
+        final PixelKernels kernels = PixelKernels.get();
+        ParallelRanges.run(pool, height, width, new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                byte[] scratch = new byte[width];
+                for (int y = from; y < to; y++) {
+                    kernels.blurRow(pixels, y * width, width, scratch);
+                }
+                return 0;
+            }
+        });
+        // Narrower blocks than usual if that's what it takes to give every worker some
+        int workerColumns = (width + pool.getParallelism() - 1) / pool.getParallelism();
+        final int blockWidth = Math.min(Math.min(width, COLUMN_BLOCK),
+                Math.max(MIN_PARALLEL_COLUMN_BLOCK, workerColumns));
+        int blocks = (width + blockWidth - 1) / blockWidth;
+        ParallelRanges.run(pool, blocks, blockWidth * height, new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                byte[][] rows = new byte[3][blockWidth];
+                byte[] zeros = new byte[blockWidth];
+                for (int block = from; block < to; block++) {
+                    int x = block * blockWidth;
+                    blurColumns(kernels, pixels, width, height, x, Math.min(blockWidth, width - x), rows, zeros);
+                }
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * Blurs columns x .. x + blockWidth - 1 going down the rows. Before a row is overwritten its original levels are
+     * copied to rows[y % 3], which is where the two rows below take them from. Taps outside the image read zeros.
+     */
+    private static void blurColumns(PixelKernels kernels, byte[] pixels, int width, int height, int x, int blockWidth,
+                                    byte[][] rows, byte[] zeros) {
+        for (int y = 0; y < height; y++) {
+            byte[] current = rows[y % 3];
+            System.arraycopy(pixels, y * width + x, current, 0, blockWidth);
+            byte[] up2 = y >= 2 ? rows[(y - 2) % 3] : zeros;
+            byte[] up1 = y >= 1 ? rows[(y - 1) % 3] : zeros;
+            byte[] down1 = pixels;
+            int down1Offset = (y + 1) * width + x;
+            if (y + 1 >= height) {
+                down1 = zeros;
+                down1Offset = 0;
+            }
+            byte[] down2 = pixels;
+            int down2Offset = (y + 2) * width + x;
+            if (y + 2 >= height) {
+                down2 = zeros;
+                down2Offset = 0;
+            }
+            int weight = (y == 0 || y == height - 1) ? 585 : (y == 1 || y == height - 2) ? 455 : 409;
+            kernels.blurColumns(up2, up1, current, down1, down1Offset, down2, down2Offset, pixels, y * width + x,
+                    blockWidth, weight);
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.pragone.jphash.image;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Converts rows of a BufferedImage to the gray levels {@link SimpleGrayscaleImage#loadImage(BufferedImage)} works
+ * with, reading the pixels straight from the DataBuffer of the common layouts: byte interleaved (3BYTE_BGR,
+ * 4BYTE_ABGR, BYTE_GRAY...), int or ushort packed (INT_RGB, INT_ARGB, USHORT_565_RGB...), indexed (BYTE_INDEXED,
+ * BYTE_BINARY) and 16 bit components (USHORT_GRAY, 16 bit PNGs). Anything else goes through getRGB, a row at a time.
+ *
+ * Color images get the CImg luma of {@link #luma(int, int, int)}, so every layout gives the same gray levels as the
+ * same pixels in a TYPE_3BYTE_BGR image. Translucent pixels are blended over black first, as drawing the image into
+ * a new TYPE_3BYTE_BGR image would. Grayscale images (see {@link #isGray()}) keep their levels as they are.
+ */
+public abstract class GrayscaleConverter {
+    protected final int width;
+    protected final int height;
+    protected final Raster raster;
+
+    protected GrayscaleConverter(BufferedImage image) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.raster = image.getRaster();
+    }
+
+    /**
+     * @return the fastest converter for the layout of the image
+     */
+    public static GrayscaleConverter forImage(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        SampleModel sampleModel = image.getSampleModel();
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        int colorSpaceType = colorModel.getColorSpace().getType();
+        boolean rgb = colorModel.getColorSpace().isCS_sRGB();
+        boolean gray = colorSpaceType == ColorSpace.TYPE_GRAY;
+        if (colorModel instanceof IndexColorModel) {
+            return new IndexedConverter(image);
+        }
+        if (colorModel instanceof DirectColorModel && sampleModel instanceof SinglePixelPackedSampleModel && rgb
+                && (dataBuffer instanceof DataBufferInt || dataBuffer instanceof DataBufferUShort)) {
+            return new PackedConverter(image);
+        }
+        if (sampleModel instanceof ComponentSampleModel && (rgb || gray)
+                && sampleModel.getNumBands() == colorModel.getNumComponents()) {
+            if (dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1) {
+                return new ByteComponentConverter(image);
+            }
+            if (dataBuffer instanceof DataBufferUShort && dataBuffer.getNumBanks() == 1) {
+                return new UShortComponentConverter(image);
+            }
+        }
+        return new RGBConverter(image);
+    }
+
+    /**
+     * @return true if the image is grayscale: its levels are copied as they are and don't get normalized
+     */
+    public abstract boolean isGray();
+
+    /**
+     * Converts rows y to y + rows - 1 into dest, each of them width bytes long, the first one starting at destOffset
+     *
+     * @return the biggest gray level written
+     */
+    public abstract int convert(int y, int rows, byte[] dest, int destOffset);
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The CImg luma, + 16 offset included. It's weighed as loadImage has always weighed TYPE_3BYTE_BGR images,
+     * whose raster elements come in R, G, B order: red gets the blue weight and vice versa.
+     */
+    public static int luma(int r, int g, int b) {
+        int y = ((b * 66 + g * 129 + r * 25) >> 8) + 16;
+        return y > 255 ? 255 : y;
+    }
+
+    /**
+     * @return value * alpha / 255, rounded
+     */
+    protected static int blend(int value, int alpha) {
+        int t = value * alpha + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    /**
+     * @return the n bit value scaled to 8 bits as Java2D does it: replicating its bits when it's shorter, keeping its
+     * top 8 bits when it's longer
+     */
+    protected static int to8Bits(int value, int bits) {
+        if (bits >= 8) {
+            return value >>> (bits - 8);
+        }
+        int result = 0;
+        for (int shift = 8 - bits; shift > -bits; shift -= bits) {
+            result |= shift >= 0 ? value << shift : value >>> -shift;
+        }
+        return result;
+    }
+
+    /**
+     * Byte interleaved or banded samples of a gray or sRGB ComponentColorModel, with or without alpha
+     */
+    private static class ByteComponentConverter extends GrayscaleConverter {
+        private final byte[] data;
+        private final int pixelStride;
+        private final int scanlineStride;
+        private final int base;
+        private final int[] offsets;
+        private final boolean gray;
+        private final boolean blend;
+
+        ByteComponentConverter(BufferedImage image) {
+            super(image);
+            ComponentSampleModel sampleModel = (ComponentSampleModel) image.getSampleModel();
+            ColorModel colorModel = image.getColorModel();
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            this.data = dataBuffer.getData();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.base = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX() * pixelStride;
+            this.offsets = sampleModel.getBandOffsets();
+            this.gray = colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+            this.blend = colorModel.hasAlpha() && !colorModel.isAlphaPremultiplied();
+        }
+
+        @Override
+        public boolean isGray() {
+            return gray;
+        }
+
+        @Override
+        public int convert(int y, int rows, byte[] dest, int destOffset) {
+            int max = 0;
+            for (int row = y; row < y + rows; row++) {
+                int src = base + row * scanlineStride;
+                int end = destOffset + width;
+                if (gray) {
+                    int g = offsets[0];
+                    int a = blend ? offsets[1] : 0;
+                    for (int i = destOffset; i < end; i++, src += pixelStride) {
+                        int value = data[src + g] & 0xFF;
+                        if (blend) {
+                            value = blend(value, data[src + a] & 0xFF);
+                        }
+                        dest[i] = (byte) value;
+                    }
+                } else if (blend) {
+                    int r = offsets[0], g = offsets[1], b = offsets[2], a = offsets[3];
+                    for (int i = destOffset; i < end; i++, src += pixelStride) {
+                        int alpha = data[src + a] & 0xFF;
+                        int value = luma(blend(data[src + r] & 0xFF, alpha), blend(data[src + g] & 0xFF, alpha),
+                                blend(data[src + b] & 0xFF, alpha));
+                        if (value > max) {
+                            max = value;
+                        }
+                        dest[i] = (byte) value;
+                    }
+                } else {
+                    int rowMax = PixelKernels.get().luma(data, src, pixelStride, offsets[0], offsets[1], offsets[2],
+                            dest, destOffset, width);
+                    if (rowMax > max) {
+                        max = rowMax;
+                    }
+                }
+                destOffset = end;
+            }
+            return max;
+        }
+    }
+
+    /**
+     * 16 bit samples of a gray or sRGB ComponentColorModel (USHORT_GRAY, 16 bit PNGs), scaled down to 8 bits
+     */
+    private static class UShortComponentConverter extends GrayscaleConverter {
+        private final short[] data;
+        private final int pixelStride;
+        private final int scanlineStride;
+        private final int base;
+        private final int[] offsets;
+        private final boolean gray;
+        private final boolean blend;
+
+        UShortComponentConverter(BufferedImage image) {
+            super(image);
+            ComponentSampleModel sampleModel = (ComponentSampleModel) image.getSampleModel();
+            ColorModel colorModel = image.getColorModel();
+            DataBufferUShort dataBuffer = (DataBufferUShort) raster.getDataBuffer();
+            this.data = dataBuffer.getData();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.base = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX() * pixelStride;
+            this.offsets = sampleModel.getBandOffsets();
+            this.gray = colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+            this.blend = colorModel.hasAlpha() && !colorModel.isAlphaPremultiplied();
+        }
+
+        private int sample(int index) {
+            // (v * 255 + 32767) / 65535, without the division
+            int v = data[index] & 0xFFFF;
+            return (v * 255 + 32767 + ((v * 255 + 32767) >> 16)) >> 16;
+        }
+
+        @Override
+        public boolean isGray() {
+            return gray;
+        }
+
+        @Override
+        public int convert(int y, int rows, byte[] dest, int destOffset) {
+            int max = 0;
+            for (int row = y; row < y + rows; row++) {
+                int src = base + row * scanlineStride;
+                int end = destOffset + width;
+                for (int i = destOffset; i < end; i++, src += pixelStride) {
+                    int value;
+                    if (gray) {
+                        value = sample(src + offsets[0]);
+                        if (blend) {
+                            value = blend(value, sample(src + offsets[1]));
+                        }
+                    } else {
+                        int r = sample(src + offsets[0]);
+                        int g = sample(src + offsets[1]);
+                        int b = sample(src + offsets[2]);
+                        if (blend) {
+                            int alpha = sample(src + offsets[3]);
+                            r = blend(r, alpha);
+                            g = blend(g, alpha);
+                            b = blend(b, alpha);
+                        }
+                        value = luma(r, g, b);
+                    }
+                    if (value > max) {
+                        max = value;
+                    }
+                    dest[i] = (byte) value;
+                }
+                destOffset = end;
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Pixels packed in an int or a ushort (INT_RGB, INT_ARGB, INT_ARGB_PRE, INT_BGR, USHORT_565_RGB...)
+     */
+    private static class PackedConverter extends GrayscaleConverter {
+        private final int[] intData;
+        private final short[] shortData;
+        private final int scanlineStride;
+        private final int base;
+        private final int[] masks;
+        private final int[] shifts;
+        private final int[] bits;
+        private final boolean blend;
+        private final boolean simple;
+
+        PackedConverter(BufferedImage image) {
+            super(image);
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) image.getSampleModel();
+            ColorModel colorModel = image.getColorModel();
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            this.intData = dataBuffer instanceof DataBufferInt ? ((DataBufferInt) dataBuffer).getData() : null;
+            this.shortData = dataBuffer instanceof DataBufferUShort ? ((DataBufferUShort) dataBuffer).getData() : null;
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.base = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+                    - raster.getSampleModelTranslateX();
+            this.masks = sampleModel.getBitMasks();
+            this.shifts = sampleModel.getBitOffsets();
+            this.bits = new int[masks.length];
+            boolean allBytes = true;
+            for (int i = 0; i < masks.length; i++) {
+                bits[i] = Integer.bitCount(masks[i]);
+                allBytes &= bits[i] == 8;
+            }
+            this.blend = colorModel.hasAlpha() && !colorModel.isAlphaPremultiplied();
+            this.simple = intData != null && allBytes && !blend;
+        }
+
+        @Override
+        public boolean isGray() {
+            return false;
+        }
+
+        @Override
+        public int convert(int y, int rows, byte[] dest, int destOffset) {
+            int max = 0;
+            for (int row = y; row < y + rows; row++) {
+                int src = base + row * scanlineStride;
+                int end = destOffset + width;
+                if (simple) {
+                    // 8 bits per channel, no alpha to blend: INT_RGB, INT_BGR, INT_ARGB_PRE
+                    int rShift = shifts[0], gShift = shifts[1], bShift = shifts[2];
+                    for (int i = destOffset; i < end; i++, src++) {
+                        int pixel = intData[src];
+                        int value = luma((pixel >>> rShift) & 0xFF, (pixel >>> gShift) & 0xFF, (pixel >>> bShift) & 0xFF);
+                        if (value > max) {
+                            max = value;
+                        }
+                        dest[i] = (byte) value;
+                    }
+                } else {
+                    for (int i = destOffset; i < end; i++, src++) {
+                        int pixel = intData != null ? intData[src] : shortData[src] & 0xFFFF;
+                        int r = channel(pixel, 0);
+                        int g = channel(pixel, 1);
+                        int b = channel(pixel, 2);
+                        if (blend) {
+                            int alpha = channel(pixel, 3);
+                            r = blend(r, alpha);
+                            g = blend(g, alpha);
+                            b = blend(b, alpha);
+                        }
+                        int value = luma(r, g, b);
+                        if (value > max) {
+                            max = value;
+                        }
+                        dest[i] = (byte) value;
+                    }
+                }
+                destOffset = end;
+            }
+            return max;
+        }
+
+        private int channel(int pixel, int band) {
+            return to8Bits((pixel & masks[band]) >>> shifts[band], bits[band]);
+        }
+    }
+
+    /**
+     * Palette images of any bit depth, with the gray level of every palette entry calculated up front
+     */
+    private static class IndexedConverter extends GrayscaleConverter {
+        private final int[] palette;
+        private final int[] row;
+        private final byte[] data;
+        private final int pixelStride;
+        private final int scanlineStride;
+        private final int base;
+
+        IndexedConverter(BufferedImage image) {
+            super(image);
+            IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+            int size = 1 << colorModel.getPixelSize();
+            this.palette = new int[Math.max(size, colorModel.getMapSize())];
+            for (int i = 0; i < colorModel.getMapSize(); i++) {
+                int alpha = colorModel.getAlpha(i);
+                palette[i] = luma(blend(colorModel.getRed(i), alpha), blend(colorModel.getGreen(i), alpha),
+                        blend(colorModel.getBlue(i), alpha));
+            }
+            SampleModel sampleModel = image.getSampleModel();
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            if (sampleModel instanceof ComponentSampleModel && dataBuffer instanceof DataBufferByte) {
+                // 8 bit indices (BYTE_INDEXED), read directly
+                ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+                this.data = ((DataBufferByte) dataBuffer).getData();
+                this.pixelStride = componentSampleModel.getPixelStride();
+                this.scanlineStride = componentSampleModel.getScanlineStride();
+                this.base = dataBuffer.getOffset() + componentSampleModel.getBandOffsets()[0]
+                        - raster.getSampleModelTranslateY() * scanlineStride
+                        - raster.getSampleModelTranslateX() * pixelStride;
+                this.row = null;
+            } else {
+                // Packed indices (BYTE_BINARY), unpacked a row at a time by the raster
+                this.data = null;
+                this.pixelStride = 0;
+                this.scanlineStride = 0;
+                this.base = 0;
+                this.row = new int[width];
+            }
+        }
+
+        @Override
+        public boolean isGray() {
+            return false;
+        }
+
+        @Override
+        public int convert(int y, int rows, byte[] dest, int destOffset) {
+            int max = 0;
+            for (int r = y; r < y + rows; r++) {
+                int end = destOffset + width;
+                if (data != null) {
+                    int src = base + r * scanlineStride;
+                    for (int i = destOffset; i < end; i++, src += pixelStride) {
+                        int value = palette[data[src] & 0xFF];
+                        if (value > max) {
+                            max = value;
+                        }
+                        dest[i] = (byte) value;
+                    }
+                } else {
+                    raster.getSamples(raster.getMinX(), raster.getMinY() + r, width, 1, 0, row);
+                    for (int i = destOffset, x = 0; i < end; i++, x++) {
+                        int value = palette[row[x]];
+                        if (value > max) {
+                            max = value;
+                        }
+                        dest[i] = (byte) value;
+                    }
+                }
+                destOffset = end;
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Any other layout (CMYK, float samples, non sRGB color spaces...) through getRGB, a row at a time
+     */
+    private static class RGBConverter extends GrayscaleConverter {
+        private final BufferedImage image;
+        private final int[] row;
+
+        RGBConverter(BufferedImage image) {
+            super(image);
+            this.image = image;
+            this.row = new int[width];
+        }
+
+        @Override
+        public boolean isGray() {
+            return false;
+        }
+
+        @Override
+        public int convert(int y, int rows, byte[] dest, int destOffset) {
+            int max = 0;
+            for (int r = y; r < y + rows; r++) {
+                image.getRGB(0, r, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int pixel = row[x];
+                    int alpha = pixel >>> 24;
+                    int value = luma(blend((pixel >> 16) & 0xFF, alpha), blend((pixel >> 8) & 0xFF, alpha),
+                            blend(pixel & 0xFF, alpha));
+                    if (value > max) {
+                        max = value;
+                    }
+                    dest[destOffset + x] = (byte) value;
+                }
+                destOffset += width;
+            }
+            return max;
+        }
+    }
+}
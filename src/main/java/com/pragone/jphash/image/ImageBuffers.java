@@ -0,0 +1,182 @@
+package com.pragone.jphash.image;
+
+import java.io.Closeable;
+
+/**
+ * Scratch memory for loading, resizing and blurring a {@link SimpleGrayscaleImage}: the pixels themselves (in
+ * {@link PixelStorage} of the backend given) plus the work buffers of the load, the resize ({@link ScanlineResizer})
+ * and the blur. Buffers only ever grow, so once they've seen the biggest image of a series the rest are processed
+ * without allocating. Closing them frees the pixel storage, or gives it back to the pool (see
+ * {@link PixelStoragePool}) for buffers that take it from one.
+ *
+ * Not thread safe, and an image built on these buffers (see {@link SimpleGrayscaleImage#SimpleGrayscaleImage(ImageBuffers)})
+ * is only valid until they are used for another one.
+ */
+public class ImageBuffers implements Closeable {
+    private final PixelStorage.Backend backend;
+    private final PixelStoragePool pool;
+    private PixelStorage pixels;
+    private byte[] strip;
+    private byte[] blurPixels = new byte[0];
+    private final byte[][] blurRows = new byte[3][0];
+    private byte[] blurZeros = new byte[0];
+    private byte[] blurScratch = new byte[0];
+    private final byte[][] resizeRows = new byte[ScanlineResizer.WINDOW][0];
+    private int[] kernelRow = new int[0];
+    private final int[][] interpolatedRows = new int[4][0];
+    private byte[] resizedRow = new byte[0];
+
+    /**
+     * Buffers keeping the pixels in storage of the default backend (see {@link PixelStorage#getDefaultBackend()})
+     */
+    public ImageBuffers() {
+        this(PixelStorage.getDefaultBackend());
+    }
+
+    public ImageBuffers(PixelStorage.Backend backend) {
+        this.backend = backend;
+        this.pool = null;
+    }
+
+    /**
+     * Buffers taking the pixel storage from the pool, and giving it back when closed
+     */
+    public ImageBuffers(PixelStoragePool pool) {
+        this.backend = pool.getBackend();
+        this.pool = pool;
+    }
+
+    public PixelStorage.Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return storage for at least size pixels
+     */
+    PixelStorage pixels(int size) {
+        if (pixels == null || pixels.size() < size) {
+            close();
+            pixels = allocatePixels(size);
+        }
+        return pixels;
+    }
+
+    /**
+     * @return storage for at least size pixels (from the pool if there is one) for an image to keep as its own. It's
+     * given back with {@link #freePixels(PixelStorage)}.
+     */
+    PixelStorage allocatePixels(int size) {
+        return pool != null ? pool.acquire(size) : PixelStorage.allocate(backend, size);
+    }
+
+    void freePixels(PixelStorage storage) {
+        if (pool != null) {
+            pool.release(storage);
+        } else {
+            storage.close();
+        }
+    }
+
+    byte[] strip(int size) {
+        if (strip == null || strip.length < size) {
+            strip = new byte[size];
+        }
+        return strip;
+    }
+
+    /**
+     * @return the heap copy of the pixels the blur works on (see {@link GrayscaleBlur})
+     */
+    byte[] blurPixels(int size) {
+        if (blurPixels.length < size) {
+            blurPixels = new byte[size];
+        }
+        return blurPixels;
+    }
+
+    /**
+     * @return the 3 original rows the vertical blur keeps, each at least width long
+     */
+    byte[][] blurRows(int width) {
+        grow(blurRows, width);
+        return blurRows;
+    }
+
+    /**
+     * @return at least width zeros, for the taps of the vertical blur outside the image
+     */
+    byte[] blurZeros(int width) {
+        if (blurZeros.length < width) {
+            blurZeros = new byte[width];
+        }
+        return blurZeros;
+    }
+
+    /**
+     * @return a row for the blur kernels to copy levels to (see {@link PixelKernels#blurRow})
+     */
+    byte[] blurScratch(int width) {
+        if (blurScratch.length < width) {
+            blurScratch = new byte[width];
+        }
+        return blurScratch;
+    }
+
+    /**
+     * @return the window of source rows of the resize, each at least width long
+     */
+    byte[][] resizeRows(int width) {
+        grow(resizeRows, width);
+        return resizeRows;
+    }
+
+    int[] kernelRow(int length) {
+        if (kernelRow.length < length) {
+            kernelRow = new int[length];
+        }
+        return kernelRow;
+    }
+
+    /**
+     * @return the 4 horizontally interpolated rows of the resize, each at least width long
+     */
+    int[][] interpolatedRows(int width) {
+        grow(interpolatedRows, width);
+        return interpolatedRows;
+    }
+
+    byte[] resizedRow(int width) {
+        if (resizedRow.length < width) {
+            resizedRow = new byte[width];
+        }
+        return resizedRow;
+    }
+
+    /**
+     * Frees the pixel storage (or gives it back to the pool). The buffers can still be used afterwards, they'll just
+     * allocate it again.
+     */
+    @Override
+    public void close() {
+        if (pixels != null) {
+            freePixels(pixels);
+            pixels = null;
+        }
+    }
+
+    private static void grow(byte[][] lines, int length) {
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].length < length) {
+                lines[i] = new byte[length];
+            }
+        }
+    }
+
+    private static void grow(int[][] lines, int length) {
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].length < length) {
+                lines[i] = new int[length];
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.pragone.jphash.image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits the work on one image (rows, column blocks, projection angles...) into ranges run on a ForkJoinPool, for
+ * the latency mode of hashing (see
+ * {@link SimpleGrayscaleImage#load(java.awt.image.BufferedImage, int, ForkJoinPool)}).
+ *
+ * Ranges are made of enough items to cover {@link #MIN_TASK_PIXELS} pixels, so the split follows the size of the
+ * image: small images, or small passes on big ones, just run on the calling thread. No range is made smaller than
+ * needed to give every worker of the pool a few of them.
+ */
+public final class ParallelRanges {
+    /**
+     * The least pixels worth a task of their own
+     */
+    public static final int MIN_TASK_PIXELS = 64 * 1024;
+    /**
+     * Tasks per worker, so workers that finish early can steal some from the others
+     */
+    private static final int TASKS_PER_WORKER = 4;
+
+    public interface Range {
+        /**
+         * Works on items from to to - 1. Ranges run concurrently, so they can't share any scratch memory.
+         *
+         * @return a value for {@link #run(ForkJoinPool, int, int, Range)} to combine (the biggest one is kept)
+         */
+        int run(int from, int to);
+    }
+
+    private ParallelRanges() {
+    }
+
+    /**
+     * Runs range over items 0 to count - 1, each of them about itemPixels pixels of work, in parallel on the pool if
+     * there is enough work for more than one task. A null pool runs it all on the calling thread.
+     *
+     * @return the biggest value returned by the ranges
+     */
+    public static int run(ForkJoinPool pool, int count, int itemPixels, Range range) {
+        if (pool == null || count <= 0) {
+            return count <= 0 ? 0 : range.run(0, count);
+        }
+        int grain = Math.max(1, MIN_TASK_PIXELS / Math.max(1, itemPixels));
+        int tasks = pool.getParallelism() * TASKS_PER_WORKER;
+        grain = Math.max(grain, (count + tasks - 1) / tasks);
+        if (count <= grain) {
+            return range.run(0, count);
+        }
+        return pool.invoke(new RangeTask(range, 0, count, grain));
+    }
+
+    /**
+     * Halves its range until it's no bigger than the grain
+     */
+    private static class RangeTask extends RecursiveTask<Integer> {
+        private final Range range;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(Range range, int from, int to, int grain) {
+            this.range = range;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= grain) {
+                return range.run(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(range, from, middle, grain);
+            left.fork();
+            int right = new RangeTask(range, middle, to, grain).compute();
+            return Math.max(left.join(), right);
+        }
+    }
+}
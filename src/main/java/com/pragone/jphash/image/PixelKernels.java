@@ -0,0 +1,183 @@
+package com.pragone.jphash.image;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The per pixel integer loops of the preprocessing: the luma of byte interleaved color pixels, the normalization
+ * of color images and the two passes of the blur (see {@link GrayscaleBlur}).
+ *
+ * This class is the scalar implementation. {@link #get()} returns a SIMD one instead (VectorPixelKernels, built from
+ * src/vector/java by the vector profile) when it was built and the JDK Vector API is there, which means running on
+ * Java 17+ with --add-modules jdk.incubator.vector. Both must give exactly the same levels, or hashes would depend on
+ * the JVM they were calculated on, so the SIMD one is checked against this one before being used. Setting the
+ * jphash.vector system property to false always uses this one.
+ */
+class PixelKernels {
+    static final String VECTOR_PROPERTY = "jphash.vector";
+    private static final String VECTOR_KERNELS = "com.pragone.jphash.image.VectorPixelKernels";
+
+    /**
+     * The normalized levels for every max level: NORMALIZATION_TABLES[maxPixel][level]
+     */
+    private static final byte[][] NORMALIZATION_TABLES = new byte[256][];
+
+    static {
+        for (int maxPixel = 1; maxPixel < 256; maxPixel++) {
+            byte[] table = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                long temp = (((byte) i) << 8) / maxPixel;
+                table[i] = (byte) (temp & 0xFF);
+            }
+            NORMALIZATION_TABLES[maxPixel] = table;
+        }
+    }
+
+    private static final PixelKernels SCALAR = new PixelKernels();
+    private static final PixelKernels INSTANCE = load();
+
+    /**
+     * @return the fastest kernels available
+     */
+    static PixelKernels get() {
+        return INSTANCE;
+    }
+
+    static PixelKernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return whether these are the SIMD kernels
+     */
+    boolean isVectorized() {
+        return false;
+    }
+
+    private static PixelKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) {
+            return SCALAR;
+        }
+        PixelKernels kernels;
+        try {
+            kernels = (PixelKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            // Not built
+            return SCALAR;
+        } catch (LinkageError e) {
+            // Older JVM or no jdk.incubator.vector module
+            return SCALAR;
+        }
+        return kernels.matches(SCALAR) ? kernels : SCALAR;
+    }
+
+    /**
+     * @return whether these kernels give the same results as the given ones on random levels
+     */
+    boolean matches(PixelKernels other) {
+        Random random = new Random(0);
+        int width = 1000;
+        byte[] pixels = new byte[width * 4];
+        random.nextBytes(pixels);
+        byte[] mine = new byte[width];
+        byte[] theirs = new byte[width];
+        if (luma(pixels, 1, 4, 2, 1, 0, mine, 0, width - 1) != other.luma(pixels, 1, 4, 2, 1, 0, theirs, 0, width - 1)
+                || luma(pixels, 0, 3, 0, 1, 2, mine, 0, width) != other.luma(pixels, 0, 3, 0, 1, 2, theirs, 0, width)
+                || !Arrays.equals(mine, theirs)) {
+            return false;
+        }
+        for (int maxPixel = 1; maxPixel < 256; maxPixel += 7) {
+            System.arraycopy(pixels, maxPixel, mine, 0, width);
+            System.arraycopy(pixels, maxPixel, theirs, 0, width);
+            normalize(mine, 1, width - 1, maxPixel);
+            other.normalize(theirs, 1, width - 1, maxPixel);
+            if (!Arrays.equals(mine, theirs)) {
+                return false;
+            }
+        }
+        byte[] scratch = new byte[width];
+        System.arraycopy(pixels, 0, mine, 0, width);
+        System.arraycopy(pixels, 0, theirs, 0, width);
+        blurRow(mine, 1, width - 1, scratch);
+        other.blurRow(theirs, 1, width - 1, scratch);
+        if (!Arrays.equals(mine, theirs)) {
+            return false;
+        }
+        byte[] up1 = Arrays.copyOfRange(pixels, width, 2 * width);
+        byte[] current = Arrays.copyOfRange(pixels, 2 * width, 3 * width);
+        blurColumns(pixels, up1, current, pixels, 3 * width, pixels, 7, mine, 1, width - 1, 409);
+        other.blurColumns(pixels, up1, current, pixels, 3 * width, pixels, 7, theirs, 1, width - 1, 409);
+        return Arrays.equals(mine, theirs);
+    }
+
+    /**
+     * Writes the luma (see {@link GrayscaleConverter#luma(int, int, int)}) of count pixels, pixelStride bytes apart
+     * starting at data[src] with their components at offsets r, g and b, to dest from destOffset on
+     *
+     * @return the biggest level written
+     */
+    int luma(byte[] data, int src, int pixelStride, int r, int g, int b, byte[] dest, int destOffset, int count) {
+        int max = 0;
+        int end = destOffset + count;
+        for (int i = destOffset; i < end; i++, src += pixelStride) {
+            int value = GrayscaleConverter.luma(data[src + r] & 0xFF, data[src + g] & 0xFF, data[src + b] & 0xFF);
+            if (value > max) {
+                max = value;
+            }
+            dest[i] = (byte) value;
+        }
+        return max;
+    }
+
+    /**
+     * Normalizes count levels in place for the given (non zero) max level: level * 256 / maxPixel, wrapped to a byte,
+     * taking the level as a signed byte (so those above 127 wrap around)
+     */
+    void normalize(byte[] levels, int offset, int count, int maxPixel) {
+        byte[] table = NORMALIZATION_TABLES[maxPixel];
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            levels[i] = table[levels[i] & 0xFF];
+        }
+    }
+
+    /**
+     * Blurs the width (more than 6) levels from pixels[offset] in place (see {@link GrayscaleBlur}). scratch holds at
+     * least width bytes for implementations that need a copy of the row.
+     */
+    void blurRow(byte[] pixels, int offset, int width, byte[] scratch) {
+        // The original levels of x - 2 .. x + 2
+        int v0 = pixels[offset] & 0xFF;
+        int v1 = pixels[offset + 1] & 0xFF;
+        int v2 = pixels[offset + 2] & 0xFF;
+        int v3 = pixels[offset + 3] & 0xFF;
+        int v4;
+        pixels[offset] = (byte) (((v0 + (v1 >> 1) + (v2 >> 2)) * 585) >> 10);
+        pixels[offset + 1] = (byte) ((((v0 >> 1) + v1 + (v2 >> 1) + (v3 >> 2)) * 455) >> 10);
+        int end = offset + width - 2;
+        for (int i = offset + 2; i < end; i++) {
+            v4 = pixels[i + 2] & 0xFF;
+            pixels[i] = (byte) ((((v0 >> 2) + (v1 >> 1) + v2 + (v3 >> 1) + (v4 >> 2)) * 409) >> 10);
+            v0 = v1;
+            v1 = v2;
+            v2 = v3;
+            v3 = v4;
+        }
+        // v0..v3 now hold the last 4 levels
+        pixels[end] = (byte) ((((v0 >> 2) + (v1 >> 1) + v2 + (v3 >> 1)) * 455) >> 10);
+        pixels[end + 1] = (byte) ((((v1 >> 2) + (v2 >> 1) + v3) * 585) >> 10);
+    }
+
+    /**
+     * Writes count levels of a blurred row to out from outOffset on, taking the 5 taps from the rows 2 and 1 above
+     * (up2 and up1, from index 0), the row itself (current, from 0) and the rows 1 and 2 below (from their offsets)
+     */
+    void blurColumns(byte[] up2, byte[] up1, byte[] current, byte[] down1, int down1Offset, byte[] down2,
+                     int down2Offset, byte[] out, int outOffset, int count, int weight) {
+        for (int i = 0; i < count; i++) {
+            int sum = ((up2[i] & 0xFF) >> 2) + ((up1[i] & 0xFF) >> 1) + (current[i] & 0xFF)
+                    + ((down1[down1Offset + i] & 0xFF) >> 1) + ((down2[down2Offset + i] & 0xFF) >> 2);
+            out[outOffset + i] = (byte) ((sum * weight) >> 10);
+        }
+    }
+}
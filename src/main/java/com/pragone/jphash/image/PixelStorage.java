@@ -0,0 +1,253 @@
+package com.pragone.jphash.image;
+
+import java.io.Closeable;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * The memory the 8 bit levels of a {@link SimpleGrayscaleImage} are kept in. Every stage of the preprocessing
+ * (loading, normalizing, resizing, blurring) and the Radon projections work through this class, so they are the same
+ * whatever holds the pixels:
+ * <ul>
+ *     <li>{@link Backend#HEAP}: a byte[] (the default)</li>
+ *     <li>{@link Backend#DIRECT}: a direct ByteBuffer, freed whenever the garbage collector gets to it</li>
+ *     <li>{@link Backend#ARENA}: a MemorySegment of its own java.lang.foreign Arena, freed as soon as the storage is
+ *     closed. It's built from src/foreign/java by the foreign profile and needs Java 22+.</li>
+ * </ul>
+ * The backend images get unless told otherwise is set with the jphash.storage system property (heap, direct or
+ * arena). A backend that isn't available falls back to the direct one.
+ *
+ * Storages can be read concurrently, and written concurrently as long as the writes don't overlap. Closing one is
+ * only needed for the arena backend, but is harmless for the others; a closed storage must not be used again.
+ */
+public abstract class PixelStorage implements Closeable {
+    public static final String BACKEND_PROPERTY = "jphash.storage";
+    private static final String ARENA_STORAGE = "com.pragone.jphash.image.ArenaPixelStorage";
+
+    public enum Backend {
+        HEAP, DIRECT, ARENA;
+
+        /**
+         * @return whether storages of this backend can be allocated on this JVM
+         */
+        public boolean isAvailable() {
+            return this != ARENA || ARENA_CONSTRUCTOR != null;
+        }
+    }
+
+    private static final Constructor<? extends PixelStorage> ARENA_CONSTRUCTOR = getArenaConstructor();
+    private static final Backend DEFAULT_BACKEND = getConfiguredBackend();
+
+    /**
+     * @return the backend set by the jphash.storage system property, or heap if none is
+     */
+    public static Backend getDefaultBackend() {
+        return DEFAULT_BACKEND;
+    }
+
+    /**
+     * @return size bytes of storage of the default backend
+     */
+    public static PixelStorage allocate(int size) {
+        return allocate(DEFAULT_BACKEND, size);
+    }
+
+    /**
+     * @return size bytes of storage of the given backend
+     * @throws UnsupportedOperationException if the backend isn't available (see {@link Backend#isAvailable()})
+     */
+    public static PixelStorage allocate(Backend backend, int size) {
+        switch (backend) {
+            case HEAP:
+                return new HeapPixelStorage(new byte[size]);
+            case DIRECT:
+                return new BufferPixelStorage(ByteBuffer.allocateDirect(size));
+            default:
+                if (ARENA_CONSTRUCTOR == null) {
+                    throw new UnsupportedOperationException("The arena storage needs Java 22+ and the foreign profile");
+                }
+                try {
+                    return ARENA_CONSTRUCTOR.newInstance(size);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Couldn't allocate " + size + " bytes of arena storage", e);
+                }
+        }
+    }
+
+    /**
+     * @return a storage over the given levels, pixel i at pixels[i]
+     */
+    public static PixelStorage wrap(byte[] pixels) {
+        return new HeapPixelStorage(pixels);
+    }
+
+    /**
+     * @return a storage over the given buffer's levels, pixel i at index i (whatever the buffer's position). Closing
+     * it does nothing to the buffer.
+     */
+    public static PixelStorage wrap(ByteBuffer pixels) {
+        if (pixels.hasArray() && pixels.arrayOffset() == 0 && pixels.array().length == pixels.capacity()) {
+            return new HeapPixelStorage(pixels.array());
+        }
+        return new BufferPixelStorage(pixels);
+    }
+
+    public abstract Backend getBackend();
+
+    /**
+     * @return how many levels this storage holds
+     */
+    public abstract int size();
+
+    /**
+     * @return level index, 0 to 255
+     */
+    public abstract int get(int index);
+
+    public abstract void put(int index, byte level);
+
+    /**
+     * Copies length levels from index on to dest[offset]...
+     */
+    public abstract void get(int index, byte[] dest, int offset, int length);
+
+    /**
+     * Copies length levels from src[offset]... to index on
+     */
+    public abstract void put(int index, byte[] src, int offset, int length);
+
+    /**
+     * @return the byte[] holding the levels (pixel i at array()[i]) if there is one, null otherwise
+     */
+    byte[] array() {
+        return null;
+    }
+
+    /**
+     * Frees the memory of the storage, if its backend can do that on demand
+     */
+    @Override
+    public void close() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends PixelStorage> getArenaConstructor() {
+        try {
+            Class<?> storageClass = Class.forName(ARENA_STORAGE);
+            Constructor<? extends PixelStorage> constructor =
+                    (Constructor<? extends PixelStorage>) storageClass.getDeclaredConstructor(int.class);
+            // Fails here rather than later if java.lang.foreign is missing
+            constructor.newInstance(1).close();
+            return constructor;
+        } catch (ReflectiveOperationException e) {
+            // Not built, or the constructor failed (then wrapped in an InvocationTargetException)
+            return null;
+        } catch (LinkageError e) {
+            // Older JVM
+            return null;
+        }
+    }
+
+    private static Backend getConfiguredBackend() {
+        String name = System.getProperty(BACKEND_PROPERTY);
+        if (name == null) {
+            return Backend.HEAP;
+        }
+        Backend backend;
+        try {
+            backend = Backend.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + BACKEND_PROPERTY + ": " + name, e);
+        }
+        return backend.isAvailable() ? backend : Backend.DIRECT;
+    }
+
+    private static final class HeapPixelStorage extends PixelStorage {
+        private final byte[] pixels;
+
+        HeapPixelStorage(byte[] pixels) {
+            this.pixels = pixels;
+        }
+
+        @Override
+        public Backend getBackend() {
+            return Backend.HEAP;
+        }
+
+        @Override
+        public int size() {
+            return pixels.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return pixels[index] & 0xFF;
+        }
+
+        @Override
+        public void put(int index, byte level) {
+            pixels[index] = level;
+        }
+
+        @Override
+        public void get(int index, byte[] dest, int offset, int length) {
+            System.arraycopy(pixels, index, dest, offset, length);
+        }
+
+        @Override
+        public void put(int index, byte[] src, int offset, int length) {
+            System.arraycopy(src, offset, pixels, index, length);
+        }
+
+        @Override
+        byte[] array() {
+            return pixels;
+        }
+    }
+
+    private static final class BufferPixelStorage extends PixelStorage {
+        private final ByteBuffer pixels;
+
+        BufferPixelStorage(ByteBuffer pixels) {
+            this.pixels = pixels;
+        }
+
+        @Override
+        public Backend getBackend() {
+            return Backend.DIRECT;
+        }
+
+        @Override
+        public int size() {
+            return pixels.capacity();
+        }
+
+        @Override
+        public int get(int index) {
+            return pixels.get(index) & 0xFF;
+        }
+
+        @Override
+        public void put(int index, byte level) {
+            pixels.put(index, level);
+        }
+
+        @Override
+        public void get(int index, byte[] dest, int offset, int length) {
+            // A duplicate per call, as bulk copies move the position
+            ByteBuffer view = pixels.duplicate();
+            view.clear();
+            view.position(index);
+            view.get(dest, offset, length);
+        }
+
+        @Override
+        public void put(int index, byte[] src, int offset, int length) {
+            ByteBuffer view = pixels.duplicate();
+            view.clear();
+            view.position(index);
+            view.put(src, offset, length);
+        }
+    }
+}
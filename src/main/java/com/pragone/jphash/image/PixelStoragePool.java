@@ -0,0 +1,357 @@
+package com.pragone.jphash.image;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recycles {@link PixelStorage} of one backend between images, within a budget of bytes.
+ *
+ * Storages come in power of 2 size classes (the squares {@link SimpleGrayscaleImage#resizeToNextSize()} makes fill
+ * them exactly), so one released by an image is taken again by the next one of the same size. The budget covers all
+ * the storage the pool has allocated, handed out or idle. When a request doesn't fit, idle storages of other classes
+ * are freed to make room; if that's not enough it waits for others to be released, up to the pool's max wait (0 fails
+ * fast), and then fails with an IllegalStateException. Idle storage left unused for longer than the pool's idle TTL
+ * is freed by the next acquire or release, or by {@link #trimExpired()}.
+ *
+ * The counters (hits, misses, outstanding bytes...) show how well the pool is doing. Thread safe.
+ */
+public class PixelStoragePool {
+    /**
+     * The budget of the {@link #getShared() shared pool} in bytes, a quarter of the max heap if not set (which is
+     * also the JVM's default limit of direct memory)
+     */
+    public static final String BUDGET_PROPERTY = "jphash.pool.budget";
+    /**
+     * How long the {@link #getShared() shared pool} keeps idle storage, in milliseconds, a minute if not set
+     */
+    public static final String IDLE_TTL_PROPERTY = "jphash.pool.idleTtl";
+    /**
+     * The biggest size class, 1 GB
+     */
+    private static final int MAX_SIZE_CLASS = 30;
+    private static final long SHARED_MAX_WAIT_SECONDS = 30;
+
+    private static final PixelStoragePool SHARED = createShared();
+
+    private final PixelStorage.Backend backend;
+    private final long budget;
+    private final long maxWaitNanos;
+    private final long idleTtlNanos;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<PixelStorage>[] idle = new ArrayDeque[MAX_SIZE_CLASS + 1];
+    /**
+     * When each idle storage was released, in the same order
+     */
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Long>[] idleSince = new ArrayDeque[MAX_SIZE_CLASS + 1];
+    private final Set<PixelStorage> outstanding =
+            Collections.newSetFromMap(new IdentityHashMap<PixelStorage, Boolean>());
+
+    private long allocatedBytes;
+    private long idleBytes;
+    private long outstandingBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long waits;
+    private long failures;
+
+    /**
+     * A pool that waits as long as it takes for storage to be released, and keeps idle storage until it's needed
+     */
+    public PixelStoragePool(PixelStorage.Backend backend, long budget) {
+        this(backend, budget, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A pool that keeps idle storage until it's needed
+     */
+    public PixelStoragePool(PixelStorage.Backend backend, long budget, long maxWait, TimeUnit unit) {
+        this(backend, budget, unit.toNanos(maxWait), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param budget the most bytes of storage the pool will have allocated at a time
+     * @param maxWait how long {@link #acquire(int)} waits for storage to be released when the budget is used up, 0 to
+     *                fail straight away
+     * @param idleTtl how long released storage is kept for reuse
+     */
+    public PixelStoragePool(PixelStorage.Backend backend, long budget, long maxWait, long idleTtl, TimeUnit unit) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The budget must be positive, not " + budget);
+        }
+        if (idleTtl <= 0) {
+            throw new IllegalArgumentException("The idle TTL must be positive, not " + idleTtl);
+        }
+        this.backend = backend;
+        this.budget = budget;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.idleTtlNanos = unit.toNanos(idleTtl);
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = new ArrayDeque<PixelStorage>();
+            idleSince[i] = new ArrayDeque<Long>();
+        }
+    }
+
+    /**
+     * @return the pool the hashing workspaces share (see {@link com.pragone.jphash.image.radial.HashWorkspace}), of
+     * the default backend, with the budget and idle TTL set by the jphash.pool.budget and jphash.pool.idleTtl system
+     * properties. Acquires wait up to 30 seconds, as images hold more than one storage while they're resized.
+     */
+    public static PixelStoragePool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @return a pool configured as the shared one, whose expired idle storage a daemon timer frees every idle TTL
+     */
+    static PixelStoragePool createShared() {
+        long budget = Long.getLong(BUDGET_PROPERTY, Math.max(Runtime.getRuntime().maxMemory() / 4, 1 << 20));
+        long idleTtlMillis = Long.getLong(IDLE_TTL_PROPERTY, TimeUnit.MINUTES.toMillis(1));
+        final PixelStoragePool pool = new PixelStoragePool(PixelStorage.getDefaultBackend(), budget,
+                TimeUnit.SECONDS.toMillis(SHARED_MAX_WAIT_SECONDS), idleTtlMillis, TimeUnit.MILLISECONDS);
+        new Timer("jphash-pool-trim", true).schedule(new TimerTask() {
+            @Override
+            public void run() {
+                pool.trimExpired();
+            }
+        }, idleTtlMillis, idleTtlMillis);
+        return pool;
+    }
+
+    /**
+     * @return storage for at least size pixels (its size is the power of 2 at or above size)
+     * @throws IllegalArgumentException if the size class is bigger than the whole budget
+     * @throws IllegalStateException if the budget is used up and nothing was released in time
+     */
+    public PixelStorage acquire(int size) {
+        int sizeClass = getSizeClass(size);
+        long classBytes = 1L << sizeClass;
+        if (classBytes > budget) {
+            throw new IllegalArgumentException(size + " pixels don't fit in a budget of " + budget + " bytes");
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            expire(now);
+            long deadline = now + maxWaitNanos;
+            while (true) {
+                PixelStorage storage = idle[sizeClass].pollFirst();
+                if (storage != null) {
+                    idleSince[sizeClass].pollFirst();
+                    hits++;
+                    idleBytes -= classBytes;
+                    handOut(storage, classBytes);
+                    return storage;
+                }
+                if (allocatedBytes + classBytes > budget) {
+                    evict(allocatedBytes + classBytes - budget);
+                }
+                if (allocatedBytes + classBytes <= budget) {
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (maxWaitNanos == 0 || remaining <= 0) {
+                    failures++;
+                    throw new IllegalStateException("No room for " + classBytes + " more bytes: " + outstandingBytes
+                            + " of the " + budget + " bytes budget are in use");
+                }
+                waits++;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures++;
+                    throw new IllegalStateException("Interrupted waiting for pixel storage", e);
+                }
+            }
+            misses++;
+            allocatedBytes += classBytes;
+        }
+        PixelStorage storage;
+        try {
+            storage = PixelStorage.allocate(backend, (int) classBytes);
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                allocatedBytes -= classBytes;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            handOut(storage, classBytes);
+        }
+        return storage;
+    }
+
+    /**
+     * Takes back storage given by {@link #acquire(int)}, for the next acquire of its size class to reuse
+     */
+    public synchronized void release(PixelStorage storage) {
+        if (!outstanding.remove(storage)) {
+            throw new IllegalArgumentException("The storage wasn't acquired from this pool or was already released");
+        }
+        long classBytes = storage.size();
+        outstandingBytes -= classBytes;
+        idleBytes += classBytes;
+        long now = System.nanoTime();
+        int sizeClass = getSizeClass(storage.size());
+        idle[sizeClass].addFirst(storage);
+        idleSince[sizeClass].addFirst(now);
+        expire(now);
+        notifyAll();
+    }
+
+    /**
+     * Frees all the idle storage
+     */
+    public synchronized void trim() {
+        evict(Long.MAX_VALUE);
+    }
+
+    /**
+     * Frees the idle storage released longer than the idle TTL ago
+     */
+    public synchronized void trimExpired() {
+        expire(System.nanoTime());
+    }
+
+    private void handOut(PixelStorage storage, long classBytes) {
+        outstanding.add(storage);
+        outstandingBytes += classBytes;
+    }
+
+    /**
+     * Frees idle storage, biggest first, until at least bytes are freed or there's none left
+     */
+    private void evict(long bytes) {
+        long freed = 0;
+        for (int sizeClass = MAX_SIZE_CLASS; sizeClass >= 0 && freed < bytes; sizeClass--) {
+            while (freed < bytes && !idle[sizeClass].isEmpty()) {
+                freed += evictOldest(sizeClass);
+            }
+        }
+    }
+
+    /**
+     * Frees the idle storage released before now - the idle TTL
+     */
+    private void expire(long now) {
+        for (int sizeClass = 0; sizeClass <= MAX_SIZE_CLASS; sizeClass++) {
+            // The oldest are at the end
+            Long since;
+            while ((since = idleSince[sizeClass].peekLast()) != null && now - since > idleTtlNanos) {
+                evictOldest(sizeClass);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes freed
+     */
+    private long evictOldest(int sizeClass) {
+        idle[sizeClass].pollLast().close();
+        idleSince[sizeClass].pollLast();
+        long classBytes = 1L << sizeClass;
+        idleBytes -= classBytes;
+        allocatedBytes -= classBytes;
+        evictions++;
+        return classBytes;
+    }
+
+    private static int getSizeClass(int size) {
+        if (size < 0 || size > 1 << MAX_SIZE_CLASS) {
+            throw new IllegalArgumentException("Can't pool storage for " + size + " pixels");
+        }
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    public PixelStorage.Backend getBackend() {
+        return backend;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return how long released storage is kept for reuse, in nanoseconds
+     */
+    public long getIdleTtlNanos() {
+        return idleTtlNanos;
+    }
+
+    /**
+     * @return the bytes of storage handed out and not yet released
+     */
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    /**
+     * @return the bytes of storage waiting to be reused
+     */
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    /**
+     * @return the bytes of storage the pool holds, handed out or idle
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return how many acquires reused idle storage
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many acquires allocated new storage
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the share of acquires that reused idle storage, 0 if there were none
+     */
+    public synchronized double getHitRate() {
+        long acquires = hits + misses;
+        return acquires == 0 ? 0 : (double) hits / acquires;
+    }
+
+    /**
+     * @return how many idle storages were freed to make room for others or because they expired
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return how many times an acquire had to wait for storage to be released
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return how many acquires failed for lack of budget
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PixelStoragePool{" + backend + ", hit rate " + getHitRate() + ", outstanding " + outstandingBytes
+                + " bytes, idle " + idleBytes + " bytes, budget " + budget + " bytes}";
+    }
+}
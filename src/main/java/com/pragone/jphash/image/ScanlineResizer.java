@@ -0,0 +1,228 @@
+package com.pragone.jphash.image;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The bicubic resize of {@link SimpleGrayscaleImage#resize(int, int)} working a row at a time: source rows are pulled
+ * from a {@link RowSource} as the destination rows need them and only the few the kernel spans are kept, so the
+ * whole source never has to be in memory. Rows no destination pixel needs aren't even read.
+ *
+ * The kernel is separable, so it's run as two passes: every source row the kernel spans is interpolated
+ * horizontally once (into a destWidth row, reused by all the destination rows that need it) and the destination rows
+ * are then interpolated vertically from four of those. The source positions and fractions of every destination column
+ * and row only depend on the sizes, so they are computed once per resizer; use {@link #forSizes(int, int, int, int)}
+ * to share resizers (they are thread safe) between images of the same size.
+ *
+ * The output is identical to the per pixel version, quirks included: the source is indexed linearly, so the taps
+ * left of the first column come from the end of the previous row and those right of the last column from the start of
+ * the next one, and results are wrapped (not clamped) to a byte.
+ */
+public class ScanlineResizer {
+    /**
+     * Source rows kept: the 4 rows of the kernel plus the ones their edge taps can wrap to
+     */
+    static final int WINDOW = 8;
+    private static final int MAX_CACHED_RESIZERS = 32;
+
+    private static final Map<Long, ScanlineResizer> cache = new LinkedHashMap<Long, ScanlineResizer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ScanlineResizer> eldest) {
+            return size() > MAX_CACHED_RESIZERS;
+        }
+    };
+
+    public interface RowSource {
+        /**
+         * Writes the gray levels of source row y into the first width bytes of row. Rows are requested in increasing
+         * order.
+         */
+        void readRow(int y, byte[] row);
+    }
+
+    private final int srcWidth;
+    private final int srcHeight;
+    private final int destWidth;
+    private final int destHeight;
+    // Source column and fraction of every destination column
+    private final int[] xs;
+    private final double[] dxs;
+    // Source row and fraction of every destination row
+    private final int[] ys;
+    private final double[] dys;
+
+    public ScanlineResizer(int srcWidth, int srcHeight, int destWidth, int destHeight) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.destWidth = destWidth;
+        this.destHeight = destHeight;
+
+        double tx = ((double) srcWidth) / destWidth;
+        double ty = ((double) srcHeight) / destHeight;
+        xs = new int[destWidth];
+        dxs = new double[destWidth];
+        for (int j = 0; j < destWidth; ++j) {
+            xs[j] = (int) (tx * j);
+            dxs[j] = tx * j - xs[j];
+        }
+        ys = new int[destHeight];
+        dys = new double[destHeight];
+        for (int i = 0; i < destHeight; ++i) {
+            ys[i] = (int) (ty * i);
+            dys[i] = ty * i - ys[i];
+        }
+    }
+
+    /**
+     * @return a (possibly shared) resizer for these sizes
+     */
+    public static ScanlineResizer forSizes(int srcWidth, int srcHeight, int destWidth, int destHeight) {
+        // Sizes below 2^16 (any hashable image) make a unique key, bigger ones just risk building a new resizer
+        long key = ((long) (srcWidth & 0xFFFF) << 48) | ((long) (srcHeight & 0xFFFF) << 32)
+                | ((long) (destWidth & 0xFFFF) << 16) | (destHeight & 0xFFFF);
+        synchronized (cache) {
+            ScanlineResizer resizer = cache.get(key);
+            if (resizer == null || !resizer.hasSizes(srcWidth, srcHeight, destWidth, destHeight)) {
+                resizer = new ScanlineResizer(srcWidth, srcHeight, destWidth, destHeight);
+                cache.put(key, resizer);
+            }
+            return resizer;
+        }
+    }
+
+    private boolean hasSizes(int srcWidth, int srcHeight, int destWidth, int destHeight) {
+        return this.srcWidth == srcWidth && this.srcHeight == srcHeight && this.destWidth == destWidth
+                && this.destHeight == destHeight;
+    }
+
+    /**
+     * Resizes the rows given by source into the first destWidth * destHeight pixels of dest
+     */
+    public void resize(RowSource source, PixelStorage dest) {
+        resize(source, dest, new ImageBuffers());
+    }
+
+    /**
+     * Same as {@link #resize(RowSource, PixelStorage)} but working on the given buffers. The rows passed to source may
+     * be longer than the source width.
+     */
+    public void resize(RowSource source, PixelStorage dest, ImageBuffers buffers) {
+        resize(source, dest, buffers, 0, destHeight);
+    }
+
+    /**
+     * Resizes destination rows fromRow to toRow - 1 only, pulling just the source rows they need. Bands of rows can
+     * be resized concurrently into the same dest, each with its own source and buffers.
+     */
+    public void resize(RowSource source, PixelStorage dest, ImageBuffers buffers, int fromRow, int toRow) {
+        byte[][] rows = buffers.resizeRows(srcWidth);
+        int[] rowIndex = new int[WINDOW];
+        Arrays.fill(rowIndex, -1);
+        int nextRow = 0;
+        // Source rows with the taps of columns -1, width and width + 1 at both ends
+        int[] kernelRow = buffers.kernelRow(srcWidth + 3);
+        // Horizontally interpolated source rows, kept in slot r & 3
+        int[][] interpolated = buffers.interpolatedRows(destWidth);
+        int[] interpolatedIndex = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        int[] C0, C1, C2, C3;
+        byte[] out = buffers.resizedRow(destWidth);
+        // Edge taps can wrap this many rows down (more than one only for 1 pixel wide images)
+        int wrapRows = (srcWidth + 1) / srcWidth;
+
+        int Cc;
+        int d0, d2, d3, a0, a1, a2, a3;
+
+        for (int i = fromRow; i < toRow; ++i) {
+            int y = ys[i];
+            double dy = dys[i];
+
+            // Pull the source rows the kernel rows y-1..y+2 and their edge taps need
+            int last = Math.min(srcHeight - 1, y + 2 + wrapRows);
+            if (nextRow < y - 2) {
+                nextRow = y - 2;
+            }
+            for (; nextRow <= last; nextRow++) {
+                int slot = nextRow & (WINDOW - 1);
+                source.readRow(nextRow, rows[slot]);
+                rowIndex[slot] = nextRow;
+            }
+            // Horizontal pass, only for the kernel rows the previous destination row didn't use
+            for (int r = y - 1; r <= y + 2; ++r) {
+                int slot = r & 3;
+                if (interpolatedIndex[slot] != r) {
+                    fillKernelRow(kernelRow, r, rows, rowIndex);
+                    interpolateRow(kernelRow, interpolated[slot]);
+                    interpolatedIndex[slot] = r;
+                }
+            }
+            C0 = interpolated[(y - 1) & 3];
+            C1 = interpolated[y & 3];
+            C2 = interpolated[(y + 1) & 3];
+            C3 = interpolated[(y + 2) & 3];
+
+            // Vertical pass
+            for (int j = 0; j < destWidth; ++j) {
+                d0 = C0[j] - C1[j];
+                d2 = C2[j] - C1[j];
+                d3 = C3[j] - C1[j];
+                a0 = C1[j];
+                a1 = (int) (-1.0 / 3 * d0 + d2 -1.0 / 6 * d3);
+                a2 = (int) (1.0 / 2 * d0 + 1.0 / 2 * d2);
+                a3 = (int) (-1.0 / 6 * d0 - 1.0 / 2 * d2 + 1.0 / 6 * d3);
+                Cc = (int) (a0 + a1 * dy + a2 * dy * dy + a3* dy * dy * dy);
+                out[j] = (byte) (Cc & 0xFF);
+            }
+            dest.put(i * destWidth, out, 0, destWidth);
+        }
+    }
+
+    /**
+     * Interpolates a kernel row (see {@link #fillKernelRow(int[], int, byte[][], int[])}) at every destination column
+     */
+    private void interpolateRow(int[] row, int[] result) {
+        int d0, d2, d3, a0, a1, a2, a3;
+        for (int j = 0; j < destWidth; ++j) {
+            int x = xs[j];
+            double dx = dxs[j];
+            // row[x + 1] is column x
+            d0 = row[x] - row[x + 1];
+            d2 = row[x + 2] - row[x + 1];
+            d3 = row[x + 3] - row[x + 1];
+            a0 = row[x + 1];
+            a1 = (int) (-1.0 / 3 * d0 + d2 - 1.0 / 6 * d3);
+            a2 = (int) (1.0 / 2 * d0 + 1.0 / 2 * d2);
+            a3 = (int) (-1.0 / 6 * d0 - 1.0 / 2 * d2 + 1.0 / 6 * d3);
+            result[j] = (int) (a0 + a1 * dx + a2 * dx * dx + a3 * dx * dx * dx);
+        }
+    }
+
+    /**
+     * Fills kernel with source row r for columns -1 to width + 1, each tap taken as the original safeGet would
+     */
+    private void fillKernelRow(int[] kernel, int r, byte[][] rows, int[] rowIndex) {
+        if (r >= 0 && r < srcHeight) {
+            byte[] row = rows[r & (WINDOW - 1)];
+            for (int c = 0; c < srcWidth; c++) {
+                kernel[c + 1] = row[c] & 0xFF;
+            }
+        } else {
+            Arrays.fill(kernel, 1, srcWidth + 1, 0);
+        }
+        kernel[0] = linearGet((long) r * srcWidth - 1, rows, rowIndex);
+        kernel[srcWidth + 1] = linearGet((long) r * srcWidth + srcWidth, rows, rowIndex);
+        kernel[srcWidth + 2] = linearGet((long) r * srcWidth + srcWidth + 1, rows, rowIndex);
+    }
+
+    private int linearGet(long index, byte[][] rows, int[] rowIndex) {
+        if (index < 0 || index >= (long) srcWidth * srcHeight) {
+            return 0;
+        }
+        int row = (int) (index / srcWidth);
+        int slot = row & (WINDOW - 1);
+        if (rowIndex[slot] != row) {
+            throw new IllegalStateException("Source row " + row + " is not in the window");
+        }
+        return rows[slot][(int) (index % srcWidth)] & 0xFF;
+    }
+}
@@ -1,105 +1,209 @@
 package com.pragone.jphash.image;
 
-import sun.jvm.hotspot.debugger.Debugger;
-import sun.misc.Cleaner;
-
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
-public class SimpleGrayscaleImage {
-    private static final int BYTE_SIZE = 8;
+/**
+ * An 8 bit grayscale image, its levels kept in a {@link PixelStorage} of any backend. Images built on
+ * {@link ImageBuffers} keep them in the buffers' storage, the others in storage of their own, which closing the image
+ * frees.
+ */
+public class SimpleGrayscaleImage implements Closeable {
+    /**
+     * How many bytes of the image are converted at a time by loadImage
+     */
+    private static final int STRIP_SIZE = 64 * 1024;
+    private final ImageBuffers buffers;
     private int width;
     private int height;
-    private ByteBuffer data;
+    private PixelStorage data;
+    /**
+     * Whether data is this image's own storage, rather than the buffers'
+     */
+    private boolean ownsData;
     private int numPixels;
 
     public SimpleGrayscaleImage(int width, int height) {
+        this(width, height, PixelStorage.getDefaultBackend());
+    }
+
+    public SimpleGrayscaleImage(int width, int height, PixelStorage.Backend backend) {
+        this(width, height, new ImageBuffers(backend));
+    }
+
+    /**
+     * A blank image with storage of its own taken from the buffers (from their pool, if they have one: see
+     * {@link ImageBuffers#ImageBuffers(PixelStoragePool)}), which closing the image gives back. The work buffers are
+     * theirs too.
+     */
+    public SimpleGrayscaleImage(int width, int height, ImageBuffers buffers) {
+        this.buffers = buffers;
         this.width = width;
         this.height = height;
         this.numPixels = width*height;
-        this.data = ByteBuffer.allocateDirect(width * height);
+        this.data = buffers.allocatePixels(numPixels);
+        this.ownsData = true;
+    }
+
+    /**
+     * An empty image to {@link #load(BufferedImage, int)} images into, keeping the pixels and all the work buffers
+     * in the given ones. Loading images of the same (or decreasing) size this way allocates no buffers.
+     */
+    public SimpleGrayscaleImage(ImageBuffers buffers) {
+        this.buffers = buffers;
+        setSize(0, 0);
     }
 
     public SimpleGrayscaleImage(BufferedImage image) {
-        this(image.getWidth(), image.getHeight());
-        loadImage(image);
-        resizeToNextSize();
+        this(image, 0);
+    }
+
+    /**
+     * Loads, resizes and blurs the image like {@link #SimpleGrayscaleImage(BufferedImage)} but resizing it to a
+     * maxSize square if it's big enough (see {@link #resizeToNextSize(int)}).
+     *
+     * The image is streamed through the resize a few rows at a time (see {@link ScanlineResizer}), so only the
+     * resized image is ever allocated, not a full resolution one. The result is the same as loading, resizing and
+     * blurring it step by step.
+     */
+    public SimpleGrayscaleImage(BufferedImage image, int maxSize) {
+        this(new ImageBuffers());
+        load(image, maxSize);
+    }
+
+    /**
+     * Replaces this image with the given one loaded, resized and blurred as
+     * {@link #SimpleGrayscaleImage(BufferedImage, int)} does
+     */
+    public void load(BufferedImage image, int maxSize) {
+        load(image, maxSize, null);
+    }
+
+    /**
+     * Same as {@link #load(BufferedImage, int)} but splitting the work on this one image between the workers of the
+     * pool (see {@link ParallelRanges}): the conversion and resize by bands of rows, the blur by rows and then by
+     * column blocks. It lowers the latency of hashing a big image, at some cost in total work, and gives exactly the
+     * same levels. A null pool does it all on the calling thread.
+     */
+    public void load(BufferedImage image, int maxSize, ForkJoinPool pool) {
+        int size = getNextSize(image.getWidth(), image.getHeight(), maxSize);
+        setSize(size, size);
+        loadResized(image, pool);
+        blur(pool);
+    }
+
+    /**
+     * Replaces this image with the given loaded (but not resized) one, resized to maxSize (see
+     * {@link #resizeToNextSize(int)}) and blurred. The given image is left as it is.
+     */
+    public void load(SimpleGrayscaleImage loadedImage, int maxSize) {
+        int size = getNextSize(loadedImage.width, loadedImage.height, maxSize);
+        setSize(size, size);
+        resize(loadedImage.data, loadedImage.width, loadedImage.height, this.data, size, size);
         blur();
     }
 
+    /**
+     * Replaces this image with a plane of 8 bit gray levels (pixel (x, y) at luma.position() + y * stride + x), such as
+     * the Y plane of a video frame, resized to maxSize (see {@link #resizeToNextSize(int)}) and blurred. The levels
+     * are taken as they are, as those of a TYPE_BYTE_GRAY image. The resize reads the rows straight from the buffer,
+     * which is left as it is.
+     */
+    public void load(ByteBuffer luma, final int width, int height, final int stride, int maxSize) {
+        if (width < 1 || height < 1 || stride < width) {
+            throw new IllegalArgumentException("Bad plane of " + width + "x" + height + " with stride " + stride);
+        }
+        if (luma.remaining() < (long) stride * (height - 1) + width) {
+            throw new IllegalArgumentException("A " + width + "x" + height + " plane with stride " + stride
+                    + " doesn't fit in " + luma.remaining() + " bytes");
+        }
+        int size = getNextSize(width, height, maxSize);
+        setSize(size, size);
+        final ByteBuffer view = luma.duplicate();
+        final int base = luma.position();
+        ScanlineResizer.forSizes(width, height, size, size).resize(new ScanlineResizer.RowSource() {
+            @Override
+            public void readRow(int y, byte[] row) {
+                view.position(base + y * stride);
+                view.get(row, 0, width);
+            }
+        }, data, buffers);
+        blur();
+    }
+
+    private void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.numPixels = width*height;
+        close();
+        this.data = buffers.pixels(numPixels);
+    }
+
+    /**
+     * Frees the storage of an image that has its own (see {@link ImageBuffers#freePixels(PixelStorage)}). Images
+     * loaded into {@link ImageBuffers} leave it to the buffers.
+     */
+    @Override
+    public void close() {
+        if (ownsData) {
+            buffers.freePixels(data);
+            ownsData = false;
+        }
+    }
+
+    /**
+     * Blurs the image with a 5 tap kernel along the rows and then the columns (see {@link GrayscaleBlur}), in place
+     * for heap storage and on a heap copy of the pixels otherwise
+     */
     public void blur() {
+        blur(null);
+    }
+
+    private void blur(ForkJoinPool pool) {
         if (width <= 6 || height <= 6) {
             return;
         }
-        // First a horizontal pass
-        int[] buffer = new int[width];
-        int[] buffer_1 = new int[width];
-        int[] buffer_2 = new int[width];
-        this.data.rewind();
-        for (int y = 0; y < height; y++) {
-            // Copy this horizontal line
-            for (int i = 0; i < width; i++) {
-                buffer[i] = this.data.get(width*y + i) & 0xFF;
-                buffer_1[i] = (byte) (buffer[i] >> 1);  // buffer * 0.5
-                buffer_2[i] = (byte) (buffer[i] >> 2);  // buffer * 0.25
-            }
-            // idx: 0
-            long t = ((buffer[0] + buffer_1[1] + buffer_2[2])*585)>>10; // 1024/585 = 1.75042
-            this.data.put(width*y,(byte) (t > 255 ? 255 : t));
-            t = ((buffer_1[0] + buffer[1] + buffer_1[2] + buffer_2[3])*455)>>10;  // 1024/455 = 2.250549
-            this.data.put(width*y+1,(byte) (t > 255 ? 255 : t));
-            for (int x = 2; x < width-2; x++) {
-                t = (int) (((long) (buffer_2[x-2] + buffer_1[x-1] + buffer[x] + buffer_1[x+1] + buffer_2[x+2]))*409)>>10; // 1024/409 = 2.503 ~ 1 + 2*0.5 + 2*0.25
-                this.data.put(width*y+x, (byte) (t > 255 ? 255 : t));
-            }
-            int x = width-2;
-            t = ((buffer_2[x-2] + buffer_1[x-1] + buffer[x] + buffer_1[x+1])*455)>>10; // 1024/455 = 2.250549
-            this.data.put(width*y+x, (byte) (t > 255 ? 255 : t));
-            x++;
-            t = ((buffer_2[x-2] + buffer_1[x-1] + buffer[x])*585)>>10; // 1024/585 = 1.75042
-            this.data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+        byte[] pixels = data.array();
+        if (pixels != null) {
+            GrayscaleBlur.blur(pixels, width, height, buffers, pool);
+            return;
         }
+        pixels = buffers.blurPixels(numPixels);
+        this.data.get(0, pixels, 0, numPixels);
+        GrayscaleBlur.blur(pixels, width, height, buffers, pool);
+        this.data.put(0, pixels, 0, numPixels);
+    }
 
-        // Now a vertical pass
-        buffer = new int[height];
-        buffer_1 = new int[height];
-        buffer_2 = new int[height];
-        for (int x = 0; x < width; x++) {
-            // Copy this vertical line
-            for (int i = 0; i < height; i++) {
-                buffer[i] = this.data.get(width*i + x) & 0xFF;
-                buffer_1[i] = (byte) (buffer[i] >> 1);  // buffer * 0.5
-                buffer_2[i] = (byte) (buffer[i] >> 2);  // buffer * 0.25
-            }
-            // y = 0
-            this.data.put(x,(byte) (((buffer[0] + buffer_1[1] + buffer_2[2])*585)>>10)); // 1024/585 = 1.75042
-            // y = 1
-            this.data.put(width+x,(byte) (((buffer_1[0] + buffer[1] + buffer_1[2] + buffer_2[3])*455)>>10)); // 1024/455 = 2.250549
-            for (int y = 2; y < height-2; y++) {
-                long t =  (((long) (buffer_2[y-2] + buffer_1[y-1] + buffer[y] + buffer_1[y+1] + buffer_2[y+2]))*409)>>10;
-                this.data.put(width*y+x, (byte) (t > 255 ? 255 : t)); // 1024/409 = 2.503 ~ 1 + 2*0.5 + 2*0.25
-            }
-            int y = height-2;
-            this.data.put(width*y+x, (byte) (((buffer_2[y-2] + buffer_1[y-1] + buffer[y] + buffer_1[y+1])*455)>>10)); // 1024/455 = 2.250549
-            y++;
-            this.data.put(width*y+x, (byte) (((buffer_2[y-2] + buffer_1[y-1] + buffer[y])*585)>>10)); // 1024/585 = 1.75042
-        }
+    public void resizeToNextSize() {
+        resizeToNextSize(0);
+    }
+
+    /**
+     * Resizes to a maxSize square if the image is at least that big, otherwise to the biggest power of 2 square
+     * smaller than the image (as {@link #resizeToNextSize()} does). A maxSize of 0 means no limit.
+     */
+    public void resizeToNextSize(int maxSize) {
+        int size = getNextSize(width, height, maxSize);
+        this.resize(size, size);
     }
 
-    private void resizeToNextSize() {
+    /**
+     * @return the side of the square {@link #resizeToNextSize(int)} resizes a width x height image to
+     */
+    public static int getNextSize(int width, int height, int maxSize) {
         int min = (width < height) ? width : height;
-        min = getClosestSmallerPowerOf2(min);
-        this.resize(min,min);
+        if (maxSize > 0 && min >= maxSize) {
+            return maxSize;
+        }
+        return getClosestSmallerPowerOf2(min);
     }
 
-    private int getClosestSmallerPowerOf2(int value) {
+    private static int getClosestSmallerPowerOf2(int value) {
         int i = 0;
         int v = 1;
         while (v < value && i < 24) {
@@ -110,137 +214,142 @@ public class SimpleGrayscaleImage {
     }
 
     public void resize(int dest_width, int dest_height) {
-        ByteBuffer newData = ByteBuffer.allocateDirect(dest_width * dest_height);
-
-        double tx = ((double) width) / dest_width;
-        double ty = ((double) height) / dest_height;
-
-        int Cc;
-        int C[] = new int[5];
-        int d0, d2, d3, a0, a1, a2, a3;
-
-        for (int i = 0; i < dest_height; ++i) {
-            for (int j = 0; j < dest_width; ++j) {
-                int x = (int) (tx * j);
-                int y = (int) (ty * i);
-                double dx = tx * j - x;
-                double dy = ty * i - y;
-
-                for (int jj = 0; jj <= 3; ++jj) {
-                    d0 = safeGet((y - 1 + jj) * width + (x - 1)) -
-                            safeGet((y - 1 + jj) * width + (x));
-                    d2 = safeGet((y - 1 + jj) * width + (x + 1)) -
-                            safeGet((y - 1 + jj) * width + (x));
-                    d3 = safeGet((y - 1 + jj) * width + (x + 2)) -
-                            safeGet((y - 1 + jj) * width + (x));
-                    a0 = safeGet((y - 1 + jj) * width + (x));
-                    a1 = (int) (-1.0 / 3 * d0 + d2 - 1.0 / 6 * d3);
-                    a2 = (int) (1.0 / 2 * d0 + 1.0 / 2 * d2);
-                    a3 = (int) (-1.0 / 6 * d0 - 1.0 / 2 * d2 + 1.0 / 6 * d3);
-                    C[jj] = (int) (a0 + a1 * dx + a2 * dx * dx + a3 * dx * dx * dx);
-
-                    d0 = C[0] - C[1];
-                    d2 = C[2] - C[1];
-                    d3 = C[3] - C[1];
-                    a0 = C[1];
-                    a1 = (int) (-1.0 / 3 * d0 + d2 -1.0 / 6 * d3);
-                    a2 = (int) (1.0 / 2 * d0 + 1.0 / 2 * d2);
-                    a3 = (int) (-1.0 / 6 * d0 - 1.0 / 2 * d2 + 1.0 / 6 * d3);
-                    Cc = (int) (a0 + a1 * dy + a2 * dy * dy + a3* dy * dy * dy);
-                    newData.put(i * dest_width + j, (byte) (Cc & 0xFF));
-                }
-            }
-        }
+        PixelStorage newData = buffers.allocatePixels(dest_width * dest_height);
+        resize(this.data, width, height, newData, dest_width, dest_height);
+        close();
         this.data = newData;
+        this.ownsData = true;
         this.width = dest_width;
         this.height = dest_height;
         this.numPixels = width*height;
     }
 
+    private void resize(final PixelStorage source, final int width, int height, PixelStorage dest, int dest_width,
+                        int dest_height) {
+        ScanlineResizer.forSizes(width, height, dest_width, dest_height).resize(new ScanlineResizer.RowSource() {
+            @Override
+            public void readRow(int y, byte[] row) {
+                source.get(y * width, row, 0, width);
+            }
+        }, dest, buffers);
+    }
 
-    private int safeGet(int index) {
-        if (index < 0) {
-            return 0;
+    /**
+     * Loads the image as gray levels, normalized for color images (see {@link GrayscaleConverter}). Any
+     * BufferedImage type works, the common ones are read straight from their DataBuffer.
+     */
+    public void loadImage(BufferedImage image) {
+        GrayscaleConverter converter = GrayscaleConverter.forImage(image);
+        int stripRows = Math.max(1, Math.min(height, STRIP_SIZE / width));
+        byte[] strip = buffers.strip(stripRows * width);
+        int maxPixel = 0;
+        for (int y = 0; y < height; y += stripRows) {
+            int rows = Math.min(stripRows, height - y);
+            int max = converter.convert(y, rows, strip, 0);
+            if (max > maxPixel) {
+                maxPixel = max;
+            }
+            this.data.put(y * width, strip, 0, rows * width);
         }
-        if (index >= numPixels) {
-            return 0;
+        if (converter.isGray()) {
+            // Already byte gray
+            return;
         }
-        return this.data.get(index) & 0xFF;
+        normalize(maxPixel);
     }
 
-    public void loadImage(BufferedImage image) {
-        int numPixels = width*height;
-        int numComponents = image.getColorModel().getNumComponents();
+    /**
+     * Loads the image straight into this (smaller) image, converting its rows as the resize needs them. With a pool
+     * the brightest pixel is looked for by strips of rows and the resize is done by bands of destination rows, each
+     * task with its own converter and buffers.
+     */
+    private void loadResized(final BufferedImage image, final ForkJoinPool pool) {
+        final GrayscaleConverter converter = GrayscaleConverter.forImage(image);
+        final int sourceWidth = image.getWidth();
+        final int sourceHeight = image.getHeight();
         int maxPixel = 0;
-        if (image.getColorModel().getComponentSize(0) == BYTE_SIZE) {
-            // Components are byte sized
-            int bufferSize = numPixels*numComponents;
-            byte[] tempBuffer ;
-            try{
-            tempBuffer = new byte[bufferSize];
-            }catch (OutOfMemoryError e) {
-                System.out.println("Died trying to allocate a buffer of size: " + bufferSize + ". Please increas heap size!!");
-                throw e;
+        if (!converter.isGray()) {
+            // Normalizing needs the brightest pixel up front
+            final int stripRows = Math.max(1, Math.min(sourceHeight, STRIP_SIZE / sourceWidth));
+            int strips = (sourceHeight + stripRows - 1) / stripRows;
+            maxPixel = ParallelRanges.run(pool, strips, stripRows * sourceWidth, new ParallelRanges.Range() {
+                @Override
+                public int run(int from, int to) {
+                    GrayscaleConverter stripConverter = pool == null ? converter : GrayscaleConverter.forImage(image);
+                    byte[] strip = pool == null ? buffers.strip(stripRows * sourceWidth)
+                            : new byte[stripRows * sourceWidth];
+                    int max = 0;
+                    for (int y = from * stripRows; y < Math.min(to * stripRows, sourceHeight); y += stripRows) {
+                        max = Math.max(max, stripConverter.convert(y, Math.min(stripRows, sourceHeight - y), strip, 0));
+                    }
+                    return max;
+                }
+            });
+        }
+        final int normalizeTo = maxPixel;
+        final PixelKernels kernels = PixelKernels.get();
+        final ScanlineResizer resizer = ScanlineResizer.forSizes(sourceWidth, sourceHeight, width, height);
+        // Every destination row takes about this many source pixels
+        int rowPixels = sourceWidth * Math.max(1, sourceHeight / height);
+        ParallelRanges.run(pool, height, rowPixels, new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                final GrayscaleConverter bandConverter = pool == null ? converter : GrayscaleConverter.forImage(image);
+                resizer.resize(new ScanlineResizer.RowSource() {
+                    @Override
+                    public void readRow(int y, byte[] row) {
+                        bandConverter.convert(y, 1, row, 0);
+                        if (normalizeTo > 0) {
+                            kernels.normalize(row, 0, sourceWidth, normalizeTo);
+                        }
+                    }
+                }, data, pool == null ? buffers : new ImageBuffers(), from, to);
+                return 0;
             }
-            image.getRaster().getDataElements(0,0,width,height,tempBuffer);
-
-            if (numComponents == 1) {
-                // Already byte gray
-                this.data.put(tempBuffer, 0, numPixels);
-            } else if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
-                int j = 0;
-                for (int i = 0; i< bufferSize; i+= numComponents) {
-                    // V1
-//                        long yTemp = ((tempBuffer[i]& 0xFF)*BLUE_Y_COEFF +
-//                                (tempBuffer[i+1]& 0xFF)*GREEN_Y_COEFF +
-//                                (tempBuffer[i+2]& 0xFF)*RED_Y_COEFF);
-//                        int y = (int) (((yTemp >> 10) & 0xFF) + ((yTemp >> 9) & 0x1));
-//                    where:
-//                    private static final long BLUE_Y_COEFF = (long) Math.floor(0.114d * 1024);
-//                    private static final long GREEN_Y_COEFF = (long) Math.floor(0.587d * 1024);
-//                    private static final long RED_Y_COEFF = (long) Math.floor(0.299d * 1024);
-
-                    // V2: CImg version
-                    int y = (((tempBuffer[i+2]& 0xFF) * 66 + (tempBuffer[i+1]& 0xFF) * 129 +
-                            (tempBuffer[i]& 0xFF) *25) >> 8) + 16;
-
-                    // if (y < 0) y = 0;
-                    // else
-
-                    if (y>255) y = 255;
-
-                    if (y > maxPixel) {
-                        maxPixel = y;
+        });
+    }
+
+    /**
+     * Loads an 8 bit gray plane (pixel (x, y) at luma[offset + y * stride + x]) the same way
+     * {@link #loadImage(BufferedImage)} would load the image it comes from: the gray levels of a color image (see
+     * {@link GrayscaleConverter#luma(int, int, int)}) get normalized, those of a grayscale image are copied as they are.
+     */
+    public void loadLuma(byte[] luma, int offset, int stride, boolean fromColor) {
+        int maxPixel = 0;
+        for (int y = 0; y < height; y++) {
+            int src = offset + y * stride;
+            this.data.put(y * width, luma, src, width);
+            if (fromColor) {
+                for (int x = 0; x < width; x++) {
+                    int value = luma[src + x] & 0xFF;
+                    if (value > maxPixel) {
+                        maxPixel = value;
                     }
-                    this.data.put(j++,(byte) y);
                 }
-            } else {
-                throw new IllegalArgumentException("Can't work with this type of byte image: " + image.getType());
             }
-        } else {
-            throw new IllegalArgumentException("Can't work with non-byte image buffers");
         }
+        normalize(maxPixel);
+    }
+
+    private void normalize(int maxPixel) {
         if (maxPixel > 0) {
-            // Let's normalize amount of light
-            // V1: with double math
-            for (int i =0; i < numPixels; i++) {
-                long temp = (this.data.get(i) << 8) / maxPixel;
-                this.data.put(i, (byte) (temp & 0xFF));
+            // Let's normalize amount of light, a strip at a time (see PixelKernels#normalize)
+            PixelKernels kernels = PixelKernels.get();
+            int stripSize = Math.min(numPixels, STRIP_SIZE);
+            byte[] strip = buffers.strip(stripSize);
+            for (int i = 0; i < numPixels; i += stripSize) {
+                int length = Math.min(stripSize, numPixels - i);
+                this.data.get(i, strip, 0, length);
+                kernels.normalize(strip, 0, length, maxPixel);
+                this.data.put(i, strip, 0, length);
             }
-            // V2: with int only math
-//            for (int i =0; i < numPixels; i++) {
-//                long temp = (this.data.get(i) * NORMALIZATION_APROX[this.maxPixel]) >> NORMALIZATION_DENOMINATOR_POWER;
-//                this.data.put(i, (byte) (temp & 0xFF));
-//            }
         }
-
     }
 
     public void save(String path) {
         BufferedImage temp = new BufferedImage(width,height,BufferedImage.TYPE_BYTE_GRAY);
         byte[] buffer = new byte[width*height];
-        this.data.rewind();
-        this.data.get(buffer);
+        this.data.get(0, buffer, 0, buffer.length);
         temp.getRaster().setDataElements(0,0,width,height,buffer);
         try {
             ImageIO.write(temp, "jpg", new File(path));
@@ -257,7 +366,14 @@ public class SimpleGrayscaleImage {
     }
 
     public int get(int x, int y) {
-        return this.data.get(width*y + x) & 0xFF;
+        return this.data.get(width*y + x);
+    }
+
+    /**
+     * @return the pixel at index width * y + x
+     */
+    public int get(int index) {
+        return this.data.get(index);
     }
 
 }
\ No newline at end of file
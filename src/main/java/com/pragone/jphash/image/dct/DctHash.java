@@ -0,0 +1,25 @@
+package com.pragone.jphash.image.dct;
+
+/**
+ * The 64 bit hash of {@link DctHashAlgorithm}
+ */
+public class DctHash {
+    private final long bits;
+
+    public DctHash(long bits) {
+        this.bits = bits;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x", bits);
+    }
+
+    public static DctHash fromString(String string) {
+        return new DctHash(Long.parseUnsignedLong(string, 16));
+    }
+}
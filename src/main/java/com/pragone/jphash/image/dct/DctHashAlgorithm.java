@@ -0,0 +1,139 @@
+package com.pragone.jphash.image.dct;
+
+import com.pragone.jphash.image.ImageBuffers;
+import com.pragone.jphash.image.PixelStoragePool;
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+import com.pragone.jphash.image.decode.ImageDecoder;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * pHash's DCT image hash (ph_dct_imagehash): the image is shrunk to 32x32 and each of the 64 bits says whether one of
+ * the 8x8 lowest frequency DCT coefficients (leaving out the DC one) is above their median.
+ *
+ * It works on the image {@link SimpleGrayscaleImage#load(BufferedImage, int)} prepares for the radial hash,
+ * averaging it over 32x32 cells where pHash runs a 7x7 mean filter and keeps every n-th pixel, so the hashes are
+ * close to, but not the same as, pHash's.
+ */
+public class DctHashAlgorithm {
+    static final int SIZE = 32;
+    static final int BITS = 64;
+    private static final int COEFFICIENTS = 8;
+    /**
+     * The rows of the orthonormal DCT-II matrix up to the last coefficient kept: DCT_MATRIX[u][x] is the weight of
+     * pixel x in coefficient u
+     */
+    private static final double[][] DCT_MATRIX = getDctMatrix(COEFFICIENTS + 1, SIZE);
+
+    private static double[][] getDctMatrix(int numberOfCoefficients, int N) {
+        double[][] matrix = new double[numberOfCoefficients][N];
+        for (int u = 0; u < numberOfCoefficients; u++) {
+            double c = (u == 0) ? 1 / Math.sqrt(N) : Math.sqrt(2.0 / N);
+            for (int x = 0; x < N; x++) {
+                matrix[u][x] = c * Math.cos(Math.PI / 2 / N * u * (2 * x + 1));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Hashes the image loaded, resized to a maxSize square and blurred as the radial hash does (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int)})
+     */
+    public static DctHash getHash(BufferedImage img, int maxSize) {
+        ImageDecoder.checkTargetSize(maxSize);
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage image = new SimpleGrayscaleImage(buffers);
+            image.load(img, maxSize);
+            return getHash(image);
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /**
+     * Hashes an image that's already been loaded, resized and blurred (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int)}), which is left as it is
+     */
+    public static DctHash getHash(SimpleGrayscaleImage image) {
+        double[] cells = average(image);
+
+        // Only the coefficients 1 to 8 along each axis are needed: first along the rows, then down the columns
+        double[] rows = new double[SIZE * COEFFICIENTS];
+        for (int y = 0; y < SIZE; y++) {
+            for (int v = 1; v <= COEFFICIENTS; v++) {
+                double[] basis = DCT_MATRIX[v];
+                double sum = 0;
+                for (int x = 0; x < SIZE; x++) {
+                    sum += cells[y * SIZE + x] * basis[x];
+                }
+                rows[y * COEFFICIENTS + v - 1] = sum;
+            }
+        }
+        double[] coefficients = new double[BITS];
+        for (int u = 1; u <= COEFFICIENTS; u++) {
+            double[] basis = DCT_MATRIX[u];
+            for (int v = 0; v < COEFFICIENTS; v++) {
+                double sum = 0;
+                for (int y = 0; y < SIZE; y++) {
+                    sum += basis[y] * rows[y * COEFFICIENTS + v];
+                }
+                coefficients[(u - 1) * COEFFICIENTS + v] = sum;
+            }
+        }
+
+        double[] sorted = coefficients.clone();
+        Arrays.sort(sorted);
+        double median = (sorted[BITS / 2 - 1] + sorted[BITS / 2]) / 2;
+        long bits = 0;
+        for (int i = 0; i < BITS; i++) {
+            if (coefficients[i] > median) {
+                bits |= 1L << i;
+            }
+        }
+        return new DctHash(bits);
+    }
+
+    /**
+     * @return the mean of each of the SIZE x SIZE cells the image is split in (cells of images smaller than that
+     * take one pixel)
+     */
+    private static double[] average(SimpleGrayscaleImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] cells = new double[SIZE * SIZE];
+        for (int cy = 0; cy < SIZE; cy++) {
+            int y0 = cy * height / SIZE;
+            int y1 = Math.max((cy + 1) * height / SIZE, y0 + 1);
+            for (int cx = 0; cx < SIZE; cx++) {
+                int x0 = cx * width / SIZE;
+                int x1 = Math.max((cx + 1) * width / SIZE, x0 + 1);
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    int offset = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        sum += image.get(offset + x);
+                    }
+                }
+                cells[cy * SIZE + cx] = (double) sum / ((y1 - y0) * (x1 - x0));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return how many of the 64 bits differ
+     */
+    public static int getDistance(DctHash hash1, DctHash hash2) {
+        return Long.bitCount(hash1.getBits() ^ hash2.getBits());
+    }
+
+    /**
+     * @return the share of bits that are the same, 1 for identical hashes
+     */
+    public static double getSimilarity(DctHash hash1, DctHash hash2) {
+        return 1 - (double) getDistance(hash1, hash2) / BITS;
+    }
+}
@@ -0,0 +1,60 @@
+package com.pragone.jphash.image.decode;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An ImageInputStream over the remaining bytes of a ByteBuffer (a heap buffer or a memory mapped file). Seeking is
+ * just moving the buffer's position, so unlike the streams ImageIO creates for an InputStream nothing gets copied
+ * into a cache. The buffer itself is left as it is.
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+    private final ByteBuffer buffer;
+
+    public ByteBufferImageInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        streamPos++;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        int count = Math.min(len, buffer.remaining());
+        if (count == 0) {
+            return -1;
+        }
+        buffer.get(b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        super.seek(pos);
+        // Past the end the stream just reads nothing
+        buffer.position((int) Math.min(pos, buffer.limit()));
+    }
+}
@@ -0,0 +1,156 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Decodes images at the lowest resolution that still covers the size the hash is going to work at.
+ *
+ * The grayscale preprocessing shrinks every image to a power of 2 square, so decoding millions of pixels that are
+ * thrown away right after is wasted time. Given a target size (a power of 2) the image is decoded with source
+ * subsampling, skipping whole rows and columns while keeping its smallest side at least as big as the target, so
+ * the preprocessing can still resize it to a target size square.
+ *
+ * The hash calculated from a reduced decode is not identical to the one from the full image resized to the same
+ * target size, but they are very similar (see RadialHashAlgorithm.getSimilarity).
+ */
+public class ImageDecoder {
+    /**
+     * Target size meaning "decode the whole image"
+     */
+    public static final int FULL_RESOLUTION = 0;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * @see #read(ImageInputStream, int)
+     */
+    public static BufferedImage read(File file, int targetSize) throws IOException {
+        ImageInputStream iis = ImageInputStreams.open(file);
+        try {
+            return read(iis, targetSize);
+        } finally {
+            iis.close();
+        }
+    }
+
+    public static BufferedImage read(InputStream inputStream, int targetSize) throws IOException {
+        ImageInputStream iis = ImageInputStreams.wrap(inputStream);
+        try {
+            return read(iis, targetSize);
+        } finally {
+            iis.close();
+        }
+    }
+
+    public static BufferedImage read(byte[] data, int targetSize) throws IOException {
+        ImageInputStream iis = ImageInputStreams.wrap(data);
+        try {
+            return read(iis, targetSize);
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * Same as {@link #read(byte[], int)}, but decoding the preview embedded in a JPEG instead when it covers the
+     * target size (see {@link JpegThumbnail}) and useThumbnail is true
+     */
+    public static BufferedImage read(byte[] data, int targetSize, boolean useThumbnail) throws IOException {
+        BufferedImage thumbnail = useThumbnail ? JpegThumbnail.read(data, targetSize) : null;
+        return thumbnail != null ? thumbnail : read(data, targetSize);
+    }
+
+    /**
+     * Reads the first image of the stream so that its smallest side is just as big as targetSize (or the whole
+     * image if it's already smaller or targetSize is {@link #FULL_RESOLUTION}), with this thread's reader for its
+     * format (see {@link ImageReaders}).
+     *
+     * @return the decoded image or null if no registered ImageReader can decode the stream (as ImageIO.read does)
+     */
+    public static BufferedImage read(ImageInputStream iis, int targetSize) throws IOException {
+        checkTargetSize(targetSize);
+        ImageReaders readers = ImageReaders.forCurrentThread();
+        ImageReader reader = readers.acquire(iis);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            reader.setInput(iis, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), targetSize);
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            return reader.read(0, param);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+     * Reads the file into a grayscale image, loaded but not resized (see {@link #readGrayscale(byte[], int)})
+     */
+    public static SimpleGrayscaleImage readGrayscale(File file, int targetSize) throws IOException {
+        return readGrayscale(Files.readAllBytes(file.toPath()), targetSize);
+    }
+
+    /**
+     * Decodes the image straight into a grayscale image, loaded but not yet resized nor blurred. JPEGs go through
+     * {@link LumaJpegDecoder}, which only decodes the luma and scales it down by up to 8 while decoding (keeping the
+     * smallest side at least targetSize); other formats and the JPEGs it doesn't support are read with
+     * {@link #read(InputStream, int)}. Luma decoded images give hashes very similar, but not identical, to the
+     * ImageIO ones.
+     *
+     * @return the loaded image or null if no registered ImageReader can decode the data
+     */
+    public static SimpleGrayscaleImage readGrayscale(byte[] data, int targetSize) throws IOException {
+        checkTargetSize(targetSize);
+        if (LumaJpegDecoder.isJpeg(data)) {
+            try {
+                LumaPlane plane = LumaJpegDecoder.decode(data, targetSize);
+                SimpleGrayscaleImage image = new SimpleGrayscaleImage(plane.width, plane.height);
+                image.loadLuma(plane.data, plane.offset, plane.stride, plane.fromColor);
+                return image;
+            } catch (UnsupportedJpegException e) {
+                // Let ImageIO deal with it
+            }
+        }
+        BufferedImage img = read(data, targetSize);
+        if (img == null) {
+            return null;
+        }
+        SimpleGrayscaleImage image = new SimpleGrayscaleImage(img.getWidth(), img.getHeight());
+        image.loadImage(img);
+        return image;
+    }
+
+    /**
+     * @return the biggest subsampling factor for which the smallest side of the image (once subsampled) is still
+     * at least targetSize. It's 1 (no subsampling) when the image is too small or for {@link #FULL_RESOLUTION}.
+     */
+    public static int getSubsampling(int width, int height, int targetSize) {
+        checkTargetSize(targetSize);
+        if (targetSize == FULL_RESOLUTION) {
+            return 1;
+        }
+        int min = (width < height) ? width : height;
+        // Subsampling by s leaves ceil(min/s) pixels, which is >= targetSize as long as s*targetSize <= min
+        return Math.max(1, min / targetSize);
+    }
+
+    public static void checkTargetSize(int targetSize) {
+        if (targetSize < 0 || (targetSize & (targetSize - 1)) != 0) {
+            throw new IllegalArgumentException("The target size must be a power of 2 (or FULL_RESOLUTION): " + targetSize);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.pragone.jphash.image.decode;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * The size of an image as told by its header, read without decoding any pixel. Used to tell how much memory decoding
+ * and hashing it will take before doing it (see {@link #estimateMemory(int, boolean)}).
+ */
+public class ImageHeader {
+    /**
+     * Bytes per pixel assumed when the reader can't tell the type of the decoded image (an int ARGB raster)
+     */
+    private static final int DEFAULT_BYTES_PER_PIXEL = 4;
+
+    private final String formatName;
+    private final int width;
+    private final int height;
+    private final int bytesPerPixel;
+
+    public ImageHeader(String formatName, int width, int height, int bytesPerPixel) {
+        this.formatName = formatName;
+        this.width = width;
+        this.height = height;
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    /**
+     * @return the header of the first image in data, or null if no registered ImageReader can read it
+     */
+    public static ImageHeader read(byte[] data) throws IOException {
+        ImageInputStream iis = ImageInputStreams.wrap(data);
+        try {
+            return read(iis);
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * @return the header of the first image of the stream, or null if no registered ImageReader can read it
+     */
+    public static ImageHeader read(ImageInputStream iis) throws IOException {
+        ImageReaders readers = ImageReaders.forCurrentThread();
+        ImageReader reader = readers.acquire(iis);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            reader.setInput(iis, true, true);
+            return new ImageHeader(reader.getFormatName(), reader.getWidth(0), reader.getHeight(0),
+                    getBytesPerPixel(reader));
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    /**
+     * @return the bytes per pixel of the BufferedImage the reader will decode into
+     */
+    private static int getBytesPerPixel(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (!types.hasNext()) {
+                return DEFAULT_BYTES_PER_PIXEL;
+            }
+            type = types.next();
+        }
+        SampleModel sampleModel = type.getSampleModel(1, 1);
+        int sampleBytes = Math.max(1, DataBuffer.getDataTypeSize(sampleModel.getDataType()) / 8);
+        if (sampleModel instanceof SinglePixelPackedSampleModel
+                || sampleModel instanceof MultiPixelPackedSampleModel) {
+            // All the bands share one sample
+            return sampleBytes;
+        }
+        return sampleBytes * sampleModel.getNumBands();
+    }
+
+    public String getFormatName() {
+        return formatName;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * @return an upper bound of the bytes it takes to decode the image for a hash on (at most) a targetSize square
+     * (see {@link ImageDecoder}) and hash it: the decoded image, the grayscale copy it's loaded into and the square
+     * it's resized to. Luma decoding (see {@link ImageDecoder#readGrayscale(byte[], int)}) only needs the luma plane
+     * instead of the decoded image.
+     */
+    public long estimateMemory(int targetSize, boolean lumaDecoding) {
+        int subsampling = ImageDecoder.getSubsampling(width, height, targetSize);
+        long decodedWidth = (width + subsampling - 1) / subsampling;
+        long decodedHeight = (height + subsampling - 1) / subsampling;
+        long decodedPixels = decodedWidth * decodedHeight;
+        long side = Math.min(decodedWidth, decodedHeight);
+        if (targetSize != ImageDecoder.FULL_RESOLUTION) {
+            side = Math.min(side, targetSize);
+        }
+        return decodedPixels * (lumaDecoding ? 1 : bytesPerPixel) + decodedPixels + side * side;
+    }
+
+    @Override
+    public String toString() {
+        return formatName + " " + width + "x" + height + ", " + bytesPerPixel + " bytes per pixel";
+    }
+}
@@ -0,0 +1,73 @@
+package com.pragone.jphash.image.decode;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The ImageInputStreams the decoders read from, which never go through ImageIO's disk cache (whatever
+ * ImageIO.getUseCache says) nor the registry lookup of ImageIO.createImageInputStream:
+ * <ul>
+ *     <li>Files are read whole through their FileChannel into a heap buffer, or memory mapped if they are bigger than
+ *     {@link #MAP_THRESHOLD}. Mapped files are unmapped when the garbage collector gets to them, so mapping small
+ *     ones would only pile up mappings.</li>
+ *     <li>Byte arrays and buffers are read in place (see {@link ByteBufferImageInputStream}).</li>
+ *     <li>Other InputStreams are cached in memory.</li>
+ * </ul>
+ */
+public class ImageInputStreams {
+    /**
+     * Files bigger than this (4 MB) are memory mapped
+     */
+    public static final long MAP_THRESHOLD = 4 << 20;
+
+    private ImageInputStreams() {
+    }
+
+    public static ImageInputStream open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                // Too big for a single buffer
+                return new FileImageInputStream(file);
+            }
+            if (size > MAP_THRESHOLD) {
+                return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException(file + " got shorter while reading it");
+                }
+            }
+            buffer.flip();
+            return wrap(buffer);
+        } finally {
+            // A mapping stays valid once its channel is closed
+            channel.close();
+        }
+    }
+
+    public static ImageInputStream wrap(byte[] data) {
+        return wrap(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @return a stream over the remaining bytes of the buffer
+     */
+    public static ImageInputStream wrap(ByteBuffer buffer) {
+        return new ByteBufferImageInputStream(buffer);
+    }
+
+    public static ImageInputStream wrap(InputStream inputStream) {
+        return new MemoryCacheImageInputStream(inputStream);
+    }
+}
@@ -0,0 +1,101 @@
+package com.pragone.jphash.image.decode;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps one ImageReader per format for reuse, so decoding image after image doesn't search the ImageIO registry and
+ * build a new reader (with its native state, for JPEG) every time. The formats already seen are tried first, then
+ * the registry as ImageIO.read does. Readers are reset when given back, so they keep no input nor listeners between
+ * images.
+ *
+ * Not thread safe: {@link #forCurrentThread()} keeps one per thread.
+ */
+public class ImageReaders {
+    private static final ThreadLocal<ImageReaders> perThread = new ThreadLocal<ImageReaders>() {
+        @Override
+        protected ImageReaders initialValue() {
+            return new ImageReaders();
+        }
+    };
+
+    private final Map<ImageReaderSpi, ImageReader> idle = new LinkedHashMap<ImageReaderSpi, ImageReader>();
+    private long hits;
+    private long misses;
+
+    /**
+     * @return the readers of this thread
+     */
+    public static ImageReaders forCurrentThread() {
+        return perThread.get();
+    }
+
+    /**
+     * @return a reader for the stream (with no input set yet) or null if no registered ImageReader can decode it.
+     * Give it back with {@link #release(ImageReader)} once done.
+     */
+    public ImageReader acquire(ImageInputStream iis) throws IOException {
+        for (Iterator<ImageReader> readers = idle.values().iterator(); readers.hasNext(); ) {
+            ImageReader reader = readers.next();
+            if (reader.getOriginatingProvider().canDecodeInput(iis)) {
+                readers.remove();
+                hits++;
+                return reader;
+            }
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        misses++;
+        return readers.next();
+    }
+
+    /**
+     * Resets the reader and keeps it for the next image of its format, or disposes it if there's one kept already
+     */
+    public void release(ImageReader reader) {
+        ImageReaderSpi provider = reader.getOriginatingProvider();
+        if (provider == null || idle.containsKey(provider)) {
+            reader.dispose();
+            return;
+        }
+        try {
+            reader.reset();
+        } catch (RuntimeException e) {
+            reader.dispose();
+            return;
+        }
+        idle.put(provider, reader);
+    }
+
+    /**
+     * Disposes all the readers kept
+     */
+    public void clear() {
+        for (ImageReader reader : idle.values()) {
+            reader.dispose();
+        }
+        idle.clear();
+    }
+
+    /**
+     * @return how many acquires reused a kept reader
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many acquires had to create a reader
+     */
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,262 @@
+package com.pragone.jphash.image.decode;
+
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the preview a camera embeds in a JPEG file and decodes it instead of the image when it's big enough for the
+ * hash: the JPEG thumbnail of the EXIF APP1 segment (IFD1), or the JPEG or RGB one of a JFXX or JFIF APP0 segment.
+ *
+ * A thumbnail is only used when its smallest side covers the target size square the hash works on, so
+ * {@link com.pragone.jphash.image.SimpleGrayscaleImage#resizeToNextSize(int)} gets it to the same size as the full
+ * image, and when its aspect ratio is that of the image (letterboxed previews, with black bars, would hash
+ * differently). The hash is very similar to the one of the full decode, but not identical.
+ */
+public class JpegThumbnail {
+    /**
+     * How far the aspect ratio of a thumbnail can be from the image's, relative to it
+     */
+    static final double MAX_ASPECT_ERROR = 0.02;
+
+    private static final int EXIF_COMPRESSION = 0x0103;
+    private static final int EXIF_THUMBNAIL_OFFSET = 0x0201;
+    private static final int EXIF_THUMBNAIL_LENGTH = 0x0202;
+    private static final int EXIF_JPEG_COMPRESSION = 6;
+
+    private final byte[] data;
+    private int[] imageSize;
+    // The biggest thumbnail found, as a JPEG stream or RGB pixels
+    private int thumbnailWidth;
+    private int thumbnailHeight;
+    private int thumbnailOffset = -1;
+    private int thumbnailLength;
+    private boolean thumbnailRgb;
+
+    private JpegThumbnail(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @return the embedded thumbnail of the JPEG data if it covers a targetSize square with the image's aspect ratio,
+     * null if there is no such thumbnail (always for {@link ImageDecoder#FULL_RESOLUTION}) or it doesn't decode
+     */
+    public static BufferedImage read(byte[] data, int targetSize) throws IOException {
+        ImageDecoder.checkTargetSize(targetSize);
+        if (targetSize == ImageDecoder.FULL_RESOLUTION || !LumaJpegDecoder.isJpeg(data)) {
+            return null;
+        }
+        JpegThumbnail thumbnail = new JpegThumbnail(data);
+        try {
+            thumbnail.imageSize = thumbnail.readHeaders(0, data.length, true);
+        } catch (RuntimeException e) {
+            // Corrupt segments, decode the image as usual
+            return null;
+        }
+        if (!thumbnail.covers(targetSize)) {
+            return null;
+        }
+        try {
+            return thumbnail.decode();
+        } catch (IOException | RuntimeException e) {
+            // A corrupt thumbnail, decode the image instead
+            return null;
+        }
+    }
+
+    private boolean covers(int targetSize) {
+        if (thumbnailOffset < 0 || imageSize == null || imageSize[1] == 0 || thumbnailHeight == 0) {
+            return false;
+        }
+        double imageAspect = (double) imageSize[0] / imageSize[1];
+        double thumbnailAspect = (double) thumbnailWidth / thumbnailHeight;
+        return Math.min(thumbnailWidth, thumbnailHeight) >= targetSize
+                && Math.abs(thumbnailAspect - imageAspect) <= MAX_ASPECT_ERROR * imageAspect;
+    }
+
+    private BufferedImage decode() throws IOException {
+        if (thumbnailRgb) {
+            BufferedImage image = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < pixels.length; i += 3) {
+                pixels[i] = data[thumbnailOffset + i + 2];
+                pixels[i + 1] = data[thumbnailOffset + i + 1];
+                pixels[i + 2] = data[thumbnailOffset + i];
+            }
+            return image;
+        }
+        ImageInputStream iis = ImageInputStreams.wrap(ByteBuffer.wrap(data, thumbnailOffset, thumbnailLength));
+        try {
+            return ImageDecoder.read(iis, ImageDecoder.FULL_RESOLUTION);
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * Walks the segments of the JPEG stream in data[from] to data[limit - 1] up to its frame header, keeping the
+     * biggest thumbnail if asked to
+     *
+     * @return the width and height of the frame, null if there's none
+     */
+    private int[] readHeaders(int from, int limit, boolean thumbnails) {
+        int pos = from + 2;
+        while (pos + 4 <= limit && (data[pos] & 0xFF) == 0xFF) {
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte
+                pos++;
+                continue;
+            }
+            int start = pos + 4;
+            int end = pos + 2 + readShort(pos + 2, false);
+            if (end > limit || end < start) {
+                return null;
+            }
+            if (thumbnails && marker == 0xE0) {
+                readApp0(start, end);
+            } else if (thumbnails && marker == 0xE1) {
+                readExif(start, end);
+            } else if (isFrameHeader(marker)) {
+                return readFrameSize(start, end);
+            } else if (marker == 0xDA || marker == 0xD9) {
+                return null;
+            }
+            pos = end;
+        }
+        return null;
+    }
+
+    private static boolean isFrameHeader(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * @return the width and height of the frame header segment between start and end, null if it's too short
+     */
+    private int[] readFrameSize(int start, int end) {
+        if (end - start < 5) {
+            return null;
+        }
+        return new int[] {readShort(start + 3, false), readShort(start + 1, false)};
+    }
+
+    private void readApp0(int start, int end) {
+        if (matches(start, end, "JFIF\0") && end - start >= 14) {
+            int width = data[start + 12] & 0xFF;
+            int height = data[start + 13] & 0xFF;
+            if (start + 14 + 3 * width * height <= end) {
+                offerRgb(start + 14, width, height);
+            }
+        } else if (matches(start, end, "JFXX\0") && end - start >= 6) {
+            int code = data[start + 5] & 0xFF;
+            if (code == 0x10) {
+                offerJpeg(start + 6, end - start - 6);
+            } else if (code == 0x13 && end - start >= 8) {
+                int width = data[start + 6] & 0xFF;
+                int height = data[start + 7] & 0xFF;
+                if (start + 8 + 3 * width * height <= end) {
+                    offerRgb(start + 8, width, height);
+                }
+            }
+        }
+    }
+
+    private void readExif(int start, int end) {
+        if (!matches(start, end, "Exif\0\0") || end - start < 14) {
+            return;
+        }
+        int tiff = start + 6;
+        boolean littleEndian = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        if (!littleEndian && !(data[tiff] == 'M' && data[tiff + 1] == 'M')) {
+            return;
+        }
+        // IFD0 then IFD1, the thumbnail's
+        long ifd0 = readInt(tiff + 4, littleEndian);
+        long ifd1 = readNextIfd(tiff, end, ifd0, littleEndian);
+        if (ifd1 <= 0 || tiff + ifd1 + 2 > end) {
+            return;
+        }
+        int entries = tiff + (int) ifd1 + 2;
+        int count = readShort(tiff + (int) ifd1, littleEndian);
+        long offset = -1;
+        long length = -1;
+        int compression = EXIF_JPEG_COMPRESSION;
+        for (int i = 0; i < count && entries + 12 * i + 12 <= end; i++) {
+            int entry = entries + 12 * i;
+            int tag = readShort(entry, littleEndian);
+            if (tag == EXIF_COMPRESSION) {
+                compression = readShort(entry + 8, littleEndian);
+            } else if (tag == EXIF_THUMBNAIL_OFFSET) {
+                offset = readInt(entry + 8, littleEndian);
+            } else if (tag == EXIF_THUMBNAIL_LENGTH) {
+                length = readInt(entry + 8, littleEndian);
+            }
+        }
+        if (compression == EXIF_JPEG_COMPRESSION && offset > 0 && length > 0 && tiff + offset + length <= end) {
+            offerJpeg(tiff + (int) offset, (int) length);
+        }
+    }
+
+    /**
+     * @return the offset of the IFD after the one at ifd, 0 if there's none
+     */
+    private long readNextIfd(int tiff, int end, long ifd, boolean littleEndian) {
+        if (ifd <= 0 || tiff + ifd + 2 > end) {
+            return 0;
+        }
+        int count = readShort(tiff + (int) ifd, littleEndian);
+        long next = tiff + ifd + 2 + 12L * count;
+        return next + 4 <= end ? readInt((int) next, littleEndian) : 0;
+    }
+
+    private void offerJpeg(int offset, int length) {
+        if (length < 4 || (data[offset] & 0xFF) != 0xFF || (data[offset + 1] & 0xFF) != 0xD8) {
+            return;
+        }
+        int[] size = readHeaders(offset, offset + length, false);
+        if (size != null && size[0] * size[1] > thumbnailWidth * thumbnailHeight) {
+            thumbnailWidth = size[0];
+            thumbnailHeight = size[1];
+            thumbnailOffset = offset;
+            thumbnailLength = length;
+            thumbnailRgb = false;
+        }
+    }
+
+    private void offerRgb(int offset, int width, int height) {
+        if (width * height > thumbnailWidth * thumbnailHeight) {
+            thumbnailWidth = width;
+            thumbnailHeight = height;
+            thumbnailOffset = offset;
+            thumbnailLength = 3 * width * height;
+            thumbnailRgb = true;
+        }
+    }
+
+    private boolean matches(int start, int end, String identifier) {
+        if (end - start < identifier.length()) {
+            return false;
+        }
+        for (int i = 0; i < identifier.length(); i++) {
+            if (data[start + i] != identifier.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readShort(int pos, boolean littleEndian) {
+        int b0 = data[pos] & 0xFF;
+        int b1 = data[pos + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private long readInt(int pos, boolean littleEndian) {
+        long high = readShort(pos, littleEndian);
+        long low = readShort(pos + 2, littleEndian);
+        return littleEndian ? (low << 16) | high : (high << 16) | low;
+    }
+}
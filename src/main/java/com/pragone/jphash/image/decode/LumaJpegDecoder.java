@@ -0,0 +1,1073 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.image.GrayscaleConverter;
+
+import java.io.IOException;
+
+/**
+ * A JPEG decoder that only produces the luminance (Y) channel.
+ *
+ * The hash only needs gray levels, so going through ImageIO means decoding Cb and Cr, upsampling them, converting
+ * everything to RGB and then back to gray. This decoder entropy decodes every component (the bitstream forces it
+ * for interleaved scans) but only inverse transforms the Y blocks, and it skips the chroma AC scans of progressive
+ * files altogether. The chroma DC coefficients (the average Cb and Cr of each block) are kept to reproduce the
+ * clipping of the YCbCr to RGB conversion, so color images end up with the gray levels
+ * SimpleGrayscaleImage.loadImage would get from their RGB pixels, give or take a few levels.
+ *
+ * It can also scale the image down by 2, 4 or 8 while decoding, running a 4, 2 or 1 point IDCT over the lowest
+ * frequencies of each block (for 1/8 that's just the DC coefficient, so progressive AC scans aren't even read).
+ *
+ * Baseline, extended (8 bit) and progressive Huffman coded JPEGs with 1 (gray) or 3 (YCbCr) components are
+ * supported. Anything else throws an {@link UnsupportedJpegException} so the caller can fall back to ImageIO.
+ */
+public class LumaJpegDecoder {
+    private static final int[] SCALES = {8, 4, 2, 1};
+
+    /**
+     * ZIGZAG[k] is the position in natural (row major) order of the k-th coefficient in zigzag order
+     */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    // Fixed point constants of the islow IDCT
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+
+    /**
+     * IDCT_TABLES[M][x * M + u] = c(u) * cos((2x + 1) * u * PI / 2M) for the reduced M point IDCTs, c(0) = 1,
+     * c(u>0) = sqrt(2)
+     */
+    private static final float[][] IDCT_TABLES = new float[9][];
+
+    static {
+        for (int m = 1; m <= 8; m <<= 1) {
+            float[] table = new float[m * m];
+            for (int x = 0; x < m; x++) {
+                for (int u = 0; u < m; u++) {
+                    double c = (u == 0) ? 1.0 : Math.sqrt(2);
+                    table[x * m + u] = (float) (c * Math.cos((2 * x + 1) * u * Math.PI / (2 * m)));
+                }
+            }
+            IDCT_TABLES[m] = table;
+        }
+    }
+
+    private final byte[] data;
+    private int pos;
+
+    // Frame
+    private boolean progressive;
+    private int width;
+    private int height;
+    private Component[] components;
+    private int maxH;
+    private int maxV;
+    private int mcusPerLine;
+    private int mcusPerColumn;
+    private boolean adobeRgb = false;
+
+    // Tables
+    private final int[][] quantizationTables = new int[4][];
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+    private int restartInterval = 0;
+
+    // Output
+    private int scale;
+    private int blockSize;
+    private byte[] plane;
+    private int planeStride;
+    private short[] coefficients;
+
+    // Entropy decoding state
+    private int bitBuffer;
+    private int bitCount;
+    private boolean markerHit;
+    private int eobRun;
+    private final float[] idctTemp = new float[64];
+    private final int[] idctRows = new int[8];
+    private final int[] idctWorkspace = new int[64];
+
+    private LumaJpegDecoder(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @return true if the data starts with a JPEG SOI marker
+     */
+    public static boolean isJpeg(byte[] data) {
+        return data.length > 3 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8;
+    }
+
+    /**
+     * Decodes the luma of the JPEG image, scaling it down by the biggest of 1, 2, 4 or 8 that keeps its smallest side
+     * at least targetSize pixels (ImageDecoder.FULL_RESOLUTION to decode it at full size).
+     */
+    public static LumaPlane decode(byte[] data, int targetSize) throws IOException {
+        try {
+            return new LumaJpegDecoder(data).decode(targetSize);
+        } catch (RuntimeException e) {
+            // Corrupt data can make the entropy decoder index outside the block or the image
+            throw new IOException("Corrupt JPEG data", e);
+        }
+    }
+
+    private LumaPlane decode(int targetSize) throws IOException {
+        if (!isJpeg(data)) {
+            throw new UnsupportedJpegException("Not a JPEG file");
+        }
+        pos = 2;
+        boolean frameRead = false;
+        boolean done = false;
+        while (!done) {
+            int marker = nextMarker();
+            switch (marker) {
+                case 0xC0: // Baseline
+                case 0xC1: // Extended sequential, Huffman
+                case 0xC2: // Progressive, Huffman
+                    if (frameRead) {
+                        throw new UnsupportedJpegException("Multiple frames");
+                    }
+                    readFrame(marker == 0xC2, targetSize);
+                    frameRead = true;
+                    break;
+                case 0xC3: case 0xC5: case 0xC6: case 0xC7:
+                case 0xC9: case 0xCA: case 0xCB: case 0xCD: case 0xCE: case 0xCF:
+                    throw new UnsupportedJpegException("Unsupported JPEG process: SOF" + (marker - 0xC0));
+                case 0xC4:
+                    readHuffmanTables();
+                    break;
+                case 0xCC:
+                    throw new UnsupportedJpegException("Arithmetic coding is not supported");
+                case 0xDB:
+                    readQuantizationTables();
+                    break;
+                case 0xDD:
+                    readLength();
+                    restartInterval = readUnsignedShort();
+                    break;
+                case 0xDA:
+                    if (!frameRead) {
+                        throw new IOException("Scan before frame header");
+                    }
+                    readScan();
+                    break;
+                case 0xD9:
+                    done = true;
+                    break;
+                case 0xEE:
+                    readAdobe();
+                    break;
+                case 0xDC:
+                    throw new UnsupportedJpegException("DNL markers are not supported");
+                default:
+                    if (marker >= 0xD0 && marker <= 0xD7) {
+                        // Stray restart marker, no length
+                        break;
+                    }
+                    skipSegment();
+            }
+            if (pos >= data.length) {
+                // Truncated file, keep what was decoded
+                done = true;
+            }
+        }
+        if (!frameRead) {
+            throw new IOException("No frame found in JPEG data");
+        }
+        if (progressive) {
+            outputCoefficients();
+        }
+        if (components.length == 3) {
+            applyChromaClipping();
+        }
+        int outWidth = (width + scale - 1) / scale;
+        int outHeight = (height + scale - 1) / scale;
+        return new LumaPlane(outWidth, outHeight, plane, 0, planeStride, components.length == 3);
+    }
+
+    // Markers and headers
+
+    private int nextMarker() throws IOException {
+        while (pos < data.length && (data[pos] & 0xFF) != 0xFF) {
+            pos++;
+        }
+        while (pos < data.length && (data[pos] & 0xFF) == 0xFF) {
+            pos++;
+        }
+        if (pos >= data.length) {
+            return 0xD9;
+        }
+        return data[pos++] & 0xFF;
+    }
+
+    private int readUnsignedByte() throws IOException {
+        if (pos >= data.length) {
+            throw new IOException("Unexpected end of JPEG data");
+        }
+        return data[pos++] & 0xFF;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return (readUnsignedByte() << 8) | readUnsignedByte();
+    }
+
+    /**
+     * @return the position where the current segment ends
+     */
+    private int readLength() throws IOException {
+        int start = pos;
+        int length = readUnsignedShort();
+        if (length < 2 || start + length > data.length) {
+            throw new IOException("Invalid JPEG segment length");
+        }
+        return start + length;
+    }
+
+    private void skipSegment() throws IOException {
+        pos = readLength();
+    }
+
+    private void readAdobe() throws IOException {
+        int end = readLength();
+        if (end - pos >= 12 && data[pos] == 'A' && data[pos + 1] == 'd' && data[pos + 2] == 'o'
+                && data[pos + 3] == 'b' && data[pos + 4] == 'e') {
+            // Transform flag: 0 = RGB/CMYK, 1 = YCbCr, 2 = YCCK
+            adobeRgb = (data[pos + 11] & 0xFF) == 0;
+        }
+        pos = end;
+    }
+
+    private void readFrame(boolean progressive, int targetSize) throws IOException {
+        int end = readLength();
+        this.progressive = progressive;
+        int precision = readUnsignedByte();
+        if (precision != 8) {
+            throw new UnsupportedJpegException("Unsupported sample precision: " + precision);
+        }
+        height = readUnsignedShort();
+        width = readUnsignedShort();
+        if (width == 0 || height == 0) {
+            throw new UnsupportedJpegException("Unsupported image size " + width + "x" + height);
+        }
+        int numComponents = readUnsignedByte();
+        if (numComponents != 1 && numComponents != 3) {
+            throw new UnsupportedJpegException("Unsupported number of components: " + numComponents);
+        }
+        components = new Component[numComponents];
+        for (int i = 0; i < numComponents; i++) {
+            Component c = new Component();
+            c.id = readUnsignedByte();
+            int sampling = readUnsignedByte();
+            c.h = sampling >> 4;
+            c.v = sampling & 0xF;
+            c.quantizationTable = readUnsignedByte() & 0x3;
+            if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) {
+                throw new IOException("Invalid sampling factors");
+            }
+            components[i] = c;
+            maxH = Math.max(maxH, c.h);
+            maxV = Math.max(maxV, c.v);
+        }
+        pos = end;
+        if (numComponents == 3 && (adobeRgb || (components[0].id == 'R' && components[1].id == 'G' && components[2].id == 'B'))) {
+            throw new UnsupportedJpegException("RGB JPEGs are not supported");
+        }
+        Component luma = components[0];
+        if (luma.h != maxH || luma.v != maxV) {
+            throw new UnsupportedJpegException("The luma component is subsampled");
+        }
+
+        mcusPerLine = (width + 8 * maxH - 1) / (8 * maxH);
+        mcusPerColumn = (height + 8 * maxV - 1) / (8 * maxV);
+        for (Component c : components) {
+            c.blocksPerLine = ((width * c.h + maxH - 1) / maxH + 7) / 8;
+            c.blocksPerColumn = ((height * c.v + maxV - 1) / maxV + 7) / 8;
+            c.paddedBlocksPerLine = mcusPerLine * c.h;
+        }
+
+        scale = getScale(width, height, targetSize);
+        blockSize = 8 / scale;
+        planeStride = mcusPerLine * maxH * blockSize;
+        plane = new byte[planeStride * mcusPerColumn * maxV * blockSize];
+        if (progressive) {
+            coefficients = new short[luma.paddedBlocksPerLine * mcusPerColumn * luma.v * 64];
+        }
+        for (int i = 1; i < numComponents; i++) {
+            Component c = components[i];
+            c.dcCoefficients = new short[c.paddedBlocksPerLine * mcusPerColumn * c.v];
+        }
+    }
+
+    static int getScale(int width, int height, int targetSize) {
+        int max = ImageDecoder.getSubsampling(width, height, targetSize);
+        for (int scale : SCALES) {
+            if (scale <= max) {
+                return scale;
+            }
+        }
+        return 1;
+    }
+
+    private void readQuantizationTables() throws IOException {
+        int end = readLength();
+        while (pos < end) {
+            int pq = readUnsignedByte();
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[ZIGZAG[k]] = (pq >> 4) == 0 ? readUnsignedByte() : readUnsignedShort();
+            }
+            quantizationTables[pq & 0x3] = table;
+        }
+        pos = end;
+    }
+
+    private void readHuffmanTables() throws IOException {
+        int end = readLength();
+        while (pos < end) {
+            int tc = readUnsignedByte();
+            int[] counts = new int[17];
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                counts[i] = readUnsignedByte();
+                total += counts[i];
+            }
+            if (total > 256 || pos + total > end) {
+                throw new IOException("Invalid Huffman table");
+            }
+            int[] symbols = new int[total];
+            for (int i = 0; i < total; i++) {
+                symbols[i] = readUnsignedByte();
+            }
+            HuffmanTable table = new HuffmanTable(counts, symbols);
+            if ((tc >> 4) == 0) {
+                dcTables[tc & 0x3] = table;
+            } else {
+                acTables[tc & 0x3] = table;
+            }
+        }
+        pos = end;
+    }
+
+    // Scans
+
+    private void readScan() throws IOException {
+        int end = readLength();
+        int numComponents = readUnsignedByte();
+        Component[] scanComponents = new Component[numComponents];
+        for (int i = 0; i < numComponents; i++) {
+            int id = readUnsignedByte();
+            int tables = readUnsignedByte();
+            Component c = null;
+            for (Component candidate : components) {
+                if (candidate.id == id) {
+                    c = candidate;
+                }
+            }
+            if (c == null) {
+                throw new IOException("Scan references unknown component " + id);
+            }
+            c.dcTable = tables >> 4;
+            c.acTable = tables & 0xF;
+            scanComponents[i] = c;
+        }
+        int spectralStart = readUnsignedByte();
+        int spectralEnd = readUnsignedByte();
+        int approximation = readUnsignedByte();
+        pos = end;
+
+        boolean needed = false;
+        for (Component c : scanComponents) {
+            if (c == components[0]) {
+                // All of the luma but its AC coefficients when only DCs are used
+                needed |= !progressive || spectralStart == 0 || blockSize > 1;
+            } else {
+                // Only the chroma DCs
+                needed |= !progressive || spectralStart == 0;
+            }
+        }
+        if (!needed) {
+            skipEntropyCodedData();
+            return;
+        }
+        if (quantizationTables[components[0].quantizationTable] == null) {
+            throw new IOException("Missing quantization table");
+        }
+
+        // Sequential blocks are decoded and output straight away by decodeBlock
+        ScanDecoder decoder = null;
+        if (progressive) {
+            if (spectralStart == 0) {
+                decoder = (approximation >> 4) == 0 ? DC_FIRST : DC_REFINE;
+            } else {
+                decoder = (approximation >> 4) == 0 ? AC_FIRST : AC_REFINE;
+            }
+        }
+        decodeScan(scanComponents, decoder, spectralStart, spectralEnd, approximation & 0xF);
+        skipEntropyCodedData();
+    }
+
+    private void decodeScan(Component[] scanComponents, ScanDecoder decoder, int spectralStart, int spectralEnd,
+                            int successive) throws IOException {
+        resetEntropyDecoder(scanComponents);
+        int[] block = new int[64];
+        int mcusInInterval = 0;
+        if (scanComponents.length == 1) {
+            // Non interleaved: one block per MCU and only the blocks inside the image
+            Component c = scanComponents[0];
+            for (int row = 0; row < c.blocksPerColumn; row++) {
+                for (int col = 0; col < c.blocksPerLine; col++) {
+                    if (restartInterval > 0 && mcusInInterval == restartInterval) {
+                        restart(scanComponents);
+                        mcusInInterval = 0;
+                    }
+                    decodeBlock(c, row, col, decoder, spectralStart, spectralEnd, successive, block);
+                    mcusInInterval++;
+                }
+            }
+        } else {
+            for (int mcuRow = 0; mcuRow < mcusPerColumn; mcuRow++) {
+                for (int mcuCol = 0; mcuCol < mcusPerLine; mcuCol++) {
+                    if (restartInterval > 0 && mcusInInterval == restartInterval) {
+                        restart(scanComponents);
+                        mcusInInterval = 0;
+                    }
+                    for (Component c : scanComponents) {
+                        for (int v = 0; v < c.v; v++) {
+                            for (int h = 0; h < c.h; h++) {
+                                decodeBlock(c, mcuRow * c.v + v, mcuCol * c.h + h, decoder, spectralStart,
+                                        spectralEnd, successive, block);
+                            }
+                        }
+                    }
+                    mcusInInterval++;
+                }
+            }
+        }
+    }
+
+    private void decodeBlock(Component c, int row, int col, ScanDecoder decoder, int spectralStart, int spectralEnd,
+                             int successive, int[] block) throws IOException {
+        boolean luma = c == components[0];
+        if (!progressive) {
+            for (int i = 0; i < 64; i++) {
+                block[i] = 0;
+            }
+            decodeBaseline(c, block);
+            if (luma) {
+                outputBlock(block, quantizationTables[c.quantizationTable], row, col);
+            } else {
+                c.dcCoefficients[row * c.paddedBlocksPerLine + col] = (short) block[0];
+            }
+        } else if (luma) {
+            int offset = (row * c.paddedBlocksPerLine + col) * 64;
+            decoder.decode(this, c, coefficients, offset, spectralStart, spectralEnd, successive);
+        } else {
+            decoder.decode(this, c, c.dcCoefficients, row * c.paddedBlocksPerLine + col, spectralStart,
+                    spectralEnd, successive);
+        }
+    }
+
+    private void decodeBaseline(Component c, int[] block) throws IOException {
+        HuffmanTable dc = table(dcTables, c.dcTable);
+        HuffmanTable ac = table(acTables, c.acTable);
+        int t = decodeHuffman(dc);
+        int diff = t == 0 ? 0 : receiveExtend(t);
+        c.dcPredictor += diff;
+        block[0] = c.dcPredictor;
+        int k = 1;
+        while (k < 64) {
+            if (bitCount < 16) {
+                fillBits();
+            }
+            int fast = ac.fastAc[bitBuffer >>> (32 - HuffmanTable.LOOKUP_BITS)];
+            if (fast != 0) {
+                int length = fast & 0xFF;
+                bitBuffer <<= length;
+                bitCount -= length;
+                k += (fast >> 8) & 0xF;
+                if (k > 63) {
+                    break;
+                }
+                block[ZIGZAG[k]] = fast >> 16;
+                k++;
+                continue;
+            }
+            int rs = decodeHuffman(ac);
+            int s = rs & 0xF;
+            int r = rs >> 4;
+            if (s == 0) {
+                if (r < 15) {
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += r;
+            if (k > 63) {
+                break;
+            }
+            block[ZIGZAG[k]] = receiveExtend(s);
+            k++;
+        }
+    }
+
+    private interface ScanDecoder {
+        void decode(LumaJpegDecoder decoder, Component c, short[] coefficients, int offset, int spectralStart,
+                    int spectralEnd, int successive) throws IOException;
+    }
+
+    private static final ScanDecoder DC_FIRST = new ScanDecoder() {
+        @Override
+        public void decode(LumaJpegDecoder d, Component c, short[] coefficients, int offset, int spectralStart,
+                           int spectralEnd, int successive) throws IOException {
+            int t = d.decodeHuffman(table(d.dcTables, c.dcTable));
+            int diff = t == 0 ? 0 : d.receiveExtend(t);
+            c.dcPredictor += diff;
+            coefficients[offset] = (short) (c.dcPredictor << successive);
+        }
+    };
+
+    private static final ScanDecoder DC_REFINE = new ScanDecoder() {
+        @Override
+        public void decode(LumaJpegDecoder d, Component c, short[] coefficients, int offset, int spectralStart,
+                           int spectralEnd, int successive) throws IOException {
+            if (d.readBit() != 0) {
+                coefficients[offset] |= (short) (1 << successive);
+            }
+        }
+    };
+
+    private static final ScanDecoder AC_FIRST = new ScanDecoder() {
+        @Override
+        public void decode(LumaJpegDecoder d, Component c, short[] coefficients, int offset, int spectralStart,
+                           int spectralEnd, int successive) throws IOException {
+            if (d.eobRun > 0) {
+                d.eobRun--;
+                return;
+            }
+            HuffmanTable ac = table(d.acTables, c.acTable);
+            int k = spectralStart;
+            while (k <= spectralEnd) {
+                int rs = d.decodeHuffman(ac);
+                int s = rs & 0xF;
+                int r = rs >> 4;
+                if (s == 0) {
+                    if (r < 15) {
+                        d.eobRun = (1 << r) - 1;
+                        if (r > 0) {
+                            d.eobRun += d.readBits(r);
+                        }
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > 63) {
+                    break;
+                }
+                coefficients[offset + ZIGZAG[k]] = (short) (d.receiveExtend(s) * (1 << successive));
+                k++;
+            }
+        }
+    };
+
+    private static final ScanDecoder AC_REFINE = new ScanDecoder() {
+        @Override
+        public void decode(LumaJpegDecoder d, Component c, short[] coefficients, int offset, int spectralStart,
+                           int spectralEnd, int successive) throws IOException {
+            int bit = 1 << successive;
+            int k = spectralStart;
+            if (d.eobRun > 0) {
+                d.eobRun--;
+                for (; k <= spectralEnd; k++) {
+                    refine(d, coefficients, offset + ZIGZAG[k], bit);
+                }
+                return;
+            }
+            HuffmanTable ac = table(d.acTables, c.acTable);
+            while (k <= spectralEnd) {
+                int rs = d.decodeHuffman(ac);
+                int s = rs & 0xF;
+                int r = rs >> 4;
+                int value = 0;
+                if (s == 0) {
+                    if (r < 15) {
+                        d.eobRun = (1 << r) - 1;
+                        if (r > 0) {
+                            d.eobRun += d.readBits(r);
+                        }
+                        // The rest of this block only gets its already non zero coefficients refined
+                        r = 64;
+                    }
+                    // else: ZRL, skip 16 zero coefficients (15 plus the one "written" below)
+                } else {
+                    value = d.readBit() != 0 ? bit : -bit;
+                }
+                while (k <= spectralEnd) {
+                    int index = offset + ZIGZAG[k++];
+                    if (coefficients[index] != 0) {
+                        refine(d, coefficients, index, bit);
+                    } else {
+                        if (r == 0) {
+                            if (value != 0) {
+                                coefficients[index] = (short) value;
+                            }
+                            break;
+                        }
+                        r--;
+                    }
+                }
+            }
+        }
+
+        private void refine(LumaJpegDecoder d, short[] coefficients, int index, int bit) throws IOException {
+            short value = coefficients[index];
+            if (value != 0 && d.readBit() != 0 && (value & bit) == 0) {
+                coefficients[index] = (short) (value > 0 ? value + bit : value - bit);
+            }
+        }
+    };
+
+    private static HuffmanTable table(HuffmanTable[] tables, int index) throws IOException {
+        HuffmanTable table = tables[index & 0x3];
+        if (table == null) {
+            throw new IOException("Missing Huffman table " + index);
+        }
+        return table;
+    }
+
+    private void resetEntropyDecoder(Component[] scanComponents) {
+        bitBuffer = 0;
+        bitCount = 0;
+        markerHit = false;
+        eobRun = 0;
+        for (Component c : scanComponents) {
+            c.dcPredictor = 0;
+        }
+    }
+
+    private void restart(Component[] scanComponents) throws IOException {
+        // Find the RSTn marker (the bit reader stops right before markers)
+        while (pos + 1 < data.length) {
+            if ((data[pos] & 0xFF) == 0xFF) {
+                int next = data[pos + 1] & 0xFF;
+                if (next >= 0xD0 && next <= 0xD7) {
+                    pos += 2;
+                    break;
+                } else if (next != 0 && next != 0xFF) {
+                    // Some other marker: the scan is truncated, keep decoding zeros
+                    break;
+                }
+            }
+            pos++;
+        }
+        resetEntropyDecoder(scanComponents);
+    }
+
+    /**
+     * Moves to the next marker that is not a restart marker (i.e. past the end of the current scan)
+     */
+    private void skipEntropyCodedData() {
+        while (pos + 1 < data.length) {
+            if ((data[pos] & 0xFF) == 0xFF) {
+                int next = data[pos + 1] & 0xFF;
+                if (next != 0 && next != 0xFF && (next < 0xD0 || next > 0xD7)) {
+                    return;
+                }
+            }
+            pos++;
+        }
+        pos = data.length;
+    }
+
+    // Bit reading
+
+    private void fillBits() {
+        while (bitCount <= 24) {
+            int b = 0;
+            if (!markerHit && pos < data.length) {
+                b = data[pos] & 0xFF;
+                if (b == 0xFF) {
+                    int next = pos + 1 < data.length ? data[pos + 1] & 0xFF : 0xD9;
+                    if (next == 0) {
+                        pos += 2;
+                    } else {
+                        markerHit = true;
+                        b = 0;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            bitBuffer |= b << (24 - bitCount);
+            bitCount += 8;
+        }
+    }
+
+    private int readBits(int n) {
+        if (bitCount < n) {
+            fillBits();
+        }
+        int value = bitBuffer >>> (32 - n);
+        bitBuffer <<= n;
+        bitCount -= n;
+        return value;
+    }
+
+    private int readBit() {
+        return readBits(1);
+    }
+
+    private int receiveExtend(int s) {
+        int value = readBits(s);
+        return value < (1 << (s - 1)) ? value - (1 << s) + 1 : value;
+    }
+
+    private int decodeHuffman(HuffmanTable table) throws IOException {
+        if (bitCount < 16) {
+            fillBits();
+        }
+        int lookup = table.lookup[bitBuffer >>> (32 - HuffmanTable.LOOKUP_BITS)];
+        if (lookup != 0) {
+            int length = lookup >> 8;
+            bitBuffer <<= length;
+            bitCount -= length;
+            return lookup & 0xFF;
+        }
+        int code = bitBuffer >>> 16;
+        for (int length = HuffmanTable.LOOKUP_BITS + 1; length <= 16; length++) {
+            int candidate = code >>> (16 - length);
+            if (candidate <= table.maxCode[length]) {
+                bitBuffer <<= length;
+                bitCount -= length;
+                return table.symbols[table.valuePointer[length] + candidate - table.minCode[length]];
+            }
+        }
+        throw new IOException("Invalid Huffman code");
+    }
+
+    // Output
+
+    private void outputCoefficients() {
+        Component luma = components[0];
+        int[] quantization = quantizationTables[luma.quantizationTable];
+        int[] block = new int[64];
+        for (int row = 0; row < luma.blocksPerColumn; row++) {
+            for (int col = 0; col < luma.blocksPerLine; col++) {
+                int offset = (row * luma.paddedBlocksPerLine + col) * 64;
+                for (int i = 0; i < 64; i++) {
+                    block[i] = coefficients[offset + i];
+                }
+                outputBlock(block, quantization, row, col);
+            }
+        }
+    }
+
+    /**
+     * Dequantizes the block (in natural order) and writes its blockSize x blockSize IDCT into the plane
+     */
+    private void outputBlock(int[] block, int[] quantization, int row, int col) {
+        int m = blockSize;
+        if (m == 8) {
+            idct8x8(block, quantization, row * 8 * planeStride + col * 8);
+            return;
+        }
+        float[] table = IDCT_TABLES[m];
+        float[] temp = idctTemp;
+        // Rows: temp[v * m + x] = sum_u F(u, v) * T[x][u]. Rows of zeros (most of the high ones) are left out.
+        int nonZeroRows = 0;
+        for (int v = 0; v < m; v++) {
+            int rowStart = v * 8;
+            boolean zero = true;
+            for (int u = 0; u < m && zero; u++) {
+                zero = block[rowStart + u] == 0;
+            }
+            if (zero) {
+                continue;
+            }
+            for (int x = 0; x < m; x++) {
+                float sum = 0;
+                int tableRow = x * m;
+                for (int u = 0; u < m; u++) {
+                    sum += block[rowStart + u] * quantization[rowStart + u] * table[tableRow + u];
+                }
+                temp[nonZeroRows * m + x] = sum;
+            }
+            idctRows[nonZeroRows++] = v;
+        }
+        // Columns: pixel(x, y) = 1/8 * sum_v temp[v][x] * T[y][v] + 128
+        int base = row * m * planeStride + col * m;
+        for (int y = 0; y < m; y++) {
+            int lineStart = base + y * planeStride;
+            int tableRow = y * m;
+            for (int x = 0; x < m; x++) {
+                float sum = 0;
+                for (int i = 0; i < nonZeroRows; i++) {
+                    sum += temp[i * m + x] * table[tableRow + idctRows[i]];
+                }
+                int value = Math.round(sum / 8 + 128);
+                plane[lineStart + x] = (byte) clip(value);
+            }
+        }
+    }
+
+    /**
+     * The "islow" integer IDCT of the IJG libjpeg (jidctint.c), the one ImageIO uses, so full size decodes get the
+     * same Y as ImageIO
+     */
+    private void idct8x8(int[] block, int[] quantization, int base) {
+        int[] ws = idctWorkspace;
+        // Pass 1: columns, results scaled up by 2^PASS1_BITS
+        for (int col = 0; col < 8; col++) {
+            if (block[8 + col] == 0 && block[16 + col] == 0 && block[24 + col] == 0 && block[32 + col] == 0
+                    && block[40 + col] == 0 && block[48 + col] == 0 && block[56 + col] == 0) {
+                int dc = (block[col] * quantization[col]) << PASS1_BITS;
+                for (int row = 0; row < 64; row += 8) {
+                    ws[row + col] = dc;
+                }
+                continue;
+            }
+            // Even part
+            int z2 = block[16 + col] * quantization[16 + col];
+            int z3 = block[48 + col] * quantization[48 + col];
+            int z1 = (z2 + z3) * FIX_0_541196100;
+            int tmp2 = z1 - z3 * FIX_1_847759065;
+            int tmp3 = z1 + z2 * FIX_0_765366865;
+            z2 = block[col] * quantization[col];
+            z3 = block[32 + col] * quantization[32 + col];
+            int tmp0 = (z2 + z3) << CONST_BITS;
+            int tmp1 = (z2 - z3) << CONST_BITS;
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+            // Odd part
+            tmp0 = block[56 + col] * quantization[56 + col];
+            tmp1 = block[40 + col] * quantization[40 + col];
+            tmp2 = block[24 + col] * quantization[24 + col];
+            tmp3 = block[8 + col] * quantization[8 + col];
+            z1 = tmp0 + tmp3;
+            z2 = tmp1 + tmp2;
+            z3 = tmp0 + tmp2;
+            int z4 = tmp1 + tmp3;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+            tmp0 = tmp0 * FIX_0_298631336 + z1 + z3;
+            tmp1 = tmp1 * FIX_2_053119869 + z2 + z4;
+            tmp2 = tmp2 * FIX_3_072711026 + z2 + z3;
+            tmp3 = tmp3 * FIX_1_501321110 + z1 + z4;
+            int round = 1 << (CONST_BITS - PASS1_BITS - 1);
+            ws[col] = (tmp10 + tmp3 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[56 + col] = (tmp10 - tmp3 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[8 + col] = (tmp11 + tmp2 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[48 + col] = (tmp11 - tmp2 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[16 + col] = (tmp12 + tmp1 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[40 + col] = (tmp12 - tmp1 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[24 + col] = (tmp13 + tmp0 + round) >> (CONST_BITS - PASS1_BITS);
+            ws[32 + col] = (tmp13 - tmp0 + round) >> (CONST_BITS - PASS1_BITS);
+        }
+        // Pass 2: rows, removing the PASS1_BITS scaling and the 8 of the DCT
+        for (int row = 0; row < 64; row += 8) {
+            int out = base + (row >> 3) * planeStride;
+            if (ws[row + 1] == 0 && ws[row + 2] == 0 && ws[row + 3] == 0 && ws[row + 4] == 0
+                    && ws[row + 5] == 0 && ws[row + 6] == 0 && ws[row + 7] == 0) {
+                byte value = (byte) clip(((ws[row] + (1 << (PASS1_BITS + 2))) >> (PASS1_BITS + 3)) + 128);
+                for (int x = 0; x < 8; x++) {
+                    plane[out + x] = value;
+                }
+                continue;
+            }
+            int z2 = ws[row + 2];
+            int z3 = ws[row + 6];
+            int z1 = (z2 + z3) * FIX_0_541196100;
+            int tmp2 = z1 - z3 * FIX_1_847759065;
+            int tmp3 = z1 + z2 * FIX_0_765366865;
+            int tmp0 = (ws[row] + ws[row + 4]) << CONST_BITS;
+            int tmp1 = (ws[row] - ws[row + 4]) << CONST_BITS;
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+            tmp0 = ws[row + 7];
+            tmp1 = ws[row + 5];
+            tmp2 = ws[row + 3];
+            tmp3 = ws[row + 1];
+            z1 = tmp0 + tmp3;
+            z2 = tmp1 + tmp2;
+            z3 = tmp0 + tmp2;
+            int z4 = tmp1 + tmp3;
+            int z5 = (z3 + z4) * FIX_1_175875602;
+            z1 *= -FIX_0_899976223;
+            z2 *= -FIX_2_562915447;
+            z3 = z3 * -FIX_1_961570560 + z5;
+            z4 = z4 * -FIX_0_390180644 + z5;
+            tmp0 = tmp0 * FIX_0_298631336 + z1 + z3;
+            tmp1 = tmp1 * FIX_2_053119869 + z2 + z4;
+            tmp2 = tmp2 * FIX_3_072711026 + z2 + z3;
+            tmp3 = tmp3 * FIX_1_501321110 + z1 + z4;
+            int shift = CONST_BITS + PASS1_BITS + 3;
+            int round = 1 << (shift - 1);
+            plane[out] = (byte) clip(((tmp10 + tmp3 + round) >> shift) + 128);
+            plane[out + 7] = (byte) clip(((tmp10 - tmp3 + round) >> shift) + 128);
+            plane[out + 1] = (byte) clip(((tmp11 + tmp2 + round) >> shift) + 128);
+            plane[out + 6] = (byte) clip(((tmp11 - tmp2 + round) >> shift) + 128);
+            plane[out + 2] = (byte) clip(((tmp12 + tmp1 + round) >> shift) + 128);
+            plane[out + 5] = (byte) clip(((tmp12 - tmp1 + round) >> shift) + 128);
+            plane[out + 3] = (byte) clip(((tmp13 + tmp0 + round) >> shift) + 128);
+            plane[out + 4] = (byte) clip(((tmp13 - tmp0 + round) >> shift) + 128);
+        }
+    }
+
+    /**
+     * Replaces each Y by the gray level SimpleGrayscaleImage.loadImage gets from the RGB pixel (see
+     * {@link GrayscaleConverter#luma(int, int, int)}), taking the average Cb and Cr of the chroma block the pixel
+     * falls in. Without them the RGB channels that get clipped in saturated areas would make quite a difference.
+     */
+    private void applyChromaClipping() throws IOException {
+        Component luma = components[0];
+        Component cb = components[1];
+        Component cr = components[2];
+        int cbQuantization = quantization(cb);
+        int crQuantization = quantization(cr);
+        int m = blockSize;
+        for (int row = 0; row < luma.blocksPerColumn; row++) {
+            int cbRow = (row * cb.v / maxV) * cb.paddedBlocksPerLine;
+            int crRow = (row * cr.v / maxV) * cr.paddedBlocksPerLine;
+            for (int col = 0; col < luma.blocksPerLine; col++) {
+                // The dequantized DC is 8 times the average of the block
+                int cbValue = cb.dcCoefficients[cbRow + col * cb.h / maxH] * cbQuantization;
+                int crValue = cr.dcCoefficients[crRow + col * cr.h / maxH] * crQuantization;
+                // Fixed point (16 bits) JFIF YCbCr to RGB, already divided by 8
+                int red = 11485 * crValue;
+                int green = -2819 * cbValue - 5850 * crValue;
+                int blue = 14516 * cbValue;
+                int base = row * m * planeStride + col * m;
+                for (int y = 0; y < m; y++) {
+                    int lineStart = base + y * planeStride;
+                    for (int x = 0; x < m; x++) {
+                        int yValue = ((plane[lineStart + x] & 0xFF) << 16) + 32768;
+                        int r = clip((yValue + red) >> 16);
+                        int g = clip((yValue + green) >> 16);
+                        int b = clip((yValue + blue) >> 16);
+                        plane[lineStart + x] = (byte) GrayscaleConverter.luma(r, g, b);
+                    }
+                }
+            }
+        }
+    }
+
+    private int quantization(Component c) throws IOException {
+        int[] table = quantizationTables[c.quantizationTable];
+        if (table == null) {
+            throw new IOException("Missing quantization table");
+        }
+        return table[0];
+    }
+
+    private static int clip(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int quantizationTable;
+        int dcTable;
+        int acTable;
+        int blocksPerLine;
+        int blocksPerColumn;
+        int paddedBlocksPerLine;
+        int dcPredictor;
+        /**
+         * Quantized DC coefficients of the chroma blocks (the only part of them that's used)
+         */
+        short[] dcCoefficients;
+    }
+
+    private static class HuffmanTable {
+        static final int LOOKUP_BITS = 9;
+        /**
+         * Indexed by the next LOOKUP_BITS bits: (code length << 8) | symbol, or 0 if the code is longer
+         */
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+        /**
+         * For AC tables, indexed the same way: (value << 16) | (run << 8) | (code + value length) when both the code
+         * and the value bits fit in LOOKUP_BITS (and the coefficient isn't a run of zeros or an end of block), 0
+         * otherwise
+         */
+        final int[] fastAc = new int[1 << LOOKUP_BITS];
+        final int[] maxCode = new int[18];
+        final int[] minCode = new int[17];
+        final int[] valuePointer = new int[17];
+        final int[] symbols;
+
+        HuffmanTable(int[] counts, int[] symbols) {
+            this.symbols = symbols;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valuePointer[length] = k;
+                minCode[length] = code;
+                if (counts[length] == 0) {
+                    maxCode[length] = -1;
+                } else {
+                    for (int i = 0; i < counts[length]; i++) {
+                        if (length <= LOOKUP_BITS) {
+                            int shift = LOOKUP_BITS - length;
+                            int first = code << shift;
+                            for (int j = 0; j < (1 << shift); j++) {
+                                lookup[first + j] = (length << 8) | symbols[k];
+                            }
+                        }
+                        code++;
+                        k++;
+                    }
+                    maxCode[length] = code - 1;
+                }
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+
+            for (int i = 0; i < lookup.length; i++) {
+                int entry = lookup[i];
+                int length = entry >> 8;
+                int run = (entry >> 4) & 0xF;
+                int size = entry & 0xF;
+                if (entry == 0 || size == 0 || length + size > LOOKUP_BITS) {
+                    continue;
+                }
+                int value = (i >> (LOOKUP_BITS - length - size)) & ((1 << size) - 1);
+                if (value < (1 << (size - 1))) {
+                    value += 1 - (1 << size);
+                }
+                fastAc[i] = (value << 16) | (run << 8) | (length + size);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.pragone.jphash.image.decode;
+
+/**
+ * An 8 bit gray plane as produced by {@link LumaJpegDecoder}: pixel (x, y) is at data[offset + y * stride + x].
+ */
+public class LumaPlane {
+    public final int width;
+    public final int height;
+    public final byte[] data;
+    public final int offset;
+    public final int stride;
+    /**
+     * True when the plane holds the gray levels of a color image, calculated as SimpleGrayscaleImage.loadImage does
+     * from RGB pixels, false when it's the plane of a grayscale image
+     */
+    public final boolean fromColor;
+
+    public LumaPlane(int width, int height, byte[] data, int offset, int stride, boolean fromColor) {
+        this.width = width;
+        this.height = height;
+        this.data = data;
+        this.offset = offset;
+        this.stride = stride;
+        this.fromColor = fromColor;
+    }
+}
@@ -0,0 +1,199 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.image.GrayscaleConverter;
+import com.pragone.jphash.image.ImageBuffers;
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads images too big to decode into a single BufferedImage straight into the target size square the hash works on,
+ * a region at a time.
+ *
+ * Regions are read with ImageReader source regions (following the reader's own tiles when the image is tiled, as in
+ * TIFF slides), subsampled like {@link ImageDecoder} does when the image is bigger than needed, and every region's
+ * gray levels are averaged into the cells of the square they fall in. Only one region (of at most maxTilePixels
+ * decoded pixels) and the cell sums are in memory at a time, whatever the size of the image. The square is the same
+ * whatever the region size.
+ *
+ * Averaging over each cell stands in for the bicubic resize, and color images are normalized on the averaged levels,
+ * so the hashes are very similar, but not identical, to {@link ImageDecoder#read(File, int)} ones. Formats that can't
+ * decode a region on its own (JPEG, PNG) decode the rows above it again for every region, so reading in regions is
+ * only worth it for images that don't fit in memory otherwise.
+ */
+public class TiledImageReader {
+    /**
+     * 4M pixels, 12 MB for 3 byte pixels
+     */
+    public static final int DEFAULT_MAX_TILE_PIXELS = 1 << 22;
+
+    private final int maxTilePixels;
+
+    public TiledImageReader() {
+        this(DEFAULT_MAX_TILE_PIXELS);
+    }
+
+    /**
+     * @param maxTilePixels the most (decoded) pixels read at a time
+     */
+    public TiledImageReader(int maxTilePixels) {
+        if (maxTilePixels < 1) {
+            throw new IllegalArgumentException("A tile needs at least one pixel");
+        }
+        this.maxTilePixels = maxTilePixels;
+    }
+
+    /**
+     * @see #read(ImageInputStream, int, ImageBuffers)
+     */
+    public SimpleGrayscaleImage read(File file, int targetSize, ImageBuffers buffers) throws IOException {
+        ImageInputStream iis = ImageInputStreams.open(file);
+        try {
+            return read(iis, targetSize, buffers);
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * Reads the first image of the stream into a square of the size {@link SimpleGrayscaleImage#resizeToNextSize(int)}
+     * would resize it to, with storage taken from the buffers. It's loaded and resized but not blurred.
+     *
+     * @param targetSize the side of the square (a power of 2), smaller if the image is
+     * @return the image or null if no registered ImageReader can decode the stream
+     */
+    public SimpleGrayscaleImage read(ImageInputStream iis, int targetSize, ImageBuffers buffers) throws IOException {
+        ImageDecoder.checkTargetSize(targetSize);
+        if (targetSize == ImageDecoder.FULL_RESOLUTION) {
+            throw new IllegalArgumentException("Reading in tiles needs a target size");
+        }
+        ImageReaders readers = ImageReaders.forCurrentThread();
+        ImageReader reader = readers.acquire(iis);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            // Not seek forward only, as every region is read from the start of the image
+            reader.setInput(iis, false, true);
+            return read(reader, targetSize, buffers);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    private SimpleGrayscaleImage read(ImageReader reader, int targetSize, ImageBuffers buffers) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int subsampling = ImageDecoder.getSubsampling(width, height, targetSize);
+        // The size of the subsampled image
+        int sampledWidth = (width + subsampling - 1) / subsampling;
+        int sampledHeight = (height + subsampling - 1) / subsampling;
+        int size = SimpleGrayscaleImage.getNextSize(sampledWidth, sampledHeight, targetSize);
+        CellGrid grid = new CellGrid(sampledWidth, sampledHeight, size);
+
+        // Regions start on multiples of the subsampling, so their samples fall on the whole image's sampling grid
+        int tileWidth = reader.isImageTiled(0) ? reader.getTileWidth(0) : width;
+        long maxSourcePixels = (long) maxTilePixels * subsampling * subsampling;
+        int regionWidth = align((int) Math.min(Math.min(width, tileWidth), maxSourcePixels), subsampling);
+        int regionHeight = (int) Math.min(height, Math.max(1, maxSourcePixels / regionWidth));
+        if (reader.isImageTiled(0) && regionHeight > reader.getTileHeight(0)) {
+            regionHeight = align(regionHeight, reader.getTileHeight(0));
+        }
+        regionHeight = align(regionHeight, subsampling);
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        byte[] row = new byte[(regionWidth + subsampling - 1) / subsampling];
+        boolean gray = true;
+        for (int y = 0; y < height; y += regionHeight) {
+            for (int x = 0; x < width; x += regionWidth) {
+                param.setSourceRegion(new Rectangle(x, y, Math.min(regionWidth, width - x),
+                        Math.min(regionHeight, height - y)));
+                BufferedImage tile = reader.read(0, param);
+                GrayscaleConverter converter = GrayscaleConverter.forImage(tile);
+                gray &= converter.isGray();
+                for (int tileY = 0; tileY < tile.getHeight(); tileY++) {
+                    converter.convert(tileY, 1, row, 0);
+                    grid.add(x / subsampling, y / subsampling + tileY, row, tile.getWidth());
+                }
+            }
+        }
+
+        SimpleGrayscaleImage image = new SimpleGrayscaleImage(size, size, buffers);
+        image.loadLuma(grid.getLevels(), 0, size, !gray);
+        return image;
+    }
+
+    /**
+     * @return value rounded down to a multiple of unit, at least unit
+     */
+    private static int align(int value, int unit) {
+        return Math.max(unit, value / unit * unit);
+    }
+
+    /**
+     * Sums of the levels falling in each cell of a size x size grid laid over a width x height image
+     */
+    private static final class CellGrid {
+        private final int size;
+        private final int height;
+        private final long[] sums;
+        // The cell column of every image column
+        private final int[] cellX;
+        // How many image columns and rows fall in each cell column and row
+        private final int[] columnCounts;
+        private final int[] rowCounts;
+
+        CellGrid(int width, int height, int size) {
+            this.size = size;
+            this.height = height;
+            this.sums = new long[size * size];
+            this.cellX = new int[width];
+            this.columnCounts = new int[size];
+            this.rowCounts = new int[size];
+            for (int x = 0; x < width; x++) {
+                cellX[x] = (int) ((long) x * size / width);
+                columnCounts[cellX[x]]++;
+            }
+            for (int y = 0; y < height; y++) {
+                rowCounts[getCellY(y)]++;
+            }
+        }
+
+        private int getCellY(int y) {
+            return (int) ((long) y * size / height);
+        }
+
+        /**
+         * Adds the length levels of image row y starting at column x
+         */
+        void add(int x, int y, byte[] levels, int length) {
+            int offset = getCellY(y) * size;
+            for (int i = 0; i < length; i++) {
+                sums[offset + cellX[x + i]] += levels[i] & 0xFF;
+            }
+        }
+
+        /**
+         * @return the rounded average level of every cell, row by row
+         */
+        byte[] getLevels() {
+            byte[] levels = new byte[size * size];
+            for (int cy = 0; cy < size; cy++) {
+                for (int cx = 0; cx < size; cx++) {
+                    long count = (long) rowCounts[cy] * columnCounts[cx];
+                    levels[cy * size + cx] = (byte) ((sums[cy * size + cx] + count / 2) / count);
+                }
+            }
+            return levels;
+        }
+    }
+}
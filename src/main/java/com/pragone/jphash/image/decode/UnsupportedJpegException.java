@@ -0,0 +1,13 @@
+package com.pragone.jphash.image.decode;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link LumaJpegDecoder} for valid JPEG files it doesn't handle (lossless, arithmetic coded, 12 bit,
+ * CMYK...), which should then be decoded through ImageIO.
+ */
+public class UnsupportedJpegException extends IOException {
+    public UnsupportedJpegException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,29 @@
+package com.pragone.jphash.image.marrhildreth;
+
+import com.pragone.jphash.util.HexUtil;
+
+/**
+ * The 576 bit (72 byte) hash of {@link MarrHildrethHashAlgorithm}
+ */
+public class MarrHildrethHash {
+    private final byte[] bits;
+
+    public MarrHildrethHash(int numberOfBytes) {
+        this.bits = new byte[numberOfBytes];
+    }
+
+    public byte[] getBits() {
+        return bits;
+    }
+
+    @Override
+    public String toString() {
+        return HexUtil.byteArrayToString(bits);
+    }
+
+    public static MarrHildrethHash fromString(String string) {
+        MarrHildrethHash temp = new MarrHildrethHash(string.length() / 2);
+        HexUtil.stringToByteArray(string, temp.bits);
+        return temp;
+    }
+}
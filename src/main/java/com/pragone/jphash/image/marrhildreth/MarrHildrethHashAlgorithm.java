@@ -0,0 +1,239 @@
+package com.pragone.jphash.image.marrhildreth;
+
+import com.pragone.jphash.image.ImageBuffers;
+import com.pragone.jphash.image.PixelStoragePool;
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+import com.pragone.jphash.image.decode.ImageDecoder;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * pHash's Marr-Hildreth image hash (ph_mh_imagehash with alpha 2 and level 1): the histogram equalized image is
+ * filtered with a Laplacian of Gaussian (the Marr-Hildreth edge operator), the response summed over a 31x31 grid of
+ * blocks, and each bit says whether a block is above the mean of its 3x3 neighbourhood, for 8x8 neighbourhoods.
+ *
+ * It works on the image {@link SimpleGrayscaleImage#load(BufferedImage, int)} prepares for the radial hash instead
+ * of a 512x512 one, scaling the blocks and the kernel to its size (it's pHash's geometry at 512), so as for the
+ * radial hash only hashes calculated at the same size compare well. The 2D kernel is applied as the sum of three
+ * separable ones, a quarter of the work.
+ */
+public class MarrHildrethHashAlgorithm {
+    static final int HASH_BYTES = 72;
+    /**
+     * The blocks span a 32x32 grid of the image, of which the last row and column are left out
+     */
+    static final int GRID = 32;
+    private static final int BLOCKS = GRID - 1;
+    private static final int LEVELS = 256;
+    /**
+     * The kernel samples its function from -KERNEL_EXTENT to KERNEL_EXTENT along each axis
+     */
+    private static final double KERNEL_EXTENT = 4;
+
+    /**
+     * Hashes the image loaded, resized to a maxSize square and blurred as the radial hash does (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int)})
+     */
+    public static MarrHildrethHash getHash(BufferedImage img, int maxSize) {
+        ImageDecoder.checkTargetSize(maxSize);
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage image = new SimpleGrayscaleImage(buffers);
+            image.load(img, maxSize);
+            return getHash(image);
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /**
+     * Hashes an image that's already been loaded, resized and blurred (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int)}), which is left as it is. It needs to be at least 32
+     * pixels a side.
+     */
+    public static MarrHildrethHash getHash(SimpleGrayscaleImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width < GRID || height < GRID) {
+            throw new IllegalArgumentException("Images need to be at least " + GRID + " pixels a side, not "
+                    + width + "x" + height);
+        }
+        float[] response = equalize(image);
+        filter(response, width, height, Math.max(1, Math.round(Math.min(width, height) / 64f)));
+        return calculateHash(sumBlocks(response, width, height));
+    }
+
+    /**
+     * @return the levels of the image spread over its range so their histogram is as flat as can be
+     */
+    private static float[] equalize(SimpleGrayscaleImage image) {
+        int numPixels = image.getWidth() * image.getHeight();
+        float[] levels = new float[numPixels];
+        int min = LEVELS;
+        int max = -1;
+        int[] counts = new int[LEVELS];
+        for (int i = 0; i < numPixels; i++) {
+            int value = image.get(i);
+            counts[value]++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        float[] lut = new float[LEVELS];
+        int[] histogram = new int[LEVELS];
+        for (int value = min; value <= max; value++) {
+            lut[value] = value;
+            if (max > min) {
+                histogram[bin(value, min, max)] += counts[value];
+            }
+        }
+        if (max > min) {
+            int cumulative = 0;
+            for (int i = 0; i < LEVELS; i++) {
+                cumulative += histogram[i];
+                histogram[i] = cumulative;
+            }
+            for (int value = min; value <= max; value++) {
+                lut[value] = min + (max - min) * (float) histogram[bin(value, min, max)] / numPixels;
+            }
+        }
+        for (int i = 0; i < numPixels; i++) {
+            levels[i] = lut[image.get(i)];
+        }
+        return levels;
+    }
+
+    private static int bin(int value, int min, int max) {
+        return (int) ((value - min) * (LEVELS - 1.0) / (max - min));
+    }
+
+    /**
+     * Correlates the pixels, in place, with the Marr-Hildreth kernel of the given radius, repeating the edge pixels
+     * past the borders. The kernel, (2 - r^2) * exp(-r^2 / 2) with r^2 = x^2 + y^2, is 2 * g(x) * g(y) - h(x) * g(y)
+     * - g(x) * h(y) for g(t) = exp(-t^2 / 2) and h(t) = t^2 * g(t): a pass along the rows with g and h, then one down
+     * the columns.
+     */
+    private static void filter(float[] pixels, int width, int height, int radius) {
+        int taps = 2 * radius + 1;
+        double[] g = new double[taps];
+        double[] h = new double[taps];
+        for (int i = 0; i < taps; i++) {
+            double t = (i - radius) * KERNEL_EXTENT / radius;
+            g[i] = Math.exp(-t * t / 2);
+            h[i] = t * t * g[i];
+        }
+        // Along the rows: rowsG with g, and rowsK = 2 * (with g) - (with h)
+        float[] rowsG = new float[pixels.length];
+        float[] rowsK = new float[pixels.length];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                double sumG = 0;
+                double sumH = 0;
+                for (int i = 0; i < taps; i++) {
+                    float value = pixels[row + clamp(x + i - radius, width)];
+                    sumG += g[i] * value;
+                    sumH += h[i] * value;
+                }
+                rowsG[row + x] = (float) sumG;
+                rowsK[row + x] = (float) (2 * sumG - sumH);
+            }
+        }
+        // Down the columns: rowsK with g, minus rowsG with h
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double sum = 0;
+                for (int i = 0; i < taps; i++) {
+                    int index = clamp(y + i - radius, height) * width + x;
+                    sum += g[i] * rowsK[index] - h[i] * rowsG[index];
+                }
+                pixels[y * width + x] = (float) sum;
+            }
+        }
+    }
+
+    private static int clamp(int position, int size) {
+        return position < 0 ? 0 : (position >= size ? size - 1 : position);
+    }
+
+    /**
+     * @return the sums of the response, normalized to [0, 1], over the BLOCKS x BLOCKS blocks
+     */
+    private static double[] sumBlocks(float[] response, int width, int height) {
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float value : response) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        double scale = (max > min) ? 1.0 / (max - min) : 0;
+        double[] blocks = new double[BLOCKS * BLOCKS];
+        for (int by = 0; by < BLOCKS; by++) {
+            int y0 = by * height / GRID;
+            int y1 = (by + 1) * height / GRID;
+            for (int bx = 0; bx < BLOCKS; bx++) {
+                int x0 = bx * width / GRID;
+                int x1 = (bx + 1) * width / GRID;
+                double sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        sum += response[y * width + x] - min;
+                    }
+                }
+                blocks[by * BLOCKS + bx] = sum * scale;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Sets a bit, first to last and most significant first in each byte, for each block of the 3x3 neighbourhoods
+     * taken every 4 blocks, when the block is above the mean of its neighbourhood
+     */
+    private static MarrHildrethHash calculateHash(double[] blocks) {
+        MarrHildrethHash hash = new MarrHildrethHash(HASH_BYTES);
+        byte[] bits = hash.getBits();
+        int bit = 0;
+        int current = 0;
+        for (int by = 0; by < BLOCKS - 2; by += 4) {
+            for (int bx = 0; bx < BLOCKS - 2; bx += 4) {
+                double mean = 0;
+                for (int dy = 0; dy < 3; dy++) {
+                    for (int dx = 0; dx < 3; dx++) {
+                        mean += blocks[(by + dy) * BLOCKS + bx + dx];
+                    }
+                }
+                mean /= 9;
+                for (int dy = 0; dy < 3; dy++) {
+                    for (int dx = 0; dx < 3; dx++) {
+                        current = (current << 1) | (blocks[(by + dy) * BLOCKS + bx + dx] > mean ? 1 : 0);
+                        if (++bit % 8 == 0) {
+                            bits[bit / 8 - 1] = (byte) current;
+                            current = 0;
+                        }
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return how many of the 576 bits differ
+     */
+    public static int getDistance(MarrHildrethHash hash1, MarrHildrethHash hash2) {
+        byte[] bits1 = hash1.getBits();
+        byte[] bits2 = hash2.getBits();
+        int distance = 0;
+        for (int i = 0; i < bits1.length; i++) {
+            distance += Integer.bitCount((bits1[i] ^ bits2[i]) & 0xFF);
+        }
+        return distance;
+    }
+
+    /**
+     * @return the share of bits that are the same, 1 for identical hashes
+     */
+    public static double getSimilarity(MarrHildrethHash hash1, MarrHildrethHash hash2) {
+        return 1 - (double) getDistance(hash1, hash2) / (hash1.getBits().length * 8);
+    }
+}
@@ -0,0 +1,37 @@
+package com.pragone.jphash.image.multi;
+
+import com.pragone.jphash.image.dct.DctHash;
+import com.pragone.jphash.image.marrhildreth.MarrHildrethHash;
+import com.pragone.jphash.image.radial.RadialHash;
+
+/**
+ * The hashes {@link MultiHashPipeline} calculated for an image, null for the types it wasn't asked for
+ */
+public class MultiHash {
+    private final RadialHash radialHash;
+    private final DctHash dctHash;
+    private final MarrHildrethHash marrHildrethHash;
+
+    public MultiHash(RadialHash radialHash, DctHash dctHash, MarrHildrethHash marrHildrethHash) {
+        this.radialHash = radialHash;
+        this.dctHash = dctHash;
+        this.marrHildrethHash = marrHildrethHash;
+    }
+
+    public RadialHash getRadialHash() {
+        return radialHash;
+    }
+
+    public DctHash getDctHash() {
+        return dctHash;
+    }
+
+    public MarrHildrethHash getMarrHildrethHash() {
+        return marrHildrethHash;
+    }
+
+    @Override
+    public String toString() {
+        return "radial=" + radialHash + ", dct=" + dctHash + ", marrHildreth=" + marrHildrethHash;
+    }
+}
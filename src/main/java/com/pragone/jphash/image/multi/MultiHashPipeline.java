@@ -0,0 +1,89 @@
+package com.pragone.jphash.image.multi;
+
+import com.pragone.jphash.image.ImageBuffers;
+import com.pragone.jphash.image.PixelStoragePool;
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+import com.pragone.jphash.image.dct.DctHashAlgorithm;
+import com.pragone.jphash.image.decode.ImageDecoder;
+import com.pragone.jphash.image.marrhildreth.MarrHildrethHashAlgorithm;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Calculates several hashes of an image from a single decode and preprocessing: the image is decoded at the lowest
+ * resolution that covers the targetSize square (see {@link ImageDecoder}), loaded, resized and blurred once (see
+ * {@link SimpleGrayscaleImage#load(BufferedImage, int)}), and every hash type asked for is calculated from that
+ * image. Decoding and preprocessing are most of the work of a hash, so each extra type costs little.
+ *
+ * The radial hash is the same {@link RadialHashAlgorithm#getHash(BufferedImage, int)} gives for the decoded image.
+ */
+public class MultiHashPipeline {
+    public enum HashType {
+        RADIAL, DCT, MARR_HILDRETH
+    }
+
+    private final int targetSize;
+    private EnumSet<HashType> hashTypes = EnumSet.allOf(HashType.class);
+
+    /**
+     * A pipeline calculating all the hash types working on a targetSize square ({@link ImageDecoder#FULL_RESOLUTION}
+     * for the biggest power of 2 square the image covers). The Marr-Hildreth hash needs it to be at least 32.
+     */
+    public MultiHashPipeline(int targetSize) {
+        ImageDecoder.checkTargetSize(targetSize);
+        this.targetSize = targetSize;
+    }
+
+    public MultiHashPipeline setHashTypes(HashType... hashTypes) {
+        this.hashTypes = EnumSet.noneOf(HashType.class);
+        this.hashTypes.addAll(Arrays.asList(hashTypes));
+        return this;
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    public MultiHash getHashes(File file) throws IOException {
+        BufferedImage img = ImageDecoder.read(file, targetSize);
+        if (img == null) {
+            throw new IOException("No ImageIO reader could decode " + file);
+        }
+        return getHashes(img);
+    }
+
+    public MultiHash getHashes(byte[] data) throws IOException {
+        BufferedImage img = ImageDecoder.read(data, targetSize);
+        if (img == null) {
+            throw new IOException("No ImageIO reader could decode the data");
+        }
+        return getHashes(img);
+    }
+
+    public MultiHash getHashes(BufferedImage img) {
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage image = new SimpleGrayscaleImage(buffers);
+            image.load(img, targetSize);
+            return getHashes(image);
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /**
+     * Hashes an image that's already been loaded, resized and blurred (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int)}), which is left as it is
+     */
+    public MultiHash getHashes(SimpleGrayscaleImage image) {
+        return new MultiHash(
+                hashTypes.contains(HashType.RADIAL) ? RadialHashAlgorithm.getPreprocessedHash(image) : null,
+                hashTypes.contains(HashType.DCT) ? DctHashAlgorithm.getHash(image) : null,
+                hashTypes.contains(HashType.MARR_HILDRETH) ? MarrHildrethHashAlgorithm.getHash(image) : null);
+    }
+}
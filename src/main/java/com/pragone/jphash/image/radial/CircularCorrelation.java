@@ -0,0 +1,287 @@
+package com.pragone.jphash.image.radial;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The circular cross-correlation of two coefficient vectors x and y of length N, c[d] = sum_i x[i] * y[(i - d) mod N]
+ * for every shift d, which comparing radial hashes takes the largest of. Worked out directly it costs N^2
+ * multiplications; for power of 2 lengths it's also the inverse real FFT of X * conj(Y), which costs N log N once the
+ * spectra X and Y of the two vectors are known (see {@link PreparedRadialHash}, which keeps its spectrum).
+ * {@link #usesFft(int)} tells which of the two pays off for a length. The FFT of a comparison works in arrays kept per
+ * thread, so a 1 vs many scan doesn't allocate.
+ */
+class CircularCorrelation {
+    /**
+     * The shortest length the FFT is used for: below it (and for lengths that aren't powers of 2) the direct sums are
+     * faster (see CorrelationBenchmark)
+     */
+    static final int FFT_MIN_LENGTH = 32;
+
+    private static final ConcurrentMap<Integer, Tables> TABLES = new ConcurrentHashMap<Integer, Tables>();
+    private static final ThreadLocal<Scratch> perThread = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private CircularCorrelation() {
+    }
+
+    static boolean usesFft(int N) {
+        return N >= FFT_MIN_LENGTH && Integer.bitCount(N) == 1;
+    }
+
+    /**
+     * @return the largest c[d], straight from the sums (what
+     * {@link RadialHashAlgorithm#getSimilarity(PreparedRadialHash, PreparedRadialHash)} uses for short hashes)
+     * @param x the first vector
+     * @param y the second vector twice over, y[N + i] = y[i] (see {@link PreparedRadialHash#centered})
+     */
+    static double maxDirect(double[] x, double[] y, int N) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int d = 0; d < N; d++) {
+            double num = 0.0;
+            for (int i = 0; i < N; i++) {
+                num += x[i] * y[N - d + i];
+            }
+            if (num > max) {
+                max = num;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the largest c[d], from the spectra of the two vectors (see {@link #spectrum(double[], int)})
+     */
+    static double maxFft(double[] spectrum1, double[] spectrum2, int N) {
+        Scratch scratch = perThread.get().ensure(N);
+        double[] product = scratch.product;
+        for (int k = 0; k <= N; k += 2) {
+            double re1 = spectrum1[k];
+            double im1 = spectrum1[k + 1];
+            double re2 = spectrum2[k];
+            double im2 = spectrum2[k + 1];
+            product[k] = re1 * re2 + im1 * im2;
+            product[k + 1] = im1 * re2 - re1 * im2;
+        }
+        double[] correlation = scratch.values;
+        inverseSpectrum(product, scratch.tables, correlation, scratch.re, scratch.im);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int d = 0; d < N; d++) {
+            if (correlation[d] > max) {
+                max = correlation[d];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the most any c[d] can be, from the magnitudes of the spectra (see {@link #magnitudes(double[], int)}):
+     * each term of c[d] = (1 / N) sum_k X[k] conj(Y[k]) e^(2 pi i k d / N) is at most |X[k]| |Y[k]|, but for k = 0,
+     * which is X[0] Y[0] whatever the shift
+     */
+    static double bound(double[] spectrum1, double[] magnitudes1, double[] spectrum2, double[] magnitudes2, int N) {
+        double sum = 0.0;
+        int half = N / 2;
+        for (int k = 1; k < half; k++) {
+            sum += magnitudes1[k] * magnitudes2[k];
+        }
+        sum = 2 * sum + magnitudes1[half] * magnitudes2[half];
+        return (spectrum1[0] * spectrum2[0] + sum) / N;
+    }
+
+    /**
+     * @return X[0] to X[N / 2], the non redundant half of the discrete Fourier transform of values[0] to
+     * values[N - 1] (the rest are their conjugates), real and imaginary parts interleaved
+     */
+    static double[] spectrum(double[] values, int N) {
+        Tables tables = getTables(N);
+        int M = N / 2;
+        // The even values as the real parts and the odd ones as the imaginary parts of a transform of half the length
+        double[] re = new double[M];
+        double[] im = new double[M];
+        for (int n = 0; n < M; n++) {
+            re[n] = values[2 * n];
+            im[n] = values[2 * n + 1];
+        }
+        fft(re, im, tables, false);
+        double[] spectrum = new double[N + 2];
+        for (int k = 0; k <= M; k++) {
+            int k1 = (k == M) ? 0 : k;
+            int k2 = (k == 0) ? 0 : M - k;
+            // The transforms of the even and odd values, E = (Z[k] + conj(Z[M - k])) / 2
+            // and O = (Z[k] - conj(Z[M - k])) / 2i
+            double evenRe = (re[k1] + re[k2]) / 2;
+            double evenIm = (im[k1] - im[k2]) / 2;
+            double oddRe = (im[k1] + im[k2]) / 2;
+            double oddIm = (re[k2] - re[k1]) / 2;
+            // X[k] = E + e^(-2 pi i k / N) O
+            double wRe = tables.splitCos[k];
+            double wIm = -tables.splitSin[k];
+            spectrum[2 * k] = evenRe + oddRe * wRe - oddIm * wIm;
+            spectrum[2 * k + 1] = evenIm + oddRe * wIm + oddIm * wRe;
+        }
+        return spectrum;
+    }
+
+    /**
+     * @return |X[0]| to |X[N / 2]|
+     */
+    static double[] magnitudes(double[] spectrum, int N) {
+        double[] magnitudes = new double[N / 2 + 1];
+        for (int k = 0; k < magnitudes.length; k++) {
+            magnitudes[k] = Math.hypot(spectrum[2 * k], spectrum[2 * k + 1]);
+        }
+        return magnitudes;
+    }
+
+    /**
+     * The inverse of {@link #spectrum(double[], int)}, into values[0] to values[N - 1]
+     *
+     * @param tables the tables of N
+     * @param re scratch for N / 2 values
+     * @param im scratch for N / 2 values
+     */
+    private static void inverseSpectrum(double[] spectrum, Tables tables, double[] values, double[] re, double[] im) {
+        int M = tables.reverse.length;
+        for (int k = 0; k < M; k++) {
+            double re1 = spectrum[2 * k];
+            double im1 = spectrum[2 * k + 1];
+            double re2 = spectrum[2 * (M - k)];
+            double im2 = -spectrum[2 * (M - k) + 1];
+            // E = (X[k] + conj(X[M - k])) / 2 and O = (X[k] - conj(X[M - k])) / 2 * e^(2 pi i k / N), Z[k] = E + i O
+            double evenRe = (re1 + re2) / 2;
+            double evenIm = (im1 + im2) / 2;
+            double diffRe = (re1 - re2) / 2;
+            double diffIm = (im1 - im2) / 2;
+            double wRe = tables.splitCos[k];
+            double wIm = tables.splitSin[k];
+            double oddRe = diffRe * wRe - diffIm * wIm;
+            double oddIm = diffRe * wIm + diffIm * wRe;
+            re[k] = evenRe - oddIm;
+            im[k] = evenIm + oddRe;
+        }
+        fft(re, im, tables, true);
+        for (int n = 0; n < M; n++) {
+            values[2 * n] = re[n] / M;
+            values[2 * n + 1] = im[n] / M;
+        }
+    }
+
+    /**
+     * The in place radix 2 transform of the M = N / 2 complex numbers re[n] + i im[n], unscaled either way
+     */
+    private static void fft(double[] re, double[] im, Tables tables, boolean inverse) {
+        int M = tables.reverse.length;
+        int[] reverse = tables.reverse;
+        for (int n = 0; n < M; n++) {
+            int r = reverse[n];
+            if (r > n) {
+                double t = re[n];
+                re[n] = re[r];
+                re[r] = t;
+                t = im[n];
+                im[n] = im[r];
+                im[r] = t;
+            }
+        }
+        double sign = inverse ? 1.0 : -1.0;
+        for (int size = 2; size <= M; size <<= 1) {
+            int half = size / 2;
+            int step = M / size;
+            for (int start = 0; start < M; start += size) {
+                for (int j = 0; j < half; j++) {
+                    double wRe = tables.cos[j * step];
+                    double wIm = sign * tables.sin[j * step];
+                    int a = start + j;
+                    int b = a + half;
+                    double tRe = re[b] * wRe - im[b] * wIm;
+                    double tIm = re[b] * wIm + im[b] * wRe;
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+                }
+            }
+        }
+    }
+
+    private static Tables getTables(int N) {
+        if (N < 2 || Integer.bitCount(N) != 1) {
+            throw new IllegalArgumentException("The FFT needs a power of 2 length, not " + N);
+        }
+        Tables tables = TABLES.get(N);
+        if (tables == null) {
+            tables = new Tables(N);
+            Tables existing = TABLES.putIfAbsent(N, tables);
+            if (existing != null) {
+                tables = existing;
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * The arrays of {@link #maxFft(double[], double[], int)}, grown to the longest hashes the thread compared, and
+     * the tables of the last length (looking them up boxes it)
+     */
+    private static class Scratch {
+        double[] product = new double[0];
+        double[] values = new double[0];
+        double[] re = new double[0];
+        double[] im = new double[0];
+        int length;
+        Tables tables;
+
+        Scratch ensure(int N) {
+            if (N != length) {
+                tables = getTables(N);
+                length = N;
+            }
+            if (values.length < N) {
+                product = new double[N + 2];
+                values = new double[N];
+                re = new double[N / 2];
+                im = new double[N / 2];
+            }
+            return this;
+        }
+    }
+
+    /**
+     * The twiddle factors and the bit reversal permutation for a length
+     */
+    private static class Tables {
+        /** cos and sin of 2 pi j / M, for the half length transform */
+        final double[] cos;
+        final double[] sin;
+        /** cos and sin of 2 pi k / N, to split it into the even and odd halves */
+        final double[] splitCos;
+        final double[] splitSin;
+        final int[] reverse;
+
+        Tables(int N) {
+            int M = N / 2;
+            cos = new double[Math.max(1, M / 2)];
+            sin = new double[cos.length];
+            for (int j = 0; j < cos.length; j++) {
+                cos[j] = Math.cos(2 * Math.PI * j / M);
+                sin[j] = Math.sin(2 * Math.PI * j / M);
+            }
+            splitCos = new double[M + 1];
+            splitSin = new double[M + 1];
+            for (int k = 0; k <= M; k++) {
+                splitCos[k] = Math.cos(2 * Math.PI * k / N);
+                splitSin[k] = Math.sin(2 * Math.PI * k / N);
+            }
+            reverse = new int[M];
+            int bits = Integer.numberOfTrailingZeros(M);
+            for (int n = 0; n < M; n++) {
+                reverse[n] = (bits == 0) ? 0 : Integer.reverse(n) >>> (32 - bits);
+            }
+        }
+    }
+}
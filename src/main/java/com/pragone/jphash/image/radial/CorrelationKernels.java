@@ -0,0 +1,96 @@
+package com.pragone.jphash.image.radial;
+
+import java.util.Random;
+
+/**
+ * The integer circular correlation loop of the {@link HashArena} scans: the best dot product of a row's coefficients
+ * with the circular shifts of the query's.
+ *
+ * This class is the scalar implementation. {@link #get()} returns a SIMD one instead (VectorCorrelationKernels, built
+ * from src/vector/java by the vector profile) when it was built and the JDK Vector API is there, as for the
+ * preprocessing kernels (see com.pragone.jphash.image.PixelKernels). The sums are of ints, so both give exactly the
+ * same results; the SIMD one is still checked against this one before being used. Setting the jphash.vector system
+ * property to false always uses this one.
+ */
+class CorrelationKernels {
+    static final String VECTOR_PROPERTY = "jphash.vector";
+    private static final String VECTOR_KERNELS = "com.pragone.jphash.image.radial.VectorCorrelationKernels";
+
+    private static final CorrelationKernels SCALAR = new CorrelationKernels();
+    private static final CorrelationKernels INSTANCE = load();
+
+    /**
+     * @return the fastest kernels available
+     */
+    static CorrelationKernels get() {
+        return INSTANCE;
+    }
+
+    static CorrelationKernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return whether these are the SIMD kernels
+     */
+    boolean isVectorized() {
+        return false;
+    }
+
+    private static CorrelationKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) {
+            return SCALAR;
+        }
+        CorrelationKernels kernels;
+        try {
+            kernels = (CorrelationKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            // Not built
+            return SCALAR;
+        } catch (LinkageError e) {
+            // Older JVM or no jdk.incubator.vector module
+            return SCALAR;
+        }
+        return kernels.matches(SCALAR) ? kernels : SCALAR;
+    }
+
+    /**
+     * @return whether these kernels give the same results as the given ones on random coefficients
+     */
+    boolean matches(CorrelationKernels other) {
+        Random random = new Random(0);
+        for (int N = 1; N <= 100; N++) {
+            int[] row = new int[N];
+            int[] coefficients = new int[2 * N];
+            for (int i = 0; i < N; i++) {
+                row[i] = (byte) random.nextInt();
+                coefficients[i] = (byte) random.nextInt();
+                coefficients[N + i] = coefficients[i];
+            }
+            if (maxCorrelation(row, coefficients, N) != other.maxCorrelation(row, coefficients, N)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the largest of sum_i row[i] * coefficients[d + i] over the shifts d = 0 to N - 1
+     * @param row N coefficients
+     * @param coefficients N coefficients twice over, so the ones shifted by d are coefficients[d] to
+     * coefficients[d + N - 1]
+     */
+    int maxCorrelation(int[] row, int[] coefficients, int N) {
+        int best = Integer.MIN_VALUE;
+        for (int d = 0; d < N; d++) {
+            int dot = 0;
+            for (int i = 0; i < N; i++) {
+                dot += row[i] * coefficients[d + i];
+            }
+            if (dot > best) {
+                best = dot;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,345 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.image.ParallelRanges;
+import com.pragone.jphash.image.PixelStorage;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Radial hashes of the same length packed one after the other in a single block of memory, rather than an object and
+ * an array each, for exact linear scans of millions of them: {@link #scanTopK(RadialHash, int, ForkJoinPool)} and
+ * {@link #scanAbove(RadialHash, double, ForkJoinPool)} compare a query against every row with the similarity of
+ * {@link RadialHashAlgorithm#getSimilarity(RadialHash, RadialHash)} (up to rounding in the last bits).
+ *
+ * The correlations over all the shifts are summed up exactly as ints, from the bytes, and only the best one of a row
+ * is turned into a similarity: the centering on the means is the same for all the shifts, so it's taken out of the
+ * sums and applied once. The sums of a row's bytes also bound its best correlation, which rules out most rows that
+ * can't reach the threshold (or the k-th best so far) before any shift is summed up. The sums over the shifts are
+ * SIMD on the JDK Vector API when it's there (see {@link CorrelationKernels}). Scans split the rows into ranges run
+ * on a ForkJoinPool (see {@link ParallelRanges}).
+ *
+ * The block is a {@link PixelStorage} of any backend: a byte[] (the default), or off the heap in a direct buffer or a
+ * java.lang.foreign segment, which {@link #close()} frees at once.
+ *
+ * Adding hashes while a scan runs isn't safe; scans can run concurrently with each other.
+ */
+public class HashArena implements Closeable {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final double BOUND_SLACK = 1e-9;
+    private static final CorrelationKernels KERNELS = CorrelationKernels.get();
+    /**
+     * The bytes copied at a time when the storage grows
+     */
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final int numberOfCoefficients;
+    private final PixelStorage.Backend backend;
+    private PixelStorage rows;
+    private int size;
+
+    public HashArena(int numberOfCoefficients) {
+        this(numberOfCoefficients, DEFAULT_CAPACITY);
+    }
+
+    public HashArena(int numberOfCoefficients, int initialCapacity) {
+        this(numberOfCoefficients, initialCapacity, PixelStorage.Backend.HEAP);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the backend isn't available (see
+     * {@link PixelStorage.Backend#isAvailable()})
+     */
+    public HashArena(int numberOfCoefficients, int initialCapacity, PixelStorage.Backend backend) {
+        if (numberOfCoefficients < 1) {
+            throw new IllegalArgumentException("Bad number of coefficients: " + numberOfCoefficients);
+        }
+        this.numberOfCoefficients = numberOfCoefficients;
+        this.backend = backend;
+        this.rows = PixelStorage.allocate(backend, numberOfCoefficients * Math.max(1, initialCapacity));
+    }
+
+    /**
+     * @return the row the hash was added as
+     */
+    public int add(RadialHash hash) {
+        byte[] coefficients = hash.getCoefficients();
+        if (coefficients.length != numberOfCoefficients) {
+            throw new IllegalArgumentException("The arena holds hashes of " + numberOfCoefficients
+                    + " coefficients, not " + coefficients.length);
+        }
+        int N = numberOfCoefficients;
+        if ((size + 1) * (long) N > rows.size()) {
+            long capacity = Math.min(2L * rows.size(), (Integer.MAX_VALUE - 8) / N * (long) N);
+            if (capacity < (size + 1) * (long) N) {
+                throw new IllegalStateException("The arena is full at " + size + " hashes");
+            }
+            grow((int) capacity);
+        }
+        rows.put(size * N, coefficients, 0, N);
+        return size++;
+    }
+
+    private void grow(int capacity) {
+        PixelStorage grown = PixelStorage.allocate(backend, capacity);
+        byte[] chunk = new byte[COPY_CHUNK];
+        int used = size * numberOfCoefficients;
+        for (int i = 0; i < used; i += COPY_CHUNK) {
+            int length = Math.min(COPY_CHUNK, used - i);
+            rows.get(i, chunk, 0, length);
+            grown.put(i, chunk, 0, length);
+        }
+        rows.close();
+        rows = grown;
+    }
+
+    public RadialHash get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        RadialHash hash = new RadialHash(numberOfCoefficients);
+        rows.get(row * numberOfCoefficients, hash.getCoefficients(), 0, numberOfCoefficients);
+        return hash;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getNumberOfCoefficients() {
+        return numberOfCoefficients;
+    }
+
+    public PixelStorage.Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Frees the memory of the hashes, if the backend can do that on demand. The arena must not be used again.
+     */
+    @Override
+    public void close() {
+        rows.close();
+    }
+
+    /**
+     * @return the k rows most similar to the query, most similar first (the lowest row first among equals)
+     */
+    public List<Match> scanTopK(RadialHash query, int k) {
+        return scanTopK(query, k, null);
+    }
+
+    /**
+     * Same as {@link #scanTopK(RadialHash, int)} but splitting the rows between the workers of the pool (if any)
+     */
+    public List<Match> scanTopK(RadialHash query, final int k, ForkJoinPool pool) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Bad k: " + k);
+        }
+        final Query prepared = new Query(query);
+        final PriorityQueue<Match> best = new PriorityQueue<Match>(k, WORST_FIRST);
+        scan(pool, new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                PriorityQueue<Match> rangeBest = new PriorityQueue<Match>(k, WORST_FIRST);
+                byte[] bytes = new byte[numberOfCoefficients];
+                int[] row = new int[numberOfCoefficients];
+                for (int r = from; r < to; r++) {
+                    double limit = (rangeBest.size() < k)
+                            ? Double.NEGATIVE_INFINITY : rangeBest.peek().getSimilarity();
+                    double similarity = prepared.getSimilarity(rows, r, bytes, row, limit);
+                    if (rangeBest.size() < k) {
+                        rangeBest.add(new Match(r, similarity));
+                    } else if (similarity > rangeBest.peek().getSimilarity()) {
+                        rangeBest.poll();
+                        rangeBest.add(new Match(r, similarity));
+                    }
+                }
+                synchronized (best) {
+                    for (Match match : rangeBest) {
+                        best.add(match);
+                        if (best.size() > k) {
+                            best.poll();
+                        }
+                    }
+                }
+                return 0;
+            }
+        });
+        List<Match> matches = new ArrayList<Match>(best);
+        Collections.sort(matches, BEST_FIRST);
+        return matches;
+    }
+
+    /**
+     * @return the rows at least threshold similar to the query, most similar first (the lowest row first among
+     * equals)
+     */
+    public List<Match> scanAbove(RadialHash query, double threshold) {
+        return scanAbove(query, threshold, null);
+    }
+
+    /**
+     * Same as {@link #scanAbove(RadialHash, double)} but splitting the rows between the workers of the pool (if any)
+     */
+    public List<Match> scanAbove(RadialHash query, final double threshold, ForkJoinPool pool) {
+        final Query prepared = new Query(query);
+        final List<Match> matches = new ArrayList<Match>();
+        scan(pool, new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                List<Match> rangeMatches = new ArrayList<Match>();
+                byte[] bytes = new byte[numberOfCoefficients];
+                int[] row = new int[numberOfCoefficients];
+                for (int r = from; r < to; r++) {
+                    double similarity = prepared.getSimilarity(rows, r, bytes, row, threshold);
+                    if (similarity >= threshold) {
+                        rangeMatches.add(new Match(r, similarity));
+                    }
+                }
+                synchronized (matches) {
+                    matches.addAll(rangeMatches);
+                }
+                return 0;
+            }
+        });
+        Collections.sort(matches, BEST_FIRST);
+        return matches;
+    }
+
+    private void scan(ForkJoinPool pool, ParallelRanges.Range range) {
+        // A row costs N^2 multiply-adds, the "pixels" ParallelRanges sizes the tasks by
+        ParallelRanges.run(pool, size, numberOfCoefficients * numberOfCoefficients, range);
+    }
+
+    /**
+     * A query worked out once for a scan: its coefficients as ints twice over, so the coefficients shifted by d are
+     * coefficients[d] to coefficients[d + N - 1], their sums, and its offset and the norm of what varies around it
+     * (see {@link PreparedRadialHash#offset})
+     */
+    private class Query {
+        final int[] coefficients;
+        final int signedSum;
+        final double mean;
+        final double energy;
+        final double offset;
+        final double varyingNorm;
+
+        Query(RadialHash query) {
+            byte[] bytes = query.getCoefficients();
+            int N = numberOfCoefficients;
+            if (bytes.length != N) {
+                throw new IllegalArgumentException("The arena holds hashes of " + N + " coefficients, not "
+                        + bytes.length);
+            }
+            coefficients = new int[2 * N];
+            int signedSum = 0;
+            int unsignedSum = 0;
+            int squareSum = 0;
+            for (int i = 0; i < N; i++) {
+                int value = bytes[i];
+                coefficients[i] = value;
+                coefficients[N + i] = value;
+                signedSum += value;
+                unsignedSum += value & 0xFF;
+                squareSum += value * value;
+            }
+            this.signedSum = signedSum;
+            this.mean = (double) unsignedSum / N;
+            this.energy = energy(squareSum, signedSum, mean, N);
+            this.offset = (double) signedSum / N - mean;
+            this.varyingNorm = varyingNorm(squareSum, signedSum, N);
+        }
+
+        /**
+         * @return the similarity of the query and the hash at row r of rows when that's at least limit, and some
+         * value below limit otherwise, using bytes and row (N each) as scratch
+         */
+        double getSimilarity(PixelStorage rows, int r, byte[] bytes, int[] row, double limit) {
+            int N = row.length;
+            rows.get(r * N, bytes, 0, N);
+            int signedSum = 0;
+            int unsignedSum = 0;
+            int squareSum = 0;
+            for (int i = 0; i < N; i++) {
+                int value = bytes[i];
+                row[i] = value;
+                signedSum += value;
+                unsignedSum += value & 0xFF;
+                squareSum += value * value;
+            }
+            // Both sides are centered on their unsigned means, as getSimilarity(RadialHash, RadialHash) always has
+            double rowMean = (double) unsignedSum / N;
+            double den = Math.sqrt(energy * energy(squareSum, signedSum, rowMean, N));
+            if (!(den > 0)) {
+                // Flat hashes correlate with nothing
+                return 0;
+            }
+            // The part of the correlations due to the offsets is the same for all the shifts, and the Cauchy-Schwarz
+            // inequality bounds the rest. The rounding of the bound must never rule out a row that gets there.
+            double common = N * offset * ((double) signedSum / N - rowMean);
+            if (common + varyingNorm * varyingNorm(squareSum, signedSum, N) < (limit - BOUND_SLACK) * den) {
+                return 0;
+            }
+            int best = KERNELS.maxCorrelation(row, coefficients, N);
+            double num = best - mean * signedSum - rowMean * this.signedSum + N * mean * rowMean;
+            double similarity = num / den;
+            return (similarity > 0) ? similarity : 0;
+        }
+    }
+
+    /**
+     * @return the sum of the squares of the coefficients less mean
+     */
+    private static double energy(int squareSum, int signedSum, double mean, int N) {
+        return squareSum - 2 * mean * signedSum + N * mean * mean;
+    }
+
+    /**
+     * @return the norm of the coefficients less their signed mean
+     */
+    private static double varyingNorm(int squareSum, int signedSum, int N) {
+        return Math.sqrt(Math.max(0, squareSum - (double) signedSum * signedSum / N));
+    }
+
+    private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+        @Override
+        public int compare(Match match1, Match match2) {
+            int compare = Double.compare(match2.getSimilarity(), match1.getSimilarity());
+            return (compare != 0) ? compare : Integer.compare(match1.getRow(), match2.getRow());
+        }
+    };
+
+    private static final Comparator<Match> WORST_FIRST = Collections.reverseOrder(BEST_FIRST);
+
+    /**
+     * A row of the arena found by a scan
+     */
+    public static class Match {
+        private final int row;
+        private final double similarity;
+
+        public Match(int row, double similarity) {
+            this.row = row;
+            this.similarity = similarity;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return row + "\t" + similarity;
+        }
+    }
+}
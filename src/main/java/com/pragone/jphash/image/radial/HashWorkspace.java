@@ -0,0 +1,98 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.image.ImageBuffers;
+import com.pragone.jphash.image.PixelStorage;
+import com.pragone.jphash.image.PixelStoragePool;
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+
+import java.io.Closeable;
+
+/**
+ * Everything {@link RadialHashAlgorithm} needs to hash an image: the grayscale image with its work buffers (see
+ * {@link ImageBuffers}), the features and the coefficients. Buffers are sized for the biggest image seen so far, so
+ * once warmed up, hashing with a workspace (see
+ * {@link RadialHashAlgorithm#getHash(java.awt.image.BufferedImage, int, HashWorkspace, RadialHash)}) allocates no
+ * buffers.
+ *
+ * The image storage of a workspace on a {@link PixelStoragePool} (the shared one by default) goes back to the pool
+ * after every hash, so the storage in use is bounded by the hashes running rather than by the threads that ever
+ * hashed, and the pool's budget bounds it.
+ *
+ * A workspace must only be used by one thread at a time, {@link #forCurrentThread()} keeps one per thread.
+ */
+public class HashWorkspace implements Closeable {
+    private static final ThreadLocal<HashWorkspace> perThread = new ThreadLocal<HashWorkspace>() {
+        @Override
+        protected HashWorkspace initialValue() {
+            return new HashWorkspace();
+        }
+    };
+
+    private final ImageBuffers imageBuffers;
+    private final boolean pooled;
+    private final SimpleGrayscaleImage image;
+    private final RadialHashAlgorithm.Features features =
+            new RadialHashAlgorithm.Features(RadialHashAlgorithm.NUMBER_OF_PROJECTIONS);
+    private final double[] coefficients = new double[RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS];
+
+    /**
+     * A workspace taking the image storage from the shared pool (see {@link PixelStoragePool#getShared()})
+     */
+    public HashWorkspace() {
+        this(PixelStoragePool.getShared());
+    }
+
+    /**
+     * A workspace keeping image storage of the given backend to itself
+     */
+    public HashWorkspace(PixelStorage.Backend backend) {
+        this(new ImageBuffers(backend), false);
+    }
+
+    public HashWorkspace(PixelStoragePool pool) {
+        this(new ImageBuffers(pool), true);
+    }
+
+    private HashWorkspace(ImageBuffers imageBuffers, boolean pooled) {
+        this.imageBuffers = imageBuffers;
+        this.pooled = pooled;
+        this.image = new SimpleGrayscaleImage(imageBuffers);
+    }
+
+    /**
+     * @return this thread's workspace, on the shared pool. It holds on to the work buffers of the biggest image the
+     * thread hashed, so prefer explicit workspaces for threads that only hash now and then.
+     */
+    public static HashWorkspace forCurrentThread() {
+        return perThread.get();
+    }
+
+    /**
+     * Frees the image storage (see {@link ImageBuffers#close()}). The workspace can still be used afterwards.
+     */
+    @Override
+    public void close() {
+        imageBuffers.close();
+    }
+
+    /**
+     * Called after every hash: gives the image storage back to the pool, if the workspace has one
+     */
+    void release() {
+        if (pooled) {
+            imageBuffers.close();
+        }
+    }
+
+    SimpleGrayscaleImage getImage() {
+        return image;
+    }
+
+    RadialHashAlgorithm.Features getFeatures() {
+        return features;
+    }
+
+    double[] getCoefficients() {
+        return coefficients;
+    }
+}
@@ -0,0 +1,120 @@
+package com.pragone.jphash.image.radial;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A {@link RadialHash} ready to be compared against many others (see
+ * {@link RadialHashAlgorithm#getSimilarity(PreparedRadialHash, PreparedRadialHash)}): its coefficients centered on
+ * their mean and their energy (the sum of their squares) are worked out once, rather than on every comparison, so
+ * comparing two prepared hashes is just the dot products of one with the circular shifts of the other.
+ * The coefficients are also kept biggest first, for the threshold comparisons (see
+ * {@link RadialHashAlgorithm#matches(PreparedRadialHash, PreparedRadialHash, double)}) to rule shifts out early.
+ * Long hashes, for which the FFT is faster (see {@link CircularCorrelation}), keep the spectrum of their coefficients
+ * instead, so comparing two of them takes just the one inverse transform.
+ *
+ * Prepared hashes are immutable and can be shared between threads.
+ */
+public class PreparedRadialHash {
+    private final RadialHash hash;
+    /**
+     * The centered coefficients twice over, so the coefficients shifted by d are centered[N - d] to
+     * centered[2 * N - d - 1]
+     */
+    final double[] centered;
+    final double energy;
+    /**
+     * The mean of the centered coefficients (the legacy centering leaves one, see the constructor) and what's left of
+     * them around it, which has none: the part of any dot product due to the means is the same for all the shifts
+     */
+    final double offset;
+    final double[] varying;
+    /**
+     * The indexes of the varying parts, biggest first, with their values and, for each k, the norm of
+     * orderedVarying[k] to orderedVarying[N - 1]: the most the rest of a dot product taken in this order can add up
+     * to, over the norm of the other side (see
+     * RadialHashAlgorithm.getSimilarity(PreparedRadialHash, PreparedRadialHash, double))
+     */
+    final int[] order;
+    final double[] orderedVarying;
+    final double[] remainingNorms;
+    /**
+     * The spectrum of the centered coefficients and its magnitudes (see {@link CircularCorrelation}), or null when the
+     * direct sums are faster for this length
+     */
+    final double[] spectrum;
+    final double[] magnitudes;
+
+    public PreparedRadialHash(RadialHash hash) {
+        this.hash = hash;
+        byte[] coefficients = hash.getCoefficients();
+        int N = coefficients.length;
+        double sum = 0.0;
+        for (int i = 0; i < N; i++) {
+            sum += coefficients[i] & 0xFF;
+        }
+        double mean = sum / N;
+        // Centering the signed bytes on the unsigned mean, as getSimilarity(RadialHash, RadialHash) always has
+        this.centered = new double[2 * N];
+        double energy = 0.0;
+        for (int i = 0; i < N; i++) {
+            double value = coefficients[i] - mean;
+            centered[i] = value;
+            centered[N + i] = value;
+            energy += value * value;
+        }
+        this.energy = energy;
+
+        this.offset = sum(centered, N) / N;
+        this.varying = new double[2 * N];
+        for (int i = 0; i < 2 * N; i++) {
+            varying[i] = centered[i] - offset;
+        }
+        Integer[] indexes = new Integer[N];
+        for (int i = 0; i < N; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(Math.abs(varying[i2]), Math.abs(varying[i1]));
+            }
+        });
+        this.order = new int[N];
+        this.orderedVarying = new double[N];
+        this.remainingNorms = new double[N + 1];
+        for (int k = 0; k < N; k++) {
+            order[k] = indexes[k];
+            orderedVarying[k] = varying[indexes[k]];
+        }
+        double remaining = 0.0;
+        for (int k = N - 1; k >= 0; k--) {
+            remaining += orderedVarying[k] * orderedVarying[k];
+            remainingNorms[k] = Math.sqrt(remaining);
+        }
+
+        if (CircularCorrelation.usesFft(N)) {
+            this.spectrum = CircularCorrelation.spectrum(centered, N);
+            this.magnitudes = CircularCorrelation.magnitudes(spectrum, N);
+        } else {
+            this.spectrum = null;
+            this.magnitudes = null;
+        }
+    }
+
+    private static double sum(double[] values, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    public RadialHash getHash() {
+        return hash;
+    }
+
+    public int getNumberOfCoefficients() {
+        return centered.length / 2;
+    }
+}
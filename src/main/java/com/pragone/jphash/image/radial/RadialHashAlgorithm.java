@@ -1,14 +1,23 @@
 package com.pragone.jphash.image.radial;
 
+import com.pragone.jphash.image.ImageBuffers;
+import com.pragone.jphash.image.ParallelRanges;
+import com.pragone.jphash.image.PixelStoragePool;
 import com.pragone.jphash.image.SimpleGrayscaleImage;
-import com.pragone.jphash.image.UnsafeSimpleGrayscaleImage;
+import com.pragone.jphash.image.decode.ImageDecoder;
+import com.pragone.jphash.image.decode.JpegThumbnail;
+import com.pragone.jphash.image.decode.TiledImageReader;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * User: pragone
@@ -16,65 +25,353 @@ import java.io.InputStream;
  * Time: 5:21 PM
  */
 public class RadialHashAlgorithm {
+    static final int NUMBER_OF_PROJECTIONS = 180;
+    static final int NUMBER_OF_COEFFICIENTS = 40;
     private static final double SQRT_TWO = Math.sqrt(2);
     private static final int UCHAR_MAX = 255;
-    private static final double[] THETA_180;
-    private static final double[] TAN_THETA_180;
-
-    static {
-        THETA_180 = new double[180];
-        TAN_THETA_180 = new double[180];
-        for (int i = 0; i < 180; i++) {
-            THETA_180[i] = i* Math.PI/180;
-            TAN_THETA_180[i] = Math.tan(THETA_180[i]);
+    /**
+     * How many coefficients the threshold comparisons add up between bound checks, and how far below the target a
+     * bound has to be to give up
+     */
+    private static final int BOUND_INTERVAL = 4;
+    private static final double BOUND_SLACK = 1e-9;
+    /**
+     * The DCT-II basis of calculateHash: DCT_BASIS[k][n] is the weight of feature n in coefficient k
+     */
+    private static final double[][] DCT_BASIS = getDctBasis(NUMBER_OF_COEFFICIENTS, NUMBER_OF_PROJECTIONS);
+
+    private static double[][] getDctBasis(int numberOfCoefficients, int N) {
+        double[][] basis = new double[numberOfCoefficients][N];
+        for (int k = 0; k < numberOfCoefficients; k++) {
+            for (int n = 0; n < N; n++) {
+                basis[k][n] = Math.cos((Math.PI * (2 * n + 1) * k) / (2 * N));
+            }
         }
+        return basis;
     }
 
     public static RadialHash getHash(String file) throws IOException {
         return getHash(new File(file));
     }
 
+    /**
+     * Hashes the file decoded as ImageIO.read would, reading it through its FileChannel and this thread's reader for
+     * its format (see {@link ImageDecoder})
+     */
     public static RadialHash getHash(File file) throws IOException {
-        FileInputStream is = new FileInputStream(file);
+        return getHash(file, ImageDecoder.FULL_RESOLUTION);
+    }
+
+    public static RadialHash getHash(InputStream inputStream) throws IOException {
+        return getHash(inputStream, ImageDecoder.FULL_RESOLUTION);
+    }
+
+    /**
+     * Hashes the image working on a targetSize x targetSize square (see {@link #getHash(BufferedImage, int)}),
+     * decoding it at the lowest resolution that covers that square (see {@link ImageDecoder}). The result is very
+     * similar to, but not the same as, {@link #getHash(BufferedImage, int)} on the fully decoded image. Use
+     * {@link ImageDecoder#FULL_RESOLUTION} to get exactly {@link #getHash(File)}.
+     */
+    public static RadialHash getHash(File file, int targetSize) throws IOException {
+        BufferedImage img = ImageDecoder.read(file, targetSize);
+        if (img == null) {
+            throw new IOException("No ImageIO reader could decode " + file);
+        }
+        return getHash(img, targetSize);
+    }
+
+    /**
+     * @see #getHash(File, int)
+     */
+    public static RadialHash getHash(InputStream inputStream, int targetSize) throws IOException {
+        BufferedImage img = ImageDecoder.read(inputStream, targetSize);
+        if (img == null) {
+            throw new IOException("No ImageIO reader could decode the stream");
+        }
+        return getHash(img, targetSize);
+    }
+
+    /**
+     * Same as {@link #getHash(File, int)}, but hashing the preview a camera embedded in the JPEG instead of decoding
+     * the image when the preview covers the targetSize square (see {@link JpegThumbnail}). That's most camera JPEGs
+     * for target sizes up to about 128, and saves decoding the image at all. The hash is very similar to, but not the
+     * same as, the one of the image.
+     */
+    public static RadialHash getThumbnailHash(File file, int targetSize) throws IOException {
+        BufferedImage img = ImageDecoder.read(Files.readAllBytes(file.toPath()), targetSize, true);
+        if (img == null) {
+            throw new IOException("No ImageIO reader could decode " + file);
+        }
+        return getHash(img, targetSize);
+    }
+
+    /**
+     * Hashes an image of any size in bounded memory, reading it a region at a time straight into the targetSize
+     * square the hash works on (see {@link TiledImageReader}). For scans and slides too big to decode whole; the
+     * hash is very similar to {@link #getHash(File, int)}.
+     */
+    public static RadialHash getTiledHash(File file, int targetSize) throws IOException {
+        return getTiledHash(file, targetSize, new TiledImageReader());
+    }
+
+    /**
+     * Same as {@link #getTiledHash(File, int)} reading with the given reader (see
+     * {@link TiledImageReader#TiledImageReader(int)})
+     */
+    public static RadialHash getTiledHash(File file, int targetSize, TiledImageReader reader) throws IOException {
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
         try {
-            return getHash(is);
+            SimpleGrayscaleImage image = reader.read(file, targetSize, buffers);
+            if (image == null) {
+                throw new IOException("No ImageIO reader could decode " + file);
+            }
+            try {
+                image.blur();
+                return calculateHash(calculateFeatures(image, new Features(NUMBER_OF_PROJECTIONS)));
+            } finally {
+                image.close();
+            }
         } finally {
-            is.close();;
+            buffers.close();
         }
     }
 
-    public static RadialHash getHash(InputStream inputStream) throws IOException {
-        BufferedImage img = ImageIO.read(inputStream);
-        return getHash(img);
+    /**
+     * Same as {@link #getHash(File, int)} but decoding JPEGs with the luma only decoder (see
+     * {@link ImageDecoder#readGrayscale(byte[], int)}), which is quite a bit faster than going through ImageIO.
+     * Hashes are very similar, but not identical, to the ImageIO ones.
+     */
+    public static RadialHash getLumaHash(File file, int targetSize) throws IOException {
+        SimpleGrayscaleImage img = ImageDecoder.readGrayscale(file, targetSize);
+        if (img == null) {
+            throw new IOException("No ImageIO reader could decode " + file);
+        }
+        return getHash(img, targetSize);
+    }
+
+    /**
+     * Hashes an image that's been loaded (see {@link SimpleGrayscaleImage#loadImage(BufferedImage)}) but not yet
+     * resized nor blurred, as {@link #getHash(BufferedImage, int)} would.
+     */
+    public static RadialHash getHash(SimpleGrayscaleImage loadedImage, int maxSize) {
+        ImageDecoder.checkTargetSize(maxSize);
+        loadedImage.resizeToNextSize(maxSize);
+        loadedImage.blur();
+        return calculateHash(calculateFeatures(loadedImage, new Features(NUMBER_OF_PROJECTIONS)));
+    }
+
+    /**
+     * Same as {@link #getHash(SimpleGrayscaleImage, int)} but resizing into the workspace, so the loaded image is
+     * left as it is
+     */
+    public static RadialHash getHash(SimpleGrayscaleImage loadedImage, int maxSize, HashWorkspace workspace) {
+        ImageDecoder.checkTargetSize(maxSize);
+        SimpleGrayscaleImage image = workspace.getImage();
+        try {
+            image.load(loadedImage, maxSize);
+            return calculateHash(image, workspace, new RadialHash(NUMBER_OF_COEFFICIENTS));
+        } finally {
+            workspace.release();
+        }
+    }
+
+    /**
+     * Hashes an image that's already been loaded, resized and blurred (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int)}), which is left as it is, so other hashes can be
+     * calculated from it too (see {@link com.pragone.jphash.image.multi.MultiHashPipeline})
+     */
+    public static RadialHash getPreprocessedHash(SimpleGrayscaleImage image) {
+        return calculateHash(calculateFeatures(image, new Features(NUMBER_OF_PROJECTIONS)));
+    }
+
+    /**
+     * @see #getHash(ByteBuffer, int, int, int, int)
+     */
+    public static RadialHash getHash(ByteBuffer luma, int width, int height, int stride) {
+        return getHash(luma, width, height, stride, ImageDecoder.FULL_RESOLUTION);
+    }
+
+    /**
+     * Hashes a plane of 8 bit gray levels, such as the Y plane of a decoded video frame: pixel (x, y) at
+     * luma.position() + y * stride + x (ByteBuffer.wrap a byte[] plane). The rows are resized straight out of the
+     * buffer (see {@link SimpleGrayscaleImage#load(ByteBuffer, int, int, int, int)}), so the plane is never copied
+     * whole, and the hash is the same as {@link #getHash(BufferedImage, int)} gives for a TYPE_BYTE_GRAY image of those
+     * levels.
+     */
+    public static RadialHash getHash(ByteBuffer luma, int width, int height, int stride, int maxSize) {
+        ImageDecoder.checkTargetSize(maxSize);
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage image = new SimpleGrayscaleImage(buffers);
+            image.load(luma, width, height, stride, maxSize);
+            return calculateHash(calculateFeatures(image, new Features(NUMBER_OF_PROJECTIONS)));
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /**
+     * Same as {@link #getHash(ByteBuffer, int, int, int, int)} for a plane stored in a file (a raw Y or YUV frame
+     * dump, say) from offset on. The file is memory mapped rather than read, so only the rows the resize needs are
+     * paged in.
+     */
+    public static RadialHash getHash(Path lumaFile, long offset, int width, int height, int stride, int maxSize)
+            throws IOException {
+        long length = (long) stride * (height - 1) + width;
+        FileChannel channel = FileChannel.open(lumaFile, StandardOpenOption.READ);
+        try {
+            if (offset < 0 || offset + length > channel.size()) {
+                throw new IOException("A " + width + "x" + height + " plane with stride " + stride + " at " + offset
+                        + " doesn't fit in " + lumaFile + " (" + channel.size() + " bytes)");
+            }
+            // The mapping stays valid once the channel is closed
+            return getHash(channel.map(FileChannel.MapMode.READ_ONLY, offset, length), width, height, stride, maxSize);
+        } finally {
+            channel.close();
+        }
     }
 
     public static RadialHash getHash(BufferedImage img) throws IOException {
-        SimpleGrayscaleImage grayscaleImage = new SimpleGrayscaleImage(img);
-        Projections projections = calculate180Projections(grayscaleImage);
-//        grayscaleImage.dispose();
-        Features features = calculateFeatures(projections);
-        RadialHash temp = calculateHash(features);
-        return temp;
+        return getHash(img, ImageDecoder.FULL_RESOLUTION);
+    }
+
+    /**
+     * Hashes the image working on a maxSize x maxSize square, or on the biggest power of 2 square smaller than the
+     * image if it is smaller than that (which is what {@link #getHash(BufferedImage)} always does). Hashes calculated
+     * at different sizes are less similar than those calculated at the same one, so stick to one maxSize.
+     */
+    public static RadialHash getHash(BufferedImage img, int maxSize) throws IOException {
+        ImageDecoder.checkTargetSize(maxSize);
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage grayscaleImage = new SimpleGrayscaleImage(buffers);
+            grayscaleImage.load(img, maxSize);
+            Features features = calculateFeatures(grayscaleImage, new Features(NUMBER_OF_PROJECTIONS));
+            RadialHash temp = calculateHash(features);
+            return temp;
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /**
+     * Same as {@link #getHash(BufferedImage, int)} but keeping numberOfCoefficients coefficients of the features
+     * rather than 40, taken over as many projections (rounded up to a multiple of 4, as the lines are built a quarter
+     * turn at a time, see {@link RadonGeometry}) if that's more than 180. Longer hashes tell images apart
+     * better; comparing them costs more, which prepared hashes of a power of 2 length make up for (see
+     * {@link #getSimilarity(PreparedRadialHash, PreparedRadialHash)}). Only hashes of the same length compare.
+     */
+    public static RadialHash getHash(BufferedImage img, int maxSize, int numberOfCoefficients) {
+        ImageDecoder.checkTargetSize(maxSize);
+        if (numberOfCoefficients < 1) {
+            throw new IllegalArgumentException("Bad number of coefficients: " + numberOfCoefficients);
+        }
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage grayscaleImage = new SimpleGrayscaleImage(buffers);
+            grayscaleImage.load(img, maxSize);
+            int projections = Math.max(NUMBER_OF_PROJECTIONS, (numberOfCoefficients + 3) & ~3);
+            Features features = calculateFeatures(grayscaleImage, new Features(projections));
+            return calculateHash(features, new double[numberOfCoefficients], new RadialHash(numberOfCoefficients));
+        } finally {
+            buffers.close();
+        }
+    }
+
+    /**
+     * Same as {@link #getHash(BufferedImage)} but working in the given workspace (see {@link HashWorkspace})
+     */
+    public static RadialHash getHash(BufferedImage img, HashWorkspace workspace) {
+        return getHash(img, ImageDecoder.FULL_RESOLUTION, workspace);
+    }
+
+    /**
+     * Same as {@link #getHash(BufferedImage, int)} but working in the given workspace (see {@link HashWorkspace})
+     */
+    public static RadialHash getHash(BufferedImage img, int maxSize, HashWorkspace workspace) {
+        return getHash(img, maxSize, workspace, new RadialHash(NUMBER_OF_COEFFICIENTS));
+    }
+
+    /**
+     * Same as {@link #getHash(BufferedImage, int)} but working in the given workspace and writing the hash into out
+     * (which needs 40 coefficients), so once the workspace is warmed up no buffers get allocated.
+     *
+     * @return out
+     */
+    public static RadialHash getHash(BufferedImage img, int maxSize, HashWorkspace workspace, RadialHash out) {
+        ImageDecoder.checkTargetSize(maxSize);
+        SimpleGrayscaleImage image = workspace.getImage();
+        try {
+            image.load(img, maxSize);
+            return calculateHash(image, workspace, out);
+        } finally {
+            workspace.release();
+        }
+    }
+
+    /**
+     * Same as {@link #getHash(BufferedImage)} in latency mode (see {@link #getHash(BufferedImage, int, ForkJoinPool)})
+     */
+    public static RadialHash getHash(BufferedImage img, ForkJoinPool pool) {
+        return getHash(img, ImageDecoder.FULL_RESOLUTION, pool);
+    }
+
+    /**
+     * Same as {@link #getHash(BufferedImage, int)} but in latency mode: the work on this one image is split between
+     * the workers of the pool, by bands of rows for the load, resize and blur (see
+     * {@link SimpleGrayscaleImage#load(BufferedImage, int, ForkJoinPool)}) and by ranges of angles for the features.
+     * How much it's split follows the size of the image (see {@link ParallelRanges}), so small images are hashed on
+     * the calling thread. The hash is exactly the same.
+     *
+     * It's meant for hashing a big image someone is waiting on. To hash many images, hashing each on its own thread
+     * (see {@link com.pragone.jphash.batch.BatchHasher}) gets more done.
+     */
+    public static RadialHash getHash(BufferedImage img, int maxSize, ForkJoinPool pool) {
+        ImageDecoder.checkTargetSize(maxSize);
+        ImageBuffers buffers = new ImageBuffers(PixelStoragePool.getShared());
+        try {
+            SimpleGrayscaleImage image = new SimpleGrayscaleImage(buffers);
+            image.load(img, maxSize, pool);
+            Features features = calculateFeatures(image, new Features(NUMBER_OF_PROJECTIONS), pool);
+            return calculateHash(features);
+        } finally {
+            buffers.close();
+        }
     }
 
-    private static RadialHash calculateHash(Features features) {
+    private static RadialHash calculateHash(SimpleGrayscaleImage image, HashWorkspace workspace, RadialHash out) {
+        Features features = calculateFeatures(image, workspace.getFeatures());
+        return calculateHash(features, workspace.getCoefficients(), out);
+    }
+
+    static RadialHash calculateHash(Features features) {
+        return calculateHash(features, new double[NUMBER_OF_COEFFICIENTS], new RadialHash(NUMBER_OF_COEFFICIENTS));
+    }
+
+    static RadialHash calculateHash(Features features, double[] D_temp, RadialHash digest) {
         int N = features.getNumberOfProjections();
-        int nb_coeffs = 40;
+        int nb_coeffs = digest.getCoefficients().length;
 
-        RadialHash digest = new RadialHash(nb_coeffs);
+        if (D_temp.length != nb_coeffs) {
+            throw new IllegalArgumentException("The hash needs " + D_temp.length + " coefficients, not " + nb_coeffs);
+        }
+        if (nb_coeffs > N) {
+            throw new IllegalArgumentException("A hash of " + N + " projections has at most " + N + " coefficients");
+        }
 
         double[] R = features.features;
 
         byte[] D = digest.getCoefficients();
 
-        double D_temp[] = new double[nb_coeffs];
+        double[][] basis = (N == NUMBER_OF_PROJECTIONS && nb_coeffs == NUMBER_OF_COEFFICIENTS)
+                ? DCT_BASIS : getDctBasis(nb_coeffs, N);
         double max = 0.0;
         double min = 0.0;
         for (int k = 0;k<nb_coeffs;k++){
+            double[] cos = basis[k];
             double sum = 0.0;
             for (int n=0;n<N;n++){
-                double temp = R[n]*Math.cos((Math.PI * (2 * n + 1) * k) / (2 * N));
-                sum += temp;
+                sum += R[n]*cos[n];
             }
             if (k == 0)
                 D_temp[k] = sum/Math.sqrt((double) N);
@@ -94,18 +391,18 @@ public class RadialHashAlgorithm {
         return digest;
     }
 
-    private static Features calculateFeatures(Projections projections) {
+    static Features calculateFeatures(Projections projections) {
+        return calculateFeatures(projections, new Features(projections.getNumberOfProjections()));
+    }
+
+    static Features calculateFeatures(Projections projections, Features features) {
 
         int[][] projection_map = projections.projections;
         int[] nb_perline = projections.nb_pix_perline;
         int N = projections.getNumberOfProjections();
         int D = projections.getMaxDimension();
 
-        Features features = new Features(N);
-
         double[] feat_v = features.features;
-        double sum = 0.0;
-        double sum_sqd = 0.0;
         for (int k = 0; k < N; k++) {
             double line_sum = 0.0;
             double line_sum_sqd = 0.0;
@@ -115,6 +412,57 @@ public class RadialHashAlgorithm {
                 line_sum_sqd += projection_map[k][i] * projection_map[k][i];
             }
             feat_v[k] = (line_sum_sqd / nb_pixels) - (line_sum * line_sum) / (nb_pixels * nb_pixels);
+        }
+        normalizeFeatures(feat_v);
+        return features;
+    }
+
+    /**
+     * Calculates the features straight from the image: the same as
+     * calculateFeatures(calculate180Projections(img)), but adding up every line as its pixels are sampled (see
+     * {@link RadonGeometry}) so no projections are needed. The sums are of integers, so they come out exactly the
+     * same whatever the order.
+     */
+    static Features calculateFeatures(SimpleGrayscaleImage img, Features features) {
+        return calculateFeatures(img, features, null);
+    }
+
+    /**
+     * Same as {@link #calculateFeatures(SimpleGrayscaleImage, Features)} but splitting the angles between the workers
+     * of the pool (if any)
+     */
+    static Features calculateFeatures(final SimpleGrayscaleImage img, Features features, ForkJoinPool pool) {
+        int N = features.getNumberOfProjections();
+        final RadonGeometry geometry = RadonGeometry.forSize(img.getWidth(), img.getHeight(), N);
+
+        final double[] feat_v = features.features;
+        ParallelRanges.run(pool, N, Math.max(img.getWidth(), img.getHeight()), new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int[] pixels = geometry.pixels[k];
+                    double line_sum = 0.0;
+                    double line_sum_sqd = 0.0;
+                    int nb_pixels = pixels.length;
+                    for (int i = 0; i < nb_pixels; i++) {
+                        int value = img.get(pixels[i]);
+                        line_sum += value;
+                        line_sum_sqd += value * value;
+                    }
+                    feat_v[k] = (line_sum_sqd / nb_pixels) - (line_sum * line_sum) / (nb_pixels * nb_pixels);
+                }
+                return 0;
+            }
+        });
+        normalizeFeatures(feat_v);
+        return features;
+    }
+
+    private static void normalizeFeatures(double[] feat_v) {
+        int N = feat_v.length;
+        double sum = 0.0;
+        double sum_sqd = 0.0;
+        for (int k = 0; k < N; k++) {
             sum += feat_v[k];
             sum_sqd += feat_v[k] * feat_v[k];
         }
@@ -124,56 +472,47 @@ public class RadialHashAlgorithm {
         for (int i = 0; i < N; i++) {
             feat_v[i] = (feat_v[i] - mean) / var;
         }
-
-        return features;
     }
 
-    private static Projections calculate180Projections(SimpleGrayscaleImage img) {
-        int width = img.getWidth();
-        int N = 180;
-        int height = img.getHeight();
-        int D = (width > height)?width:height;
-        int x_off = (width >> 1) + (width & 0x1); // round(width/2) but only with integer operations
-        int y_off = (height >> 1) + (height & 0x1); // round(height/2) but only with integer operations
-
-        Projections projections = new Projections(N,D);
+    static Projections calculate180Projections(SimpleGrayscaleImage img) {
+        int D = (img.getWidth() > img.getHeight()) ? img.getWidth() : img.getHeight();
+        return calculate180Projections(img, new Projections(NUMBER_OF_PROJECTIONS, D));
+    }
 
-        int[][] ptr_radon_map = projections.projections;
-        int[] nb_per_line = projections.nb_pix_perline;
+    /**
+     * Calculates the projections into the given cleared ones, whose dimension must be the biggest of the image's. The
+     * lines come from the image size's {@link RadonGeometry}.
+     */
+    static Projections calculate180Projections(SimpleGrayscaleImage img, Projections projections) {
+        return calculate180Projections(img, projections, null);
+    }
 
-        for (int k=0;k<N/4+1;k++) {
-            double alpha = TAN_THETA_180[k];
-            for (int x=0;x < D;x++) {
-                double y = alpha*(x-x_off);
-                int yd = (int)Math.floor(y + (y >= 0 ? 0.5 : -0.5));
-                if ((yd + y_off >= 0)&&(yd + y_off < height) && (x < width)) {
-                    ptr_radon_map[k][x] = img.get(x, yd + y_off);
-                    nb_per_line[k] += 1;
-                }
-                if ((yd + x_off >= 0) && (yd + x_off < width) && (k != N/4) && (x < height)) {
-                    ptr_radon_map[N/2-k][x] = img.get(yd + x_off, x);
-                    nb_per_line[N/2-k] += 1;
+    /**
+     * Same as {@link #calculate180Projections(SimpleGrayscaleImage, Projections)} but splitting the angles between
+     * the workers of the pool (if any)
+     */
+    static Projections calculate180Projections(final SimpleGrayscaleImage img, Projections projections,
+                                               ForkJoinPool pool) {
+        final RadonGeometry geometry = RadonGeometry.forSize(img.getWidth(), img.getHeight(),
+                projections.getNumberOfProjections());
+        final int[][] ptr_radon_map = projections.projections;
+        final int[] nb_per_line = projections.nb_pix_perline;
+
+        ParallelRanges.run(pool, nb_per_line.length, projections.getMaxDimension(), new ParallelRanges.Range() {
+            @Override
+            public int run(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int[] line = ptr_radon_map[k];
+                    int[] positions = geometry.positions[k];
+                    int[] pixels = geometry.pixels[k];
+                    for (int i = 0; i < pixels.length; i++) {
+                        line[positions[i]] = img.get(pixels[i]);
+                    }
+                    nb_per_line[k] = pixels.length;
                 }
+                return 0;
             }
-        }
-        int j= 0;
-        for (int k=3*N/4;k<N;k++){
-            double alpha = TAN_THETA_180[k];
-            for (int x=0;x < D;x++){
-                double y = alpha*(x-x_off);
-                int yd = (int)Math.floor(y + (y >= 0 ? 0.5 : -0.5));
-                if ((yd + y_off >= 0)&&(yd + y_off < height) && (x < width)){
-                    ptr_radon_map[k][x] = img.get(x, yd + y_off);
-                    nb_per_line[k] += 1;
-                }
-                if ((y_off - yd >= 0)&&(y_off - yd<width)&&(2*y_off-x>=0)&&(2*y_off-x<height)&&(k!=3*N/4)){
-                    ptr_radon_map[k-j][x] = img.get(-yd + y_off, -(x - y_off) + y_off);
-                    nb_per_line[k-j] += 1;
-                }
-
-            }
-            j += 2;
-        }
+        });
         return projections;
     }
 
@@ -184,7 +523,6 @@ public class RadialHashAlgorithm {
         byte[] x_coeffs = hash1.getCoefficients();
         byte[] y_coeffs = hash2.getCoefficients();
 
-        double r[] = new double[N];
         double sumx = 0.0;
         double sumy = 0.0;
         for (int i=0;i < N;i++){
@@ -203,21 +541,127 @@ public class RadialHashAlgorithm {
                 denx += Math.pow((x_coeffs[i] - meanx), 2);
                 deny += Math.pow((y_coeffs[(N + i - d) % N] - meany), 2);
             }
-            r[d] = num/Math.sqrt(denx * deny);
-            if (r[d] > max)
-                max = r[d];
+            double r = num/Math.sqrt(denx * deny);
+            if (r > max)
+                max = r;
         }
         return max;  //To change body of created methods use File | Settings | File Templates.
     }
 
-    private static class Projections {
+    /**
+     * Same as {@link #getSimilarity(RadialHash, RadialHash)} (up to rounding in the last bits) for prepared hashes,
+     * with no allocation, no Math.pow and the energies added up once per hash rather than for every shift. Prepare
+     * the fixed side of a 1 vs many scan once and the comparisons get several times cheaper. Long hashes (see
+     * {@link #getHash(BufferedImage, int, int)}) have the correlations over all the shifts worked out by FFT, from
+     * the spectra kept in the prepared hashes, in arrays each thread allocates once (see {@link CircularCorrelation}).
+     */
+    public static double getSimilarity(PreparedRadialHash hash1, PreparedRadialHash hash2) {
+        int N = hash1.getNumberOfCoefficients();
+        if (hash2.getNumberOfCoefficients() != N) {
+            throw new IllegalArgumentException("Hashes of " + N + " and " + hash2.getNumberOfCoefficients()
+                    + " coefficients can't be compared");
+        }
+        double den = Math.sqrt(hash1.energy * hash2.energy);
+        double num = hash1.spectrum != null ? CircularCorrelation.maxFft(hash1.spectrum, hash2.spectrum, N)
+                : CircularCorrelation.maxDirect(hash1.centered, hash2.centered, N);
+        double r = num / den;
+        return (r > 0) ? r : 0;
+    }
+
+    /**
+     * Same as {@link #getSimilarity(PreparedRadialHash, PreparedRadialHash)} when that's at least threshold, and
+     * some value below threshold otherwise, which is all a dedupe cutoff needs to know. Shifts are tried from 0
+     * outwards (0, 1, N - 1, 2, ...), as similar images line up near 0, and each is given up as soon as its
+     * correlation can't reach the threshold nor the best one so far: the first hash's coefficients are taken
+     * biggest first, and after every few the Cauchy-Schwarz inequality bounds what the rest can add. The same bound
+     * before any coefficient is added up rules out most pairs that don't match at once. Long hashes, compared by FFT,
+     * are instead ruled out by the magnitudes of their spectra, which bound the correlations over all the shifts.
+     */
+    public static double getSimilarity(PreparedRadialHash hash1, PreparedRadialHash hash2, double threshold) {
+        return getSimilarity(hash1, hash2, threshold, false);
+    }
+
+    /**
+     * @return whether the similarity of the hashes (see {@link #getSimilarity(PreparedRadialHash, PreparedRadialHash)})
+     * is at least threshold, as soon as a shift gets there (see
+     * {@link #getSimilarity(PreparedRadialHash, PreparedRadialHash, double)})
+     */
+    public static boolean matches(PreparedRadialHash hash1, PreparedRadialHash hash2, double threshold) {
+        return getSimilarity(hash1, hash2, threshold, true) >= threshold;
+    }
+
+    private static double getSimilarity(PreparedRadialHash hash1, PreparedRadialHash hash2, double threshold,
+                                        boolean firstMatch) {
+        int N = hash1.getNumberOfCoefficients();
+        if (hash2.getNumberOfCoefficients() != N) {
+            throw new IllegalArgumentException("Hashes of " + N + " and " + hash2.getNumberOfCoefficients()
+                    + " coefficients can't be compared");
+        }
+        double den = Math.sqrt(hash1.energy * hash2.energy);
+        if (!(den > 0)) {
+            // Flat hashes correlate with nothing
+            return 0;
+        }
+        // Each dot product is the part due to the means, the same for every shift, plus that of the varying parts,
+        // which the bounds apply to. No shift can get past the first bound, with no coefficients added up yet.
+        double common = N * hash1.offset * hash2.offset;
+        int[] order = hash1.order;
+        double[] x = hash1.orderedVarying;
+        double[] remaining = hash1.remainingNorms;
+        double[] y = hash2.varying;
+        double yNorm = hash2.remainingNorms[0];
+        double max = 0;
+        if (common + remaining[0] * yNorm < (Math.max(max, threshold) - BOUND_SLACK) * den) {
+            return max;
+        }
+        if (hash1.spectrum != null) {
+            double bound = CircularCorrelation.bound(hash1.spectrum, hash1.magnitudes, hash2.spectrum,
+                    hash2.magnitudes, N);
+            if (bound < (threshold - BOUND_SLACK) * den) {
+                return max;
+            }
+            return getSimilarity(hash1, hash2);
+        }
+        for (int s = 0; s < N; s++) {
+            int d = ((s & 1) == 1) ? (s + 1) / 2 : (N - s / 2) % N;
+            int offset = N - d;
+            // The rounding of the bound must never rule out a shift that gets there
+            double limit = (Math.max(max, threshold) - BOUND_SLACK) * den - common;
+            double num = 0.0;
+            int i = 0;
+            while (i < N) {
+                int end = Math.min(i + BOUND_INTERVAL, N);
+                for (; i < end; i++) {
+                    num += x[i] * y[offset + order[i]];
+                }
+                if (i < N && num + remaining[i] * yNorm < limit) {
+                    break;
+                }
+            }
+            if (i < N) {
+                continue;
+            }
+            double r = (common + num) / den;
+            if (r > max) {
+                max = r;
+                if (firstMatch && max >= threshold) {
+                    return max;
+                }
+            }
+        }
+        return max;
+    }
+
+    static class Projections {
 
         public final int[] nb_pix_perline;
         private final int[][] projections;
+        private final int maxDimension;
 
         public Projections(int numberOfProjections, int maxDimension) {
             this.nb_pix_perline = new int[numberOfProjections];
             this.projections = new int[numberOfProjections][maxDimension];
+            this.maxDimension = maxDimension;
         }
 
         public int getNumberOfProjections() {
@@ -225,11 +669,15 @@ public class RadialHashAlgorithm {
         }
 
         public int getMaxDimension() {
-            return projections[0].length;
+            return maxDimension;
+        }
+
+        int[] getProjection(int k) {
+            return projections[k];
         }
     }
 
-    private static class Features {
+    static class Features {
         public final double[] features;
 
         public Features(int numberOfProjections) {
@@ -0,0 +1,115 @@
+package com.pragone.jphash.image.radial;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The lines {@link RadialHashAlgorithm#calculate180Projections} samples for one image size: for every projection the
+ * positions along the line and the pixels (as width * y + x indexes) that land on them. They only depend on the size,
+ * and resized images come in a handful of sizes, so they are cached (see {@link #forSize(int, int, int)}) and the
+ * projections become a straight gather.
+ */
+class RadonGeometry {
+    private static final int MAX_CACHED_GEOMETRIES = 8;
+
+    private static final Map<Long, RadonGeometry> cache = new LinkedHashMap<Long, RadonGeometry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RadonGeometry> eldest) {
+            return size() > MAX_CACHED_GEOMETRIES;
+        }
+    };
+
+    final int width;
+    final int height;
+    final int maxDimension;
+    /**
+     * Position along the line of every sampled pixel, per projection
+     */
+    final int[][] positions;
+    /**
+     * Index of every sampled pixel, per projection. The length is the number of pixels of the line.
+     */
+    final int[][] pixels;
+
+    private RadonGeometry(int width, int height, int N) {
+        this.width = width;
+        this.height = height;
+        int D = (width > height)?width:height;
+        this.maxDimension = D;
+        int x_off = (width >> 1) + (width & 0x1); // round(width/2) but only with integer operations
+        int y_off = (height >> 1) + (height & 0x1); // round(height/2) but only with integer operations
+
+        int[][] positions = new int[N][D];
+        int[][] pixels = new int[N][D];
+        int[] nb_per_line = new int[N];
+        // The tangents of the N angles k * pi / N (whole degrees for the usual 180 projections)
+        double[] tan_theta = new double[N];
+        for (int k = 0; k < N; k++) {
+            tan_theta[k] = Math.tan(k * Math.PI / N);
+        }
+
+        for (int k=0;k<N/4+1;k++) {
+            double alpha = tan_theta[k];
+            for (int x=0;x < D;x++) {
+                double y = alpha*(x-x_off);
+                int yd = (int)Math.floor(y + (y >= 0 ? 0.5 : -0.5));
+                if ((yd + y_off >= 0)&&(yd + y_off < height) && (x < width)) {
+                    add(k, x, x, yd + y_off, positions, pixels, nb_per_line);
+                }
+                if ((yd + x_off >= 0) && (yd + x_off < width) && (k != N/4) && (x < height)) {
+                    add(N/2-k, x, yd + x_off, x, positions, pixels, nb_per_line);
+                }
+            }
+        }
+        int j= 0;
+        for (int k=3*N/4;k<N;k++){
+            double alpha = tan_theta[k];
+            for (int x=0;x < D;x++){
+                double y = alpha*(x-x_off);
+                int yd = (int)Math.floor(y + (y >= 0 ? 0.5 : -0.5));
+                if ((yd + y_off >= 0)&&(yd + y_off < height) && (x < width)){
+                    add(k, x, x, yd + y_off, positions, pixels, nb_per_line);
+                }
+                if ((y_off - yd >= 0)&&(y_off - yd<width)&&(2*y_off-x>=0)&&(2*y_off-x<height)&&(k!=3*N/4)){
+                    add(k-j, x, -yd + y_off, -(x - y_off) + y_off, positions, pixels, nb_per_line);
+                }
+
+            }
+            j += 2;
+        }
+
+        for (int k = 0; k < N; k++) {
+            positions[k] = Arrays.copyOf(positions[k], nb_per_line[k]);
+            pixels[k] = Arrays.copyOf(pixels[k], nb_per_line[k]);
+        }
+        this.positions = positions;
+        this.pixels = pixels;
+    }
+
+    private void add(int line, int position, int x, int y, int[][] positions, int[][] pixels, int[] nb_per_line) {
+        int i = nb_per_line[line]++;
+        positions[line][i] = position;
+        pixels[line][i] = width * y + x;
+    }
+
+    /**
+     * @return the (possibly shared) geometry of N projections of a width x height image. The lines of the first
+     * quarter turn are mirrored into the others, so N must be a multiple of 4.
+     */
+    static RadonGeometry forSize(int width, int height, int N) {
+        if (N < 4 || N % 4 != 0) {
+            throw new IllegalArgumentException("The number of projections must be a multiple of 4, not " + N);
+        }
+        long key = ((long) (width & 0xFFFFFF) << 40) | ((long) (height & 0xFFFFFF) << 16) | (N & 0xFFFF);
+        synchronized (cache) {
+            RadonGeometry geometry = cache.get(key);
+            if (geometry == null || geometry.width != width || geometry.height != height
+                    || geometry.pixels.length != N) {
+                geometry = new RadonGeometry(width, height, N);
+                cache.put(key, geometry);
+            }
+            return geometry;
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package com.pragone.jphash.iphoto;
 
-import com.pragone.jphash.image.radial.RadialHash;
-import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import com.pragone.jphash.batch.BatchHasher;
+import com.pragone.jphash.batch.HashResult;
 
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 /**
  * Created with IntelliJ IDEA.
@@ -16,54 +20,47 @@ import java.io.IOException;
  * To change this template use File | Settings | File Templates.
  */
 public class IPhotoHasher {
-    private static int numHashes = 0;
-    private static File resp;
-    private static BufferedWriter bw;
+    private static final int FLUSH_EVERY = 100;
 
     public static void main(String[] args) throws IOException {
         if (args.length < 2) {
             System.err.println("Specify dir to look for images and file to save results to");
             return;
         }
-        File f = new File(args[0]);
-        resp = new File(args[1]);
-        bw = new BufferedWriter(new FileWriter(resp));
-        walkDir(f);
-        bw.close();
-    }
-
-    private static void walkDir(File dir) {
-        if (!dir.isDirectory()) {
+        Path dir = Paths.get(args[0]);
+        if (!Files.isDirectory(dir)) {
+            System.err.println(dir + " is not a directory");
             return;
         }
-        for (File f : dir.listFiles()) {
-            if (f.isDirectory() && !f.equals(dir)) {
-                walkDir(f);
-            } else {
-                int pos = f.getName().lastIndexOf('.');
-                if (pos > 0) {
-                    String ext = f.getName().substring(pos+1);
-                    if (ext.equalsIgnoreCase("jpg") || ext.equalsIgnoreCase("jpeg")) {
-                        process(f);
-                    }
-                }
-            }
+        BufferedWriter bw = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8);
+        try {
+            walkDir(dir, bw);
+        } finally {
+            bw.close();
         }
     }
 
-    private static void process(File file) {
+    private static void walkDir(Path dir, BufferedWriter bw) throws IOException {
+        int numHashes = 0;
+        Stream<HashResult> results = new BatchHasher().hashDirectory(dir, BatchHasher.suffixMatcher("jpg", "jpeg"));
         try {
-            RadialHash hash = RadialHashAlgorithm.getHash(file);
-            bw.write(hash + "\t" + file.getAbsolutePath() + "\n");
-            System.out.println(file.getAbsolutePath() + "\t" + hash);
-            numHashes++;
-            if ((numHashes % 100) == 0) {
-                bw.flush();
-                bw.close();
-                bw = new BufferedWriter(new FileWriter(resp, true));
+            Iterator<HashResult> it = results.iterator();
+            while (it.hasNext()) {
+                HashResult result = it.next();
+                String path = result.getPath() != null ? result.getPath().toAbsolutePath().toString() : dir.toString();
+                if (!result.isSuccess()) {
+                    System.out.println(path + "\tERROR");
+                    continue;
+                }
+                bw.write(result.getHash() + "\t" + path + "\n");
+                System.out.println(path + "\t" + result.getHash());
+                numHashes++;
+                if ((numHashes % FLUSH_EVERY) == 0) {
+                    bw.flush();
+                }
             }
-        } catch (IOException e) {
-            System.out.println(file.getAbsolutePath() + "\tERROR");
+        } finally {
+            results.close();
         }
     }
 }
@@ -0,0 +1,27 @@
+package com.pragone.jphash;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the images of src/test/resources for the tests
+ */
+public final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * @return the named test resource as ImageIO decodes it
+     */
+    public static BufferedImage readImage(String name) throws IOException {
+        InputStream inputStream = TestFixtures.class.getClassLoader().getResourceAsStream(name);
+        try {
+            return ImageIO.read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
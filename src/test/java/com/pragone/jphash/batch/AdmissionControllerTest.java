@@ -0,0 +1,171 @@
+package com.pragone.jphash.batch;
+
+import com.pragone.jphash.image.decode.ImageHeader;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void testAdmitsWhatFitsInTheBudget() {
+        AdmissionController admission = new AdmissionController(1000);
+        AdmissionController.Permit big = admission.tryAdmit(600);
+        Assert.assertNotNull(big);
+        Assert.assertNull(admission.tryAdmit(500));
+        AdmissionController.Permit small = admission.tryAdmit(400);
+        Assert.assertNotNull(small);
+        big.close();
+        big.close();
+        Assert.assertEquals(400, admission.getAdmittedBytes());
+        // Bigger than the whole budget, so only once nothing else is admitted
+        Assert.assertNull(admission.tryAdmit(5000));
+        small.close();
+        AdmissionController.Permit huge = admission.tryAdmit(5000);
+        Assert.assertEquals(1000, huge.getBytes());
+        huge.close();
+        Assert.assertEquals(0, admission.getAdmittedBytes());
+        Assert.assertEquals(1000, admission.getPeakBytes());
+    }
+
+    @Test(timeout = 30000)
+    public void testSmallAdmissionsDontStarveABigOne() throws InterruptedException {
+        final AdmissionController admission = new AdmissionController(100);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger smallAdmissions = new AtomicInteger();
+        // Loops of small work, more than fit at once, so the budget freed by one is taken at once by another
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            AdmissionController.Permit permit = admission.admit(40);
+                            smallAdmissions.incrementAndGet();
+                            Thread.sleep(1);
+                            permit.close();
+                        }
+                    } catch (InterruptedException e) {
+                        // Stopped
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            while (smallAdmissions.get() < 10) {
+                Thread.sleep(1);
+            }
+            // Bigger than the budget, so it needs all of it
+            AdmissionController.Permit big = admission.admit(1000);
+            Assert.assertEquals(100, admission.getAdmittedBytes());
+            big.close();
+            int admitted = smallAdmissions.get();
+            while (smallAdmissions.get() == admitted) {
+                Thread.sleep(1);
+            }
+        } finally {
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    @Test
+    public void testQueuedTicketsHoldBackOthersOncePassedOver() {
+        AdmissionController admission = new AdmissionController(100);
+        AdmissionController.Permit held = admission.tryAdmit(60);
+        AdmissionController.Ticket ticket = admission.queue(50);
+        Assert.assertNull(ticket.tryAdmit());
+        for (int i = 0; i < AdmissionController.MAX_BYPASSES; i++) {
+            admission.tryAdmit(10).close();
+        }
+        Assert.assertEquals(AdmissionController.MAX_BYPASSES, ticket.getBypasses());
+        Assert.assertNull(admission.tryAdmit(10));
+        held.close();
+        Assert.assertNotNull(ticket.tryAdmit());
+        Assert.assertNotNull(admission.tryAdmit(10));
+
+        // Giving up on a ticket lets the others go again
+        held = admission.tryAdmit(90);
+        ticket = admission.queue(50);
+        for (int i = 0; i < AdmissionController.MAX_BYPASSES; i++) {
+            admission.tryAdmit(1).close();
+        }
+        Assert.assertNull(admission.tryAdmit(1));
+        ticket.close();
+        Assert.assertNotNull(admission.tryAdmit(1));
+    }
+
+    @Test
+    public void testReadsTheSizeFromTheHeader() throws IOException, URISyntaxException {
+        File file = getFixture("earth1.jpg").toFile();
+        BufferedImage image = ImageIO.read(file);
+        ImageHeader header = ImageHeader.read(Files.readAllBytes(file.toPath()));
+        Assert.assertEquals(image.getWidth(), header.getWidth());
+        Assert.assertEquals(image.getHeight(), header.getHeight());
+        Assert.assertEquals(3, header.getBytesPerPixel());
+        Assert.assertTrue(header.estimateMemory(0, false) > header.estimateMemory(128, false));
+        Assert.assertNull(ImageHeader.read(Files.readAllBytes(getFixture("README.txt"))));
+    }
+
+    @Test
+    public void testHashesMatchUnderATightBudget() throws IOException, URISyntaxException {
+        AdmissionController admission = new AdmissionController(1);
+        Path dir = getFixture("earth1.jpg").getParent();
+        List<HashResult> results;
+        try (Stream<HashResult> stream = new BatchHasher(1, 2, 2).setAdmission(admission).hashDirectory(dir)) {
+            results = stream.collect(Collectors.toList());
+        }
+        Assert.assertEquals(5, results.size());
+        for (HashResult result : results) {
+            Assert.assertEquals(RadialHashAlgorithm.getHash(result.getPath().toFile()).toString(),
+                    result.getHash().toString());
+        }
+        Assert.assertEquals(5, admission.getAdmissions());
+        Assert.assertEquals(0, admission.getAdmittedBytes());
+        Assert.assertEquals(1, admission.getPeakBytes());
+    }
+
+    @Test
+    public void testRejectsImagesOverThePixelLimit() throws IOException, URISyntaxException {
+        AdmissionController admission = new AdmissionController(Long.MAX_VALUE).setMaxPixels(1000);
+        byte[] data = Files.readAllBytes(getFixture("earth2.jpg"));
+        try {
+            admission.getHash(data, 0);
+            Assert.fail("The image is bigger than the limit");
+        } catch (ImageTooLargeException e) {
+            Assert.assertEquals(1, admission.getRejections());
+        } catch (InterruptedException e) {
+            Assert.fail();
+        }
+        List<HashResult> results;
+        try (Stream<HashResult> stream = new BatchHasher().setAdmission(admission)
+                .hash(Stream.of(getFixture("earth1.jpg")))) {
+            results = stream.collect(Collectors.toList());
+        }
+        Assert.assertTrue(results.get(0).getError() instanceof ImageTooLargeException);
+    }
+
+    private Path getFixture(String name) throws URISyntaxException {
+        return Paths.get(getClass().getClassLoader().getResource(name).toURI());
+    }
+}
@@ -0,0 +1,109 @@
+package com.pragone.jphash.batch;
+
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BatchHasherTest {
+
+    @Test
+    public void testHashDirectoryMatchesSingleImageHashes() throws IOException, URISyntaxException {
+        Path dir = getFixture("earth1.jpg").getParent();
+        Map<Path, String> hashes = new HashMap<Path, String>();
+        Stream<HashResult> results = new BatchHasher(1, 2, 2).hashDirectory(dir);
+        try {
+            for (HashResult result : results.collect(Collectors.toList())) {
+                Assert.assertTrue(result.isSuccess());
+                hashes.put(result.getPath(), result.getHash().toString());
+            }
+        } finally {
+            results.close();
+        }
+        Assert.assertEquals(5, hashes.size());
+        for (Map.Entry<Path, String> entry : hashes.entrySet()) {
+            Assert.assertEquals(RadialHashAlgorithm.getHash(entry.getKey().toFile()).toString(), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testFailuresAreReportedAsResults() throws IOException, URISyntaxException {
+        List<Path> paths = Arrays.asList(getFixture("earth2.jpg"), getFixture("README.txt"),
+                getFixture("earth1.jpg").resolveSibling("missing.jpg"));
+        List<HashResult> results = new ArrayList<HashResult>();
+        Stream<HashResult> stream = new BatchHasher().hash(paths);
+        try {
+            results.addAll(stream.collect(Collectors.toList()));
+        } finally {
+            stream.close();
+        }
+        Assert.assertEquals(3, results.size());
+        for (HashResult result : results) {
+            boolean image = result.getPath().getFileName().toString().equals("earth2.jpg");
+            Assert.assertEquals(image, result.isSuccess());
+            Assert.assertEquals(image, result.getHash() != null);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testErrorsAreReportedAsResults() throws URISyntaxException {
+        // A path that throws an Error when the read stage opens it
+        Path broken = (Path) Proxy.newProxyInstance(Path.class.getClassLoader(), new Class<?>[] {Path.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("toString")) {
+                            return "broken.jpg";
+                        }
+                        throw new AssertionError("Broken path");
+                    }
+                });
+        List<HashResult> results = new ArrayList<HashResult>();
+        Stream<HashResult> stream = new BatchHasher(1, 1, 1).hash(Arrays.asList(broken, getFixture("earth1.jpg")));
+        try {
+            results.addAll(stream.collect(Collectors.toList()));
+        } finally {
+            stream.close();
+        }
+        Assert.assertEquals(2, results.size());
+        for (HashResult result : results) {
+            if (result.getPath() == broken) {
+                Assert.assertTrue(result.getError().getCause() instanceof AssertionError);
+            } else {
+                Assert.assertTrue(result.isSuccess());
+            }
+        }
+    }
+
+    @Test
+    public void testClosingEarlyStopsTheRun() throws URISyntaxException {
+        List<Path> paths = new ArrayList<Path>();
+        for (int i = 0; i < 100; i++) {
+            paths.add(getFixture("earth1.jpg"));
+        }
+        Stream<HashResult> stream = new BatchHasher(1, 1, 1).hash(paths);
+        try {
+            Assert.assertTrue(stream.iterator().next().isSuccess());
+        } finally {
+            stream.close();
+        }
+    }
+
+    private Path getFixture(String name) throws URISyntaxException {
+        return Paths.get(getClass().getClassLoader().getResource(name).toURI());
+    }
+}
@@ -0,0 +1,116 @@
+package com.pragone.jphash.image;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class GrayscaleBlurTest {
+
+    @Test
+    public void testMatchesDirectBufferBlur() {
+        Random random = new Random(3);
+        // Small, square, one pixel over the blurred minimum and wider than a column block
+        int[][] sizes = {{7, 7}, {64, 64}, {9, 300}, {2500, 9}, {1031, 40}, {256, 256}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            byte[] pixels = new byte[width * height];
+            random.nextBytes(pixels);
+            ByteBuffer expected = ByteBuffer.allocateDirect(pixels.length);
+            expected.put(pixels);
+            directBufferBlur(expected, width, height);
+
+            byte[] actual = pixels.clone();
+            GrayscaleBlur.blur(actual, width, height, new ImageBuffers());
+            for (int i = 0; i < actual.length; i++) {
+                Assert.assertEquals(width + "x" + height + " pixel " + i, expected.get(i), actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBlurMatches() {
+        Random random = new Random(4);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[][] sizes = {{7, 7}, {300, 9}, {2500, 700}, {1031, 400}, {1024, 1024}};
+            for (int[] size : sizes) {
+                int width = size[0];
+                int height = size[1];
+                byte[] expected = new byte[width * height];
+                random.nextBytes(expected);
+                byte[] actual = expected.clone();
+                GrayscaleBlur.blur(expected, width, height, new ImageBuffers());
+                GrayscaleBlur.blur(actual, width, height, new ImageBuffers(), pool);
+                Assert.assertArrayEquals(width + "x" + height, expected, actual);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The original SimpleGrayscaleImage.blur
+     */
+    static void directBufferBlur(ByteBuffer data, int width, int height) {
+        if (width <= 6 || height <= 6) {
+            return;
+        }
+        // First a horizontal pass
+        int[] buffer = new int[width];
+        int[] buffer_1 = new int[width];
+        int[] buffer_2 = new int[width];
+        data.rewind();
+        for (int y = 0; y < height; y++) {
+            // Copy this horizontal line
+            for (int i = 0; i < width; i++) {
+                buffer[i] = data.get(width*y + i) & 0xFF;
+                buffer_1[i] = (byte) (buffer[i] >> 1);  // buffer * 0.5
+                buffer_2[i] = (byte) (buffer[i] >> 2);  // buffer * 0.25
+            }
+            // idx: 0
+            long t = ((buffer[0] + buffer_1[1] + buffer_2[2])*585)>>10; // 1024/585 = 1.75042
+            data.put(width*y,(byte) (t > 255 ? 255 : t));
+            t = ((buffer_1[0] + buffer[1] + buffer_1[2] + buffer_2[3])*455)>>10;  // 1024/455 = 2.250549
+            data.put(width*y+1,(byte) (t > 255 ? 255 : t));
+            for (int x = 2; x < width-2; x++) {
+                t = (int) (((long) (buffer_2[x-2] + buffer_1[x-1] + buffer[x] + buffer_1[x+1] + buffer_2[x+2]))*409)>>10; // 1024/409 = 2.503 ~ 1 + 2*0.5 + 2*0.25
+                data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+            }
+            int x = width-2;
+            t = ((buffer_2[x-2] + buffer_1[x-1] + buffer[x] + buffer_1[x+1])*455)>>10; // 1024/455 = 2.250549
+            data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+            x++;
+            t = ((buffer_2[x-2] + buffer_1[x-1] + buffer[x])*585)>>10; // 1024/585 = 1.75042
+            data.put(width*y+x, (byte) (t > 255 ? 255 : t));
+        }
+
+        // Now a vertical pass
+        buffer = new int[height];
+        buffer_1 = new int[height];
+        buffer_2 = new int[height];
+        for (int x = 0; x < width; x++) {
+            // Copy this vertical line
+            for (int i = 0; i < height; i++) {
+                buffer[i] = data.get(width*i + x) & 0xFF;
+                buffer_1[i] = (byte) (buffer[i] >> 1);  // buffer * 0.5
+                buffer_2[i] = (byte) (buffer[i] >> 2);  // buffer * 0.25
+            }
+            // y = 0
+            data.put(x,(byte) (((buffer[0] + buffer_1[1] + buffer_2[2])*585)>>10)); // 1024/585 = 1.75042
+            // y = 1
+            data.put(width+x,(byte) (((buffer_1[0] + buffer[1] + buffer_1[2] + buffer_2[3])*455)>>10)); // 1024/455 = 2.250549
+            for (int y = 2; y < height-2; y++) {
+                long t =  (((long) (buffer_2[y-2] + buffer_1[y-1] + buffer[y] + buffer_1[y+1] + buffer_2[y+2]))*409)>>10;
+                data.put(width*y+x, (byte) (t > 255 ? 255 : t)); // 1024/409 = 2.503 ~ 1 + 2*0.5 + 2*0.25
+            }
+            int y = height-2;
+            data.put(width*y+x, (byte) (((buffer_2[y-2] + buffer_1[y-1] + buffer[y] + buffer_1[y+1])*455)>>10)); // 1024/455 = 2.250549
+            y++;
+            data.put(width*y+x, (byte) (((buffer_2[y-2] + buffer_1[y-1] + buffer[y])*585)>>10)); // 1024/585 = 1.75042
+        }
+    }
+}
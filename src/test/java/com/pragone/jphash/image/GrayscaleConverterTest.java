@@ -0,0 +1,108 @@
+package com.pragone.jphash.image;
+
+import com.pragone.jphash.TestFixtures;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+
+public class GrayscaleConverterTest {
+
+    @Test
+    public void testColorTypesMatchTheBGRPath() throws IOException {
+        BufferedImage bgr = TestFixtures.readImage("earth1_cropped.jpeg");
+        byte[] expected = load(bgr);
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_4BYTE_ABGR_PRE};
+        for (int type : types) {
+            Assert.assertArrayEquals("Type " + type, expected, load(redraw(bgr, type)));
+        }
+        Assert.assertArrayEquals("16 bit RGB", expected, load(toUShortRGB(bgr)));
+        // A sub image has rows that don't start at the beginning of the DataBuffer
+        BufferedImage argb = redraw(bgr, BufferedImage.TYPE_INT_ARGB);
+        Assert.assertArrayEquals(load(redraw(bgr.getSubimage(10, 20, 300, 200), BufferedImage.TYPE_3BYTE_BGR)),
+                load(argb.getSubimage(10, 20, 300, 200)));
+    }
+
+    @Test
+    public void testLowColorTypesMatchTheBGRPath() throws IOException {
+        BufferedImage bgr = TestFixtures.readImage("earth1_resized.jpeg");
+        int[] types = {BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_BYTE_BINARY,
+                BufferedImage.TYPE_USHORT_565_RGB, BufferedImage.TYPE_USHORT_555_RGB};
+        for (int type : types) {
+            BufferedImage image = redraw(bgr, type);
+            // Drawing these into a 3BYTE_BGR image is lossless
+            Assert.assertArrayEquals("Type " + type, load(redraw(image, BufferedImage.TYPE_3BYTE_BGR)), load(image));
+        }
+    }
+
+    @Test
+    public void testGrayTypesAreNotNormalized() throws IOException {
+        BufferedImage gray = redraw(TestFixtures.readImage("earth2.jpg"), BufferedImage.TYPE_BYTE_GRAY);
+        byte[] expected = (byte[]) gray.getRaster().getDataElements(0, 0, gray.getWidth(), gray.getHeight(), null);
+        Assert.assertArrayEquals(expected, load(gray));
+
+        BufferedImage gray16 = new BufferedImage(gray.getWidth(), gray.getHeight(), BufferedImage.TYPE_USHORT_GRAY);
+        WritableRaster raster = gray16.getRaster();
+        for (int y = 0; y < gray.getHeight(); y++) {
+            for (int x = 0; x < gray.getWidth(); x++) {
+                raster.setSample(x, y, 0, gray.getRaster().getSample(x, y, 0) * 257);
+            }
+        }
+        Assert.assertTrue(GrayscaleConverter.forImage(gray16).isGray());
+        Assert.assertArrayEquals(expected, load(gray16));
+    }
+
+    @Test
+    public void testTranslucentPixelsAreBlendedOverBlack() {
+        BufferedImage argb = new BufferedImage(2, 1, BufferedImage.TYPE_INT_ARGB);
+        argb.setRGB(0, 0, 0x80FFFFFF);
+        argb.setRGB(1, 0, 0x00FFFFFF);
+        byte[] row = new byte[2];
+        GrayscaleConverter.forImage(argb).convert(0, 1, row, 0);
+        Assert.assertEquals(GrayscaleConverter.luma(128, 128, 128), row[0] & 0xFF);
+        Assert.assertEquals(GrayscaleConverter.luma(0, 0, 0), row[1] & 0xFF);
+    }
+
+    private static byte[] load(BufferedImage image) {
+        SimpleGrayscaleImage gray = new SimpleGrayscaleImage(image.getWidth(), image.getHeight());
+        gray.loadImage(image);
+        byte[] pixels = new byte[image.getWidth() * image.getHeight()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                pixels[y * image.getWidth() + x] = (byte) gray.get(x, y);
+            }
+        }
+        return pixels;
+    }
+
+    private static BufferedImage redraw(BufferedImage image, int type) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D graphics = copy.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return copy;
+    }
+
+    private static BufferedImage toUShortRGB(BufferedImage image) {
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false,
+                false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(image.getWidth(), image.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                raster.setSample(x, y, 0, ((rgb >> 16) & 0xFF) * 257);
+                raster.setSample(x, y, 1, ((rgb >> 8) & 0xFF) * 257);
+                raster.setSample(x, y, 2, (rgb & 0xFF) * 257);
+            }
+        }
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,84 @@
+package com.pragone.jphash.image;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the kernels {@link PixelKernels#get()} picks (the SIMD ones when running the vector profile) against the
+ * scalar ones
+ */
+public class PixelKernelsTest {
+    private static final int[] COUNTS = {0, 1, 7, 8, 9, 15, 16, 17, 63, 64, 65, 1000, 1031};
+
+    private final PixelKernels kernels = PixelKernels.get();
+    private final PixelKernels scalar = PixelKernels.scalar();
+
+    @Test
+    public void testLuma() {
+        Random random = new Random(1);
+        for (int pixelStride = 3; pixelStride <= 4; pixelStride++) {
+            for (int count : COUNTS) {
+                byte[] data = new byte[count * pixelStride + 1];
+                random.nextBytes(data);
+                byte[] expected = new byte[count + 2];
+                byte[] actual = new byte[count + 2];
+                int expectedMax = scalar.luma(data, 1, pixelStride, 2, 1, 0, expected, 2, count);
+                int actualMax = kernels.luma(data, 1, pixelStride, 2, 1, 0, actual, 2, count);
+                Assert.assertEquals(expectedMax, actualMax);
+                Assert.assertArrayEquals("stride " + pixelStride + ", " + count + " pixels", expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        Random random = new Random(2);
+        byte[] levels = new byte[1031];
+        random.nextBytes(levels);
+        for (int maxPixel = 1; maxPixel < 256; maxPixel++) {
+            byte[] expected = levels.clone();
+            byte[] actual = levels.clone();
+            scalar.normalize(expected, 3, levels.length - 3, maxPixel);
+            kernels.normalize(actual, 3, levels.length - 3, maxPixel);
+            Assert.assertArrayEquals("max " + maxPixel, expected, actual);
+        }
+    }
+
+    @Test
+    public void testBlurRow() {
+        Random random = new Random(3);
+        for (int count : COUNTS) {
+            if (count <= 6) {
+                continue;
+            }
+            byte[] levels = new byte[count + 5];
+            random.nextBytes(levels);
+            byte[] expected = levels.clone();
+            byte[] actual = levels.clone();
+            scalar.blurRow(expected, 5, count, new byte[count]);
+            kernels.blurRow(actual, 5, count, new byte[count]);
+            Assert.assertArrayEquals(count + " pixels", expected, actual);
+        }
+    }
+
+    @Test
+    public void testBlurColumns() {
+        Random random = new Random(4);
+        for (int count : COUNTS) {
+            byte[][] rows = new byte[5][count + 3];
+            for (byte[] row : rows) {
+                random.nextBytes(row);
+            }
+            for (int weight : new int[]{409, 455, 585}) {
+                byte[] expected = new byte[count + 1];
+                byte[] actual = new byte[count + 1];
+                scalar.blurColumns(rows[0], rows[1], rows[2], rows[3], 1, rows[4], 3, expected, 1, count, weight);
+                kernels.blurColumns(rows[0], rows[1], rows[2], rows[3], 1, rows[4], 3, actual, 1, count, weight);
+                Assert.assertTrue(count + " pixels, weight " + weight, Arrays.equals(expected, actual));
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.pragone.jphash.image;
+
+import com.pragone.jphash.TestFixtures;
+import com.pragone.jphash.image.radial.HashWorkspace;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PixelStoragePoolTest {
+
+    @Test
+    public void testReusesStorageOfTheSameSizeClass() {
+        PixelStoragePool pool = new PixelStoragePool(PixelStorage.Backend.HEAP, 1 << 20);
+        PixelStorage storage = pool.acquire(300 * 300);
+        Assert.assertEquals(1 << 17, storage.size());
+        Assert.assertEquals(1 << 17, pool.getOutstandingBytes());
+        pool.release(storage);
+        Assert.assertEquals(0, pool.getOutstandingBytes());
+        Assert.assertEquals(1 << 17, pool.getIdleBytes());
+        Assert.assertSame(storage, pool.acquire(256 * 256 + 1));
+        Assert.assertNotSame(storage, pool.acquire(256 * 256));
+        Assert.assertEquals(1, pool.getHits());
+        Assert.assertEquals(2, pool.getMisses());
+        Assert.assertEquals(1 / 3d, pool.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testEvictsIdleStorageToStayWithinBudget() {
+        PixelStoragePool pool = new PixelStoragePool(PixelStorage.Backend.HEAP, 1 << 10, 0, TimeUnit.SECONDS);
+        pool.release(pool.acquire(512));
+        pool.release(pool.acquire(256));
+        PixelStorage big = pool.acquire(1024);
+        Assert.assertEquals(2, pool.getEvictions());
+        Assert.assertEquals(1024, pool.getAllocatedBytes());
+        try {
+            pool.acquire(1);
+            Assert.fail("The budget is used up");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, pool.getFailures());
+        }
+        pool.release(big);
+        pool.trim();
+        Assert.assertEquals(0, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testSharedPoolEvictsIdleStorage() throws InterruptedException {
+        PixelStoragePool shared = PixelStoragePool.getShared();
+        Assert.assertTrue(shared.getBudget() < Long.MAX_VALUE);
+        Assert.assertTrue(shared.getIdleTtlNanos() < Long.MAX_VALUE);
+
+        String ttl = System.getProperty(PixelStoragePool.IDLE_TTL_PROPERTY);
+        System.setProperty(PixelStoragePool.IDLE_TTL_PROPERTY, "20");
+        PixelStoragePool pool;
+        try {
+            pool = PixelStoragePool.createShared();
+        } finally {
+            if (ttl == null) {
+                System.clearProperty(PixelStoragePool.IDLE_TTL_PROPERTY);
+            } else {
+                System.setProperty(PixelStoragePool.IDLE_TTL_PROPERTY, ttl);
+            }
+        }
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(20), pool.getIdleTtlNanos());
+        pool.release(pool.acquire(1024));
+        Assert.assertEquals(1024, pool.getIdleBytes());
+        // Freed by the timer, with no more acquires or releases
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getIdleBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(0, pool.getAllocatedBytes());
+        Assert.assertEquals(1, pool.getEvictions());
+    }
+
+    @Test
+    public void testExpiresIdleStorage() throws InterruptedException {
+        PixelStoragePool pool = new PixelStoragePool(PixelStorage.Backend.HEAP, 1 << 20, 0, 10, TimeUnit.MILLISECONDS);
+        PixelStorage storage = pool.acquire(1024);
+        pool.release(storage);
+        pool.trimExpired();
+        Assert.assertEquals(1024, pool.getIdleBytes());
+        Thread.sleep(30);
+        Assert.assertNotSame(storage, pool.acquire(1024));
+        Assert.assertEquals(1, pool.getEvictions());
+        Assert.assertEquals(0, pool.getHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsStorageBiggerThanTheBudget() {
+        new PixelStoragePool(PixelStorage.Backend.HEAP, 1000).acquire(1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsStorageItDidntHandOut() {
+        PixelStoragePool pool = new PixelStoragePool(PixelStorage.Backend.HEAP, 1000);
+        pool.release(PixelStorage.allocate(PixelStorage.Backend.HEAP, 8));
+    }
+
+    @Test
+    public void testWaitsForStorageToBeReleased() throws InterruptedException {
+        final PixelStoragePool pool = new PixelStoragePool(PixelStorage.Backend.HEAP, 1 << 10);
+        PixelStorage held = pool.acquire(1024);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<PixelStorage> acquired = new AtomicReference<PixelStorage>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                acquired.set(pool.acquire(512));
+            }
+        });
+        waiter.start();
+        started.await();
+        while (pool.getWaits() == 0) {
+            Thread.sleep(1);
+        }
+        Assert.assertNull(acquired.get());
+        pool.release(held);
+        waiter.join(10000);
+        Assert.assertNotNull(acquired.get());
+        Assert.assertEquals(512, pool.getOutstandingBytes());
+    }
+
+    @Test
+    public void testPooledWorkspacesGiveTheirStorageBack() throws IOException {
+        BufferedImage img = TestFixtures.readImage("earth1.jpg");
+        PixelStoragePool pool = new PixelStoragePool(PixelStorage.Backend.DIRECT, 64 << 20);
+        HashWorkspace workspace = new HashWorkspace(pool);
+        for (int maxSize : new int[] {0, 128, 0}) {
+            Assert.assertEquals(RadialHashAlgorithm.getHash(img, maxSize).toString(),
+                    RadialHashAlgorithm.getHash(img, maxSize, workspace).toString());
+            Assert.assertEquals(0, pool.getOutstandingBytes());
+        }
+        Assert.assertEquals(1, pool.getHits());
+    }
+}
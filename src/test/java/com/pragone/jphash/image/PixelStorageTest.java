@@ -0,0 +1,78 @@
+package com.pragone.jphash.image;
+
+import com.pragone.jphash.TestFixtures;
+import com.pragone.jphash.image.radial.HashWorkspace;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class PixelStorageTest {
+
+    @Test
+    public void testReadsBackWhatIsWritten() {
+        Random random = new Random(6);
+        byte[] levels = new byte[1000];
+        random.nextBytes(levels);
+        for (PixelStorage.Backend backend : PixelStorage.Backend.values()) {
+            if (!backend.isAvailable()) {
+                continue;
+            }
+            PixelStorage storage = PixelStorage.allocate(backend, levels.length);
+            try {
+                Assert.assertEquals(backend, storage.getBackend());
+                Assert.assertEquals(levels.length, storage.size());
+                storage.put(10, levels, 10, 500);
+                storage.put(3, levels[3]);
+                Assert.assertEquals(levels[3] & 0xFF, storage.get(3));
+                byte[] actual = new byte[500];
+                storage.get(10, actual, 0, 500);
+                for (int i = 0; i < actual.length; i++) {
+                    Assert.assertEquals(backend + " " + i, levels[10 + i], actual[i]);
+                    Assert.assertEquals(levels[10 + i] & 0xFF, storage.get(10 + i));
+                }
+            } finally {
+                storage.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWrappedBuffersIgnoreTheirPosition() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put(5, (byte) 200);
+        buffer.position(9);
+        PixelStorage storage = PixelStorage.wrap(buffer);
+        Assert.assertEquals(200, storage.get(5));
+        byte[] levels = {1, 2, 3};
+        storage.put(0, levels, 0, 3);
+        Assert.assertEquals(3, buffer.get(2));
+        Assert.assertEquals(9, buffer.position());
+    }
+
+    @Test
+    public void testHashesDontDependOnTheBackend() throws IOException {
+        BufferedImage img = TestFixtures.readImage("earth1.jpg");
+        String expected = RadialHashAlgorithm.getHash(img).toString();
+        for (PixelStorage.Backend backend : PixelStorage.Backend.values()) {
+            if (!backend.isAvailable()) {
+                continue;
+            }
+            HashWorkspace workspace = new HashWorkspace(backend);
+            try {
+                for (int maxSize : new int[] {0, 128}) {
+                    Assert.assertEquals(backend.toString(), RadialHashAlgorithm.getHash(img, maxSize).toString(),
+                            RadialHashAlgorithm.getHash(img, maxSize, workspace).toString());
+                }
+                Assert.assertEquals(backend.toString(), expected,
+                        RadialHashAlgorithm.getHash(img, workspace).toString());
+            } finally {
+                workspace.close();
+            }
+        }
+    }
+}
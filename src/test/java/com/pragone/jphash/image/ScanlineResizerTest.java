@@ -0,0 +1,109 @@
+package com.pragone.jphash.image;
+
+import com.pragone.jphash.TestFixtures;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+public class ScanlineResizerTest {
+
+    @Test
+    public void testMatchesPerPixelResize() {
+        Random random = new Random(42);
+        int[][] sizes = {
+                {1, 5, 1, 2}, {2, 7, 2, 4}, {3, 3, 2, 2}, {17, 9, 8, 8}, {100, 37, 32, 32}, {64, 64, 64, 64},
+                {5, 5, 8, 8}, {1019, 992, 512, 512}, {300, 200, 128, 128}
+        };
+        for (int[] size : sizes) {
+            byte[] source = new byte[size[0] * size[1]];
+            random.nextBytes(source);
+            final PixelStorage sourceStorage = PixelStorage.wrap(source);
+            final int width = size[0];
+            byte[] actual = new byte[size[2] * size[3]];
+            new ScanlineResizer(size[0], size[1], size[2], size[3]).resize(new ScanlineResizer.RowSource() {
+                @Override
+                public void readRow(int y, byte[] row) {
+                    sourceStorage.get(y * width, row, 0, width);
+                }
+            }, PixelStorage.wrap(actual));
+            Assert.assertArrayEquals(size[0] + "x" + size[1], perPixelResize(source, size[0], size[1], size[2], size[3]),
+                    actual);
+        }
+    }
+
+    @Test
+    public void testResizersAreSharedPerSizes() {
+        ScanlineResizer resizer = ScanlineResizer.forSizes(1019, 992, 512, 512);
+        Assert.assertSame(resizer, ScanlineResizer.forSizes(1019, 992, 512, 512));
+        Assert.assertNotSame(resizer, ScanlineResizer.forSizes(992, 1019, 512, 512));
+    }
+
+    @Test
+    public void testStreamingLoadMatchesStepByStep() throws IOException {
+        BufferedImage image = TestFixtures.readImage("earth1_cropped.jpeg");
+        for (int maxSize : new int[] {0, 256}) {
+            SimpleGrayscaleImage expected = new SimpleGrayscaleImage(image.getWidth(), image.getHeight());
+            expected.loadImage(image);
+            expected.resizeToNextSize(maxSize);
+            expected.blur();
+            SimpleGrayscaleImage actual = new SimpleGrayscaleImage(image, maxSize);
+            Assert.assertEquals(expected.getWidth(), actual.getWidth());
+            Assert.assertEquals(expected.getHeight(), actual.getHeight());
+            for (int y = 0; y < actual.getHeight(); y++) {
+                for (int x = 0; x < actual.getWidth(); x++) {
+                    Assert.assertEquals(expected.get(x, y), actual.get(x, y));
+                }
+            }
+        }
+    }
+
+    /**
+     * The original SimpleGrayscaleImage.resize
+     */
+    private static byte[] perPixelResize(byte[] data, int width, int height, int dest_width, int dest_height) {
+        byte[] newData = new byte[dest_width * dest_height];
+        double tx = ((double) width) / dest_width;
+        double ty = ((double) height) / dest_height;
+        int C[] = new int[5];
+        int d0, d2, d3, a0, a1, a2, a3;
+        for (int i = 0; i < dest_height; ++i) {
+            for (int j = 0; j < dest_width; ++j) {
+                int x = (int) (tx * j);
+                int y = (int) (ty * i);
+                double dx = tx * j - x;
+                double dy = ty * i - y;
+                for (int jj = 0; jj <= 3; ++jj) {
+                    int rowStart = (y - 1 + jj) * width;
+                    d0 = safeGet(data, rowStart + (x - 1)) - safeGet(data, rowStart + x);
+                    d2 = safeGet(data, rowStart + (x + 1)) - safeGet(data, rowStart + x);
+                    d3 = safeGet(data, rowStart + (x + 2)) - safeGet(data, rowStart + x);
+                    a0 = safeGet(data, rowStart + x);
+                    a1 = (int) (-1.0 / 3 * d0 + d2 - 1.0 / 6 * d3);
+                    a2 = (int) (1.0 / 2 * d0 + 1.0 / 2 * d2);
+                    a3 = (int) (-1.0 / 6 * d0 - 1.0 / 2 * d2 + 1.0 / 6 * d3);
+                    C[jj] = (int) (a0 + a1 * dx + a2 * dx * dx + a3 * dx * dx * dx);
+                }
+                d0 = C[0] - C[1];
+                d2 = C[2] - C[1];
+                d3 = C[3] - C[1];
+                a0 = C[1];
+                a1 = (int) (-1.0 / 3 * d0 + d2 - 1.0 / 6 * d3);
+                a2 = (int) (1.0 / 2 * d0 + 1.0 / 2 * d2);
+                a3 = (int) (-1.0 / 6 * d0 - 1.0 / 2 * d2 + 1.0 / 6 * d3);
+                int Cc = (int) (a0 + a1 * dy + a2 * dy * dy + a3 * dy * dy * dy);
+                newData[i * dest_width + j] = (byte) (Cc & 0xFF);
+            }
+        }
+        return newData;
+    }
+
+    private static int safeGet(byte[] data, int index) {
+        if (index < 0 || index >= data.length) {
+            return 0;
+        }
+        return data[index] & 0xFF;
+    }
+}
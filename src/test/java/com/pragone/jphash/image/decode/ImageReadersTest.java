@@ -0,0 +1,60 @@
+package com.pragone.jphash.image.decode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+public class ImageReadersTest {
+
+    @Test
+    public void testStreamsDecodeLikeImageIO() throws IOException, URISyntaxException {
+        File file = getFixture("earth1_cropped.jpeg");
+        BufferedImage expected = ImageIO.read(file);
+        assertSamePixels(expected, ImageDecoder.read(file, ImageDecoder.FULL_RESOLUTION));
+        assertSamePixels(expected, ImageDecoder.read(Files.readAllBytes(file.toPath()), ImageDecoder.FULL_RESOLUTION));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            assertSamePixels(expected, ImageDecoder.read(ImageInputStreams.wrap(mapped), ImageDecoder.FULL_RESOLUTION));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testReadersAreReusedPerFormat() throws IOException, URISyntaxException {
+        ImageReaders readers = ImageReaders.forCurrentThread();
+        readers.clear();
+        long misses = readers.getMisses();
+        long hits = readers.getHits();
+        for (String name : new String[] {"earth1.jpg", "earth2.jpg", "earth1_resized.jpeg"}) {
+            Assert.assertNotNull(ImageDecoder.read(getFixture(name), 64));
+        }
+        Assert.assertEquals(1, readers.getMisses() - misses);
+        Assert.assertEquals(2, readers.getHits() - hits);
+        Assert.assertNull(ImageDecoder.read(getFixture("README.txt"), 64));
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Assert.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private File getFixture(String name) throws URISyntaxException {
+        return new File(getClass().getClassLoader().getResource(name).toURI());
+    }
+}
@@ -0,0 +1,127 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.TestFixtures;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class JpegThumbnailTest {
+    private static final double THUMBNAIL_TOLERANCE = 0.05d;
+
+    @Test
+    public void testUsesExifThumbnailsThatCoverTheTarget() throws IOException {
+        BufferedImage image = TestFixtures.readImage("earth1.jpg");
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            byte[] jpeg = withExifThumbnail(encode(image), encode(scale(image, 256, 256)), order);
+            BufferedImage thumbnail = JpegThumbnail.read(jpeg, 256);
+            Assert.assertEquals(256, thumbnail.getWidth());
+            Assert.assertEquals(256, thumbnail.getHeight());
+            Assert.assertNull(JpegThumbnail.read(jpeg, 512));
+            Assert.assertNull(JpegThumbnail.read(jpeg, ImageDecoder.FULL_RESOLUTION));
+            // The image itself, subsampled by 2
+            Assert.assertEquals(image.getWidth() / 2, ImageDecoder.read(jpeg, 512, true).getWidth());
+        }
+    }
+
+    @Test
+    public void testSkipsThumbnailsOfAnotherAspectRatio() throws IOException {
+        BufferedImage image = TestFixtures.readImage("earth1.jpg");
+        byte[] jpeg = withExifThumbnail(encode(image), encode(scale(image, 256, 192)), ByteOrder.BIG_ENDIAN);
+        Assert.assertNull(JpegThumbnail.read(jpeg, 128));
+    }
+
+    @Test
+    public void testFallsBackToTheImageWhenTheThumbnailIsCorrupt() throws IOException {
+        BufferedImage image = TestFixtures.readImage("earth1.jpg");
+        byte[] thumbnail = encode(scale(image, 256, 256));
+        // Garble the Huffman tables, leaving the segment lengths and the frame header alone
+        for (int pos = 2; (thumbnail[pos + 1] & 0xFF) != 0xDA; ) {
+            int end = pos + 2 + ((thumbnail[pos + 2] & 0xFF) << 8 | (thumbnail[pos + 3] & 0xFF));
+            if ((thumbnail[pos + 1] & 0xFF) == 0xC4) {
+                Arrays.fill(thumbnail, pos + 4, end, (byte) 0xFF);
+            }
+            pos = end;
+        }
+        byte[] jpeg = withExifThumbnail(encode(image), thumbnail, ByteOrder.BIG_ENDIAN);
+        Assert.assertNull(JpegThumbnail.read(jpeg, 128));
+        // The image itself, not the 256 pixels thumbnail
+        Assert.assertEquals(image.getWidth() / 8, ImageDecoder.read(jpeg, 128, true).getWidth());
+    }
+
+    @Test
+    public void testThumbnailHashIsSimilarToTheImageHash() throws IOException {
+        BufferedImage image = TestFixtures.readImage("earth2.jpg");
+        byte[] jpeg = withExifThumbnail(encode(image), encode(scale(image, 256, 256)), ByteOrder.BIG_ENDIAN);
+        File file = File.createTempFile("thumbnail", ".jpg");
+        try {
+            Files.write(file.toPath(), jpeg);
+            for (int targetSize : new int[] {64, 128, 256}) {
+                Assert.assertEquals(1.0, RadialHashAlgorithm.getSimilarity(
+                        RadialHashAlgorithm.getHash(file, targetSize),
+                        RadialHashAlgorithm.getThumbnailHash(file, targetSize)), THUMBNAIL_TOLERANCE);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the JPEG with an EXIF segment holding the thumbnail in IFD1 inserted after its SOI marker
+     */
+    static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail, ByteOrder order) {
+        // TIFF header, an empty IFD0 and an IFD1 with the compression, offset and length of the thumbnail
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 6 + 2 + 3 * 12 + 4 + thumbnail.length).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42).putInt(8);
+        tiff.putShort((short) 0).putInt(14);
+        tiff.putShort((short) 3);
+        tiff.putShort((short) 0x0103).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(tiff.capacity() - thumbnail.length);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        int segmentLength = 2 + 6 + tiff.capacity();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write(segmentLength >> 8);
+        out.write(segmentLength & 0xFF);
+        out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+        out.write(tiff.array(), 0, tiff.capacity());
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", bos);
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package com.pragone.jphash.image.decode;
+
+import com.pragone.jphash.TestFixtures;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class LumaJpegDecoderTest {
+
+    @Test
+    public void testGrayscaleDecodeMatchesImageIO() throws IOException {
+        BufferedImage gray = toGray(TestFixtures.readImage("earth1_cropped.jpeg"));
+        for (boolean progressive : new boolean[] {false, true}) {
+            byte[] jpeg = encode(gray, progressive);
+            Raster expected = ImageIO.read(new ByteArrayInputStream(jpeg)).getRaster();
+            LumaPlane plane = LumaJpegDecoder.decode(jpeg, ImageDecoder.FULL_RESOLUTION);
+            Assert.assertFalse(plane.fromColor);
+            Assert.assertEquals(expected.getWidth(), plane.width);
+            Assert.assertEquals(expected.getHeight(), plane.height);
+            for (int y = 0; y < plane.height; y++) {
+                for (int x = 0; x < plane.width; x++) {
+                    Assert.assertEquals(expected.getSample(x, y, 0), plane.data[plane.offset + y * plane.stride + x] & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScaledDecodeSizes() throws IOException {
+        byte[] jpeg = encode(TestFixtures.readImage("earth1_cropped.jpeg"), true);
+        // 1019x992
+        int[][] expected = {{0, 1019, 992}, {512, 1019, 992}, {256, 510, 496}, {128, 255, 248}, {64, 128, 124}};
+        for (int[] size : expected) {
+            LumaPlane plane = LumaJpegDecoder.decode(jpeg, size[0]);
+            Assert.assertTrue(plane.fromColor);
+            Assert.assertEquals(size[1], plane.width);
+            Assert.assertEquals(size[2], plane.height);
+        }
+    }
+
+    @Test(expected = UnsupportedJpegException.class)
+    public void testNonJpegDataIsUnsupported() throws IOException {
+        LumaJpegDecoder.decode(new byte[] {'G', 'I', 'F', '8', '9', 'a'}, ImageDecoder.FULL_RESOLUTION);
+    }
+
+    private static BufferedImage toGray(BufferedImage image) {
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        gray.getGraphics().drawImage(image, 0, 0, null);
+        return gray;
+    }
+
+    private static byte[] encode(BufferedImage image, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+package com.pragone.jphash.image.multi;
+
+import com.pragone.jphash.TestFixtures;
+import com.pragone.jphash.image.dct.DctHashAlgorithm;
+import com.pragone.jphash.image.marrhildreth.MarrHildrethHashAlgorithm;
+import com.pragone.jphash.image.radial.RadialHashAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+public class MultiHashPipelineTest {
+    private static final double SAME_IMAGE = 0.9d;
+
+    @Test
+    public void testHashesAreThoseOfEachAlgorithm() throws IOException {
+        BufferedImage image = TestFixtures.readImage("earth1.jpg");
+        for (int targetSize : new int[] {64, 256}) {
+            MultiHash hashes = new MultiHashPipeline(targetSize).getHashes(image);
+            Assert.assertEquals(RadialHashAlgorithm.getHash(image, targetSize).toString(),
+                    hashes.getRadialHash().toString());
+            Assert.assertEquals(DctHashAlgorithm.getHash(image, targetSize).getBits(), hashes.getDctHash().getBits());
+            Assert.assertArrayEquals(MarrHildrethHashAlgorithm.getHash(image, targetSize).getBits(),
+                    hashes.getMarrHildrethHash().getBits());
+        }
+        MultiHash dctOnly = new MultiHashPipeline(64).setHashTypes(MultiHashPipeline.HashType.DCT).getHashes(image);
+        Assert.assertNull(dctOnly.getRadialHash());
+        Assert.assertNotNull(dctOnly.getDctHash());
+        Assert.assertNull(dctOnly.getMarrHildrethHash());
+    }
+
+    @Test
+    public void testResizedImagesHashCloserThanOtherImages() throws IOException {
+        MultiHashPipeline pipeline = new MultiHashPipeline(128);
+        MultiHash earth1 = pipeline.getHashes(TestFixtures.readImage("earth1.jpg"));
+        MultiHash resized = pipeline.getHashes(TestFixtures.readImage("earth1_resized.jpeg"));
+        MultiHash earth2 = pipeline.getHashes(TestFixtures.readImage("earth2.jpg"));
+        Assert.assertTrue(DctHashAlgorithm.getSimilarity(earth1.getDctHash(), resized.getDctHash()) > SAME_IMAGE);
+        Assert.assertTrue(DctHashAlgorithm.getSimilarity(earth1.getDctHash(), earth2.getDctHash()) < SAME_IMAGE);
+        Assert.assertTrue(MarrHildrethHashAlgorithm.getSimilarity(earth1.getMarrHildrethHash(),
+                resized.getMarrHildrethHash()) > SAME_IMAGE);
+        Assert.assertTrue(MarrHildrethHashAlgorithm.getSimilarity(earth1.getMarrHildrethHash(),
+                earth2.getMarrHildrethHash()) < SAME_IMAGE);
+    }
+}
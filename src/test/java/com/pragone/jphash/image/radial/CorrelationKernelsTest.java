@@ -0,0 +1,31 @@
+package com.pragone.jphash.image.radial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the kernels {@link CorrelationKernels#get()} picks (the SIMD ones when running the vector profile) against
+ * the scalar ones
+ */
+public class CorrelationKernelsTest {
+    private final CorrelationKernels kernels = CorrelationKernels.get();
+    private final CorrelationKernels scalar = CorrelationKernels.scalar();
+
+    @Test
+    public void testMaxCorrelation() {
+        Random random = new Random(3);
+        for (int N = 1; N <= 260; N++) {
+            int[] row = new int[N];
+            int[] coefficients = new int[2 * N];
+            for (int i = 0; i < N; i++) {
+                row[i] = (byte) random.nextInt();
+                coefficients[i] = (byte) random.nextInt();
+                coefficients[N + i] = coefficients[i];
+            }
+            Assert.assertEquals("N = " + N, scalar.maxCorrelation(row, coefficients, N),
+                    kernels.maxCorrelation(row, coefficients, N));
+        }
+    }
+}
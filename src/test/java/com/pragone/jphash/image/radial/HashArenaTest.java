@@ -0,0 +1,93 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.image.PixelStorage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class HashArenaTest {
+    private static final double SIMILARITY_ROUNDING = 1e-12d;
+    private static final int ROWS = 3000;
+
+    @Test
+    public void testScansMatchSimilarity() {
+        Random random = new Random(17);
+        HashArena arena = new HashArena(RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS, 16);
+        RadialHash query = randomHash(random);
+        double[] similarities = new double[ROWS];
+        int N = RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS;
+        for (int i = 0; i < ROWS; i++) {
+            RadialHash hash = randomHash(random);
+            if (i % 2 == 0) {
+                // A shifted and noisy copy of the query, similar to a varying degree
+                int shift = random.nextInt(N);
+                int noise = 1 + random.nextInt(300);
+                for (int j = 0; j < N; j++) {
+                    hash.getCoefficients()[j] = (byte) (query.getCoefficients()[(j + shift) % N]
+                            + random.nextInt(noise) - noise / 2);
+                }
+            }
+            Assert.assertEquals(i, arena.add(hash));
+            similarities[i] = RadialHashAlgorithm.getSimilarity(query, hash);
+        }
+        Assert.assertEquals(ROWS, arena.size());
+        Assert.assertEquals(RadialHashAlgorithm.getSimilarity(query, arena.get(7)), similarities[7], 0);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            checkScans(arena, query, similarities, pool);
+            // The same rows off the heap, grown from a single one
+            for (PixelStorage.Backend backend : PixelStorage.Backend.values()) {
+                if (backend != PixelStorage.Backend.HEAP && backend.isAvailable()) {
+                    HashArena offHeap = new HashArena(N, 1, backend);
+                    try {
+                        for (int i = 0; i < ROWS; i++) {
+                            offHeap.add(arena.get(i));
+                        }
+                        Assert.assertEquals(backend, offHeap.getBackend());
+                        checkScans(offHeap, query, similarities, pool);
+                    } finally {
+                        offHeap.close();
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void checkScans(HashArena arena, RadialHash query, double[] similarities, ForkJoinPool pool) {
+        for (ForkJoinPool scanPool : new ForkJoinPool[] {null, pool}) {
+            double threshold = 0.85;
+            List<HashArena.Match> above = arena.scanAbove(query, threshold, scanPool);
+            int expected = 0;
+            for (double similarity : similarities) {
+                if (similarity >= threshold) {
+                    expected++;
+                }
+            }
+            Assert.assertEquals(expected, above.size());
+            Assert.assertTrue(expected > 10);
+            for (HashArena.Match match : above) {
+                Assert.assertEquals(similarities[match.getRow()], match.getSimilarity(), SIMILARITY_ROUNDING);
+            }
+
+            List<HashArena.Match> top = arena.scanTopK(query, 10, scanPool);
+            Assert.assertEquals(10, top.size());
+            for (int i = 0; i < top.size(); i++) {
+                HashArena.Match match = top.get(i);
+                Assert.assertEquals(similarities[match.getRow()], match.getSimilarity(), SIMILARITY_ROUNDING);
+                Assert.assertEquals(above.get(i).getRow(), match.getRow());
+            }
+        }
+    }
+
+    private static RadialHash randomHash(Random random) {
+        RadialHash hash = new RadialHash(RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS);
+        random.nextBytes(hash.getCoefficients());
+        return hash;
+    }
+}
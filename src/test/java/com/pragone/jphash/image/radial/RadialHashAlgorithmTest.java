@@ -1,10 +1,21 @@
 package com.pragone.jphash.image.radial;
 
+import com.pragone.jphash.TestFixtures;
+import com.pragone.jphash.image.decode.TiledImageReader;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created with IntelliJ IDEA.
@@ -21,6 +32,11 @@ public class RadialHashAlgorithmTest {
     private static final double EARTH_RESIZED_DISTANCE = 0.9999806438624114d;
     private static final double EARTH_CROPPED_DISTANCE = 0.8785204004702291d;
     private static final double EARTH_CAPTION_DISTANCE = 0.9590921706328405d;
+    private static final double REDUCED_DECODE_TOLERANCE = 0.05d;
+    private static final double LUMA_DECODE_TOLERANCE = 0.1d;
+    private static final double TILED_DECODE_TOLERANCE = 0.05d;
+    private static final double SIMILARITY_ROUNDING = 1e-12d;
+    private static final double FFT_ROUNDING = 1e-9d;
 
     @Test
     public void testHashEarth1() throws IOException {
@@ -74,6 +90,217 @@ public class RadialHashAlgorithmTest {
                         getHashFor("earth1_caption.jpeg")
                 ), 0.000001);
     }
+
+    @Test
+    public void testReducedDecodeIsSimilarToFullDecode() throws IOException {
+        for (String name : new String[] {"earth1.jpg", "earth2.jpg"}) {
+            InputStream inputStream = getClass().getClassLoader().getResourceAsStream(name);
+            BufferedImage full = ImageIO.read(inputStream);
+            inputStream.close();
+            for (int targetSize : new int[] {64, 128, 256, 512}) {
+                inputStream = getClass().getClassLoader().getResourceAsStream(name);
+                RadialHash reduced = RadialHashAlgorithm.getHash(inputStream, targetSize);
+                inputStream.close();
+                Assert.assertEquals(1.0, RadialHashAlgorithm.getSimilarity(
+                        RadialHashAlgorithm.getHash(full, targetSize), reduced), REDUCED_DECODE_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void testReducedDecodeKeepsSmallImagesIntact() throws IOException {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("earth1.jpg");
+        RadialHash reduced = RadialHashAlgorithm.getHash(inputStream, 2048);
+        inputStream.close();
+        Assert.assertEquals(getHashFor("earth1.jpg").toString(), reduced.toString());
+    }
+
+    @Test
+    public void testLumaDecodeIsSimilarToImageIODecode() throws IOException, URISyntaxException {
+        for (String name : new String[] {"earth1.jpg", "earth1_cropped.jpeg", "earth2.jpg"}) {
+            File file = new File(getClass().getClassLoader().getResource(name).toURI());
+            for (int targetSize : new int[] {0, 64, 128, 256}) {
+                Assert.assertEquals(1.0, RadialHashAlgorithm.getSimilarity(
+                        RadialHashAlgorithm.getHash(file, targetSize),
+                        RadialHashAlgorithm.getLumaHash(file, targetSize)), LUMA_DECODE_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void testTiledHashIsSimilarAndIndependentOfTheTiles() throws IOException, URISyntaxException {
+        for (String name : new String[] {"earth1.jpg", "earth1_cropped.jpeg", "earth2.jpg"}) {
+            File file = new File(getClass().getClassLoader().getResource(name).toURI());
+            for (int targetSize : new int[] {64, 256}) {
+                RadialHash tiled = RadialHashAlgorithm.getTiledHash(file, targetSize);
+                Assert.assertEquals(1.0, RadialHashAlgorithm.getSimilarity(
+                        RadialHashAlgorithm.getHash(file, targetSize), tiled), TILED_DECODE_TOLERANCE);
+                Assert.assertEquals(tiled.toString(), RadialHashAlgorithm.getTiledHash(file, targetSize,
+                        new TiledImageReader(300 * 300)).toString());
+            }
+        }
+    }
+
+    @Test
+    public void testLumaPlaneHashesMatchGrayImages() throws IOException {
+        BufferedImage color = TestFixtures.readImage("earth1_cropped.jpeg");
+        int width = color.getWidth();
+        int height = color.getHeight();
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        gray.getGraphics().drawImage(color, 0, 0, null);
+        byte[] levels = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        // A padded plane, starting a few bytes into the buffer
+        int stride = width + 7;
+        byte[] plane = new byte[3 + stride * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(levels, y * width, plane, 3 + y * stride, width);
+        }
+        File file = File.createTempFile("plane", ".y");
+        try {
+            Files.write(file.toPath(), plane);
+            for (int maxSize : new int[] {0, 128}) {
+                String expected = RadialHashAlgorithm.getHash(gray, maxSize).toString();
+                Assert.assertEquals(expected, RadialHashAlgorithm.getHash(ByteBuffer.wrap(levels), width, height, width,
+                        maxSize).toString());
+                ByteBuffer padded = ByteBuffer.wrap(plane, 3, plane.length - 3);
+                Assert.assertEquals(expected, RadialHashAlgorithm.getHash(padded, width, height, stride,
+                        maxSize).toString());
+                Assert.assertEquals(expected, RadialHashAlgorithm.getHash(file.toPath(), 3, width, height, stride,
+                        maxSize).toString());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testWorkspaceHashesMatch() throws IOException {
+        HashWorkspace workspace = new HashWorkspace();
+        RadialHash out = new RadialHash(40);
+        // Big, small and big again, so buffers get both grown and reused
+        String[] names = {"earth1.jpg", "earth1_resized.jpeg", "earth2.jpg", "earth1_cropped.jpeg"};
+        for (String name : names) {
+            BufferedImage img = TestFixtures.readImage(name);
+            for (int maxSize : new int[] {0, 128}) {
+                String expected = RadialHashAlgorithm.getHash(img, maxSize).toString();
+                Assert.assertSame(out, RadialHashAlgorithm.getHash(img, maxSize, workspace, out));
+                Assert.assertEquals(name, expected, out.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testLatencyModeHashesMatch() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String name : new String[] {"earth1.jpg", "earth2.jpg", "earth1_resized.jpeg"}) {
+                BufferedImage img = TestFixtures.readImage(name);
+                for (int maxSize : new int[] {0, 128}) {
+                    Assert.assertEquals(name, RadialHashAlgorithm.getHash(img, maxSize).toString(),
+                            RadialHashAlgorithm.getHash(img, maxSize, pool).toString());
+                }
+            }
+            // Big enough to be split everywhere, in color and in gray
+            Random random = new Random(5);
+            for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+                BufferedImage img = new BufferedImage(2600, 1900, type);
+                for (int y = 0; y < img.getHeight(); y++) {
+                    for (int x = 0; x < img.getWidth(); x++) {
+                        img.setRGB(x, y, (x * 255 / img.getWidth()) << 16 | (y % 256) << 8 | random.nextInt(64));
+                    }
+                }
+                Assert.assertEquals(RadialHashAlgorithm.getHash(img).toString(),
+                        RadialHashAlgorithm.getHash(img, pool).toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPreparedSimilarityMatchesSimilarity() {
+        RadialHash earth1 = RadialHash.fromString(EARTH1_HASH);
+        RadialHash earth2 = RadialHash.fromString(EARTH2_HASH);
+        Assert.assertEquals(RadialHashAlgorithm.getSimilarity(earth1, earth2), RadialHashAlgorithm.getSimilarity(
+                new PreparedRadialHash(earth1), new PreparedRadialHash(earth2)), SIMILARITY_ROUNDING);
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            RadialHash hash1 = new RadialHash(RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS);
+            RadialHash hash2 = new RadialHash(RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS);
+            random.nextBytes(hash1.getCoefficients());
+            random.nextBytes(hash2.getCoefficients());
+            Assert.assertEquals(RadialHashAlgorithm.getSimilarity(hash1, hash2), RadialHashAlgorithm.getSimilarity(
+                    new PreparedRadialHash(hash1), new PreparedRadialHash(hash2)), SIMILARITY_ROUNDING);
+        }
+    }
+
+    @Test
+    public void testThresholdSimilarityDecidesLikeSimilarity() {
+        int N = RadialHashAlgorithm.NUMBER_OF_COEFFICIENTS;
+        Random random = new Random(11);
+        for (int i = 0; i < 1000; i++) {
+            RadialHash hash1 = new RadialHash(N);
+            RadialHash hash2 = new RadialHash(N);
+            random.nextBytes(hash1.getCoefficients());
+            // Half the pairs are a shifted and noisy copy, similar to a varying degree
+            int shift = random.nextInt(N);
+            int noise = 1 + random.nextInt(200);
+            for (int j = 0; j < N; j++) {
+                hash2.getCoefficients()[j] = (i % 2 == 0) ? (byte) random.nextInt()
+                        : (byte) (hash1.getCoefficients()[(j + shift) % N] + random.nextInt(noise) - noise / 2);
+            }
+            PreparedRadialHash prepared1 = new PreparedRadialHash(hash1);
+            PreparedRadialHash prepared2 = new PreparedRadialHash(hash2);
+            double similarity = RadialHashAlgorithm.getSimilarity(prepared1, prepared2);
+            for (double threshold : new double[] {0.3, 0.6, 0.9}) {
+                double thresholded = RadialHashAlgorithm.getSimilarity(prepared1, prepared2, threshold);
+                if (similarity >= threshold + SIMILARITY_ROUNDING) {
+                    Assert.assertEquals(similarity, thresholded, SIMILARITY_ROUNDING);
+                    Assert.assertTrue(RadialHashAlgorithm.matches(prepared1, prepared2, threshold));
+                } else if (similarity < threshold - SIMILARITY_ROUNDING) {
+                    Assert.assertTrue(thresholded < threshold);
+                    Assert.assertFalse(RadialHashAlgorithm.matches(prepared1, prepared2, threshold));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFftSimilarityMatchesSimilarity() {
+        Random random = new Random(13);
+        for (int N : new int[] {64, 128, 256}) {
+            for (int i = 0; i < 200; i++) {
+                RadialHash hash1 = new RadialHash(N);
+                RadialHash hash2 = new RadialHash(N);
+                random.nextBytes(hash1.getCoefficients());
+                random.nextBytes(hash2.getCoefficients());
+                PreparedRadialHash prepared1 = new PreparedRadialHash(hash1);
+                PreparedRadialHash prepared2 = new PreparedRadialHash(hash2);
+                double similarity = RadialHashAlgorithm.getSimilarity(hash1, hash2);
+                Assert.assertEquals(similarity, RadialHashAlgorithm.getSimilarity(prepared1, prepared2), FFT_ROUNDING);
+                Assert.assertEquals(similarity >= 0.85, RadialHashAlgorithm.matches(prepared1, prepared2, 0.85));
+            }
+        }
+    }
+
+    @Test
+    public void testLongHash() throws IOException {
+        BufferedImage earth1 = TestFixtures.readImage("earth1.jpg");
+        BufferedImage resized = TestFixtures.readImage("earth1_resized.jpeg");
+        BufferedImage earth2 = TestFixtures.readImage("earth2.jpg");
+        // More coefficients than the usual 180 projections take as many projections
+        for (int N : new int[] {128, 181, 256}) {
+            PreparedRadialHash hash = new PreparedRadialHash(RadialHashAlgorithm.getHash(earth1, 256, N));
+            Assert.assertEquals(N, hash.getNumberOfCoefficients());
+            double resizedSimilarity = RadialHashAlgorithm.getSimilarity(hash,
+                    new PreparedRadialHash(RadialHashAlgorithm.getHash(resized, 256, N)));
+            double otherSimilarity = RadialHashAlgorithm.getSimilarity(hash,
+                    new PreparedRadialHash(RadialHashAlgorithm.getHash(earth2, 256, N)));
+            Assert.assertTrue(resizedSimilarity > 0.95);
+            Assert.assertTrue(otherSimilarity < resizedSimilarity);
+        }
+    }
+
 //
 //    @Test
 //    public void showResizeResult_earth1() throws IOException {
@@ -0,0 +1,90 @@
+package com.pragone.jphash.image.radial;
+
+import com.pragone.jphash.image.SimpleGrayscaleImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class RadonGeometryTest {
+
+    @Test
+    public void testProjectionsAndFusedFeaturesMatchTheLineWalk() {
+        Random random = new Random(7);
+        int[][] sizes = {{64, 64}, {37, 23}, {23, 37}, {128, 96}, {7, 7}};
+        for (int[] size : sizes) {
+            BufferedImage image = new BufferedImage(size[0], size[1], BufferedImage.TYPE_BYTE_GRAY);
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                    image.getRaster().setSample(x, y, 0, random.nextInt(256));
+                }
+            }
+            SimpleGrayscaleImage gray = new SimpleGrayscaleImage(size[0], size[1]);
+            gray.loadImage(image);
+            RadialHashAlgorithm.Projections expected = walkLines(gray);
+            RadialHashAlgorithm.Projections actual = RadialHashAlgorithm.calculate180Projections(gray);
+            Assert.assertArrayEquals(expected.nb_pix_perline, actual.nb_pix_perline);
+            for (int k = 0; k < 180; k++) {
+                Assert.assertArrayEquals(size[0] + "x" + size[1] + " line " + k,
+                        expected.getProjection(k), actual.getProjection(k));
+            }
+            Assert.assertArrayEquals(RadialHashAlgorithm.calculateFeatures(actual).features,
+                    RadialHashAlgorithm.calculateFeatures(gray, new RadialHashAlgorithm.Features(180)).features, 0);
+        }
+    }
+
+    @Test
+    public void testGeometriesAreSharedPerSize() {
+        Assert.assertSame(RadonGeometry.forSize(256, 256, 180), RadonGeometry.forSize(256, 256, 180));
+    }
+
+    /**
+     * The original calculate180Projections
+     */
+    private static RadialHashAlgorithm.Projections walkLines(SimpleGrayscaleImage img) {
+        int width = img.getWidth();
+        int N = 180;
+        int height = img.getHeight();
+        int D = (width > height)?width:height;
+        int x_off = (width >> 1) + (width & 0x1);
+        int y_off = (height >> 1) + (height & 0x1);
+
+        RadialHashAlgorithm.Projections projections = new RadialHashAlgorithm.Projections(N,D);
+        int[] nb_per_line = projections.nb_pix_perline;
+
+        for (int k=0;k<N/4+1;k++) {
+            double alpha = Math.tan(k * Math.PI/180);
+            for (int x=0;x < D;x++) {
+                double y = alpha*(x-x_off);
+                int yd = (int)Math.floor(y + (y >= 0 ? 0.5 : -0.5));
+                if ((yd + y_off >= 0)&&(yd + y_off < height) && (x < width)) {
+                    projections.getProjection(k)[x] = img.get(x, yd + y_off);
+                    nb_per_line[k] += 1;
+                }
+                if ((yd + x_off >= 0) && (yd + x_off < width) && (k != N/4) && (x < height)) {
+                    projections.getProjection(N/2-k)[x] = img.get(yd + x_off, x);
+                    nb_per_line[N/2-k] += 1;
+                }
+            }
+        }
+        int j= 0;
+        for (int k=3*N/4;k<N;k++){
+            double alpha = Math.tan(k * Math.PI/180);
+            for (int x=0;x < D;x++){
+                double y = alpha*(x-x_off);
+                int yd = (int)Math.floor(y + (y >= 0 ? 0.5 : -0.5));
+                if ((yd + y_off >= 0)&&(yd + y_off < height) && (x < width)){
+                    projections.getProjection(k)[x] = img.get(x, yd + y_off);
+                    nb_per_line[k] += 1;
+                }
+                if ((y_off - yd >= 0)&&(y_off - yd<width)&&(2*y_off-x>=0)&&(2*y_off-x<height)&&(k!=3*N/4)){
+                    projections.getProjection(k-j)[x] = img.get(-yd + y_off, -(x - y_off) + y_off);
+                    nb_per_line[k-j] += 1;
+                }
+            }
+            j += 2;
+        }
+        return projections;
+    }
+}
@@ -0,0 +1,163 @@
+package com.pragone.jphash.image;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelKernels} on the JDK Vector API. Levels are widened to int lanes (as many as the preferred shape holds),
+ * worked on with the same integer operations as the scalar kernels and narrowed back to bytes, so the results are
+ * the same. The tails that don't fill a vector go through the scalar kernels.
+ *
+ * Built by the vector profile only (it needs Java 17+), and loaded by {@link PixelKernels#get()} when the
+ * jdk.incubator.vector module is there.
+ */
+class VectorPixelKernels extends PixelKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(float.class, INTS.vectorShape());
+    /**
+     * As many bytes as there are int lanes
+     */
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+    private static final int LANES = INTS.length();
+    /**
+     * The lane to pixel index maps of the luma gathers, for pixel strides up to 8
+     */
+    private static final int[][] INDEX_MAPS = new int[9][];
+
+    static {
+        for (int pixelStride = 1; pixelStride < INDEX_MAPS.length; pixelStride++) {
+            INDEX_MAPS[pixelStride] = getIndexMap(pixelStride);
+        }
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    /**
+     * The components are gathered with a lane to pixel index map
+     */
+    @Override
+    int luma(byte[] data, int src, int pixelStride, int r, int g, int b, byte[] dest, int destOffset, int count) {
+        int[] indexMap = pixelStride < INDEX_MAPS.length ? INDEX_MAPS[pixelStride] : getIndexMap(pixelStride);
+        IntVector max = IntVector.zero(INTS);
+        int vectorCount = count - count % LANES;
+        int i = 0;
+        for (; i < vectorCount; i += LANES, src += LANES * pixelStride) {
+            IntVector red = unsigned(ByteVector.fromArray(BYTES, data, src + r, indexMap, 0));
+            IntVector green = unsigned(ByteVector.fromArray(BYTES, data, src + g, indexMap, 0));
+            IntVector blue = unsigned(ByteVector.fromArray(BYTES, data, src + b, indexMap, 0));
+            // The weights of GrayscaleConverter.luma: blue 66, green 129, red 25
+            IntVector value = blue.mul(66).add(green.mul(129)).add(red.mul(25))
+                    .lanewise(VectorOperators.ASHR, 8).add(16).min(255);
+            max = max.max(value);
+            toBytes(value).intoArray(dest, destOffset + i);
+        }
+        int tailMax = super.luma(data, src, pixelStride, r, g, b, dest, destOffset + i, count - i);
+        return Math.max(max.reduceLanes(VectorOperators.MAX), tailMax);
+    }
+
+    /**
+     * The division goes through float lanes, which is exact: level * 256 is at most 2^15 in magnitude, so the float
+     * quotient is within 2^-9 of the exact one, and a quotient that isn't an integer is at least 1 / maxPixel (1 / 255)
+     * away from one. Truncating it gives the integer division.
+     */
+    @Override
+    void normalize(byte[] levels, int offset, int count, int maxPixel) {
+        float divisor = maxPixel;
+        int vectorCount = count - count % LANES;
+        int i = 0;
+        for (; i < vectorCount; i += LANES) {
+            // Signed levels, as the scalar kernel takes them
+            IntVector level = (IntVector) ByteVector.fromArray(BYTES, levels, offset + i)
+                    .convertShape(VectorOperators.B2I, INTS, 0);
+            FloatVector quotient = (FloatVector) level.lanewise(VectorOperators.LSHL, 8)
+                    .convertShape(VectorOperators.I2F, FLOATS, 0);
+            IntVector normalized = (IntVector) quotient.div(divisor).convertShape(VectorOperators.F2I, INTS, 0);
+            toBytes(normalized.and(0xFF)).intoArray(levels, offset + i);
+        }
+        super.normalize(levels, offset + i, count - i, maxPixel);
+    }
+
+    @Override
+    void blurRow(byte[] pixels, int offset, int width, byte[] scratch) {
+        int vectorEnd = width - 2 - LANES;
+        if (vectorEnd < 2) {
+            super.blurRow(pixels, offset, width, scratch);
+            return;
+        }
+        // The taps are taken from a copy, as the levels get overwritten
+        System.arraycopy(pixels, offset, scratch, 0, width);
+        int x = 2;
+        for (; x <= vectorEnd; x += LANES) {
+            IntVector sum = unsigned(ByteVector.fromArray(BYTES, scratch, x - 2)).lanewise(VectorOperators.ASHR, 2)
+                    .add(unsigned(ByteVector.fromArray(BYTES, scratch, x - 1)).lanewise(VectorOperators.ASHR, 1))
+                    .add(unsigned(ByteVector.fromArray(BYTES, scratch, x)))
+                    .add(unsigned(ByteVector.fromArray(BYTES, scratch, x + 1)).lanewise(VectorOperators.ASHR, 1))
+                    .add(unsigned(ByteVector.fromArray(BYTES, scratch, x + 2)).lanewise(VectorOperators.ASHR, 2));
+            toBytes(sum.mul(409).lanewise(VectorOperators.ASHR, 10)).intoArray(pixels, offset + x);
+        }
+        int v0 = scratch[0] & 0xFF;
+        int v1 = scratch[1] & 0xFF;
+        int v2 = scratch[2] & 0xFF;
+        int v3 = scratch[3] & 0xFF;
+        pixels[offset] = (byte) (((v0 + (v1 >> 1) + (v2 >> 2)) * 585) >> 10);
+        pixels[offset + 1] = (byte) ((((v0 >> 1) + v1 + (v2 >> 1) + (v3 >> 2)) * 455) >> 10);
+        for (; x < width - 2; x++) {
+            int sum = ((scratch[x - 2] & 0xFF) >> 2) + ((scratch[x - 1] & 0xFF) >> 1) + (scratch[x] & 0xFF)
+                    + ((scratch[x + 1] & 0xFF) >> 1) + ((scratch[x + 2] & 0xFF) >> 2);
+            pixels[offset + x] = (byte) ((sum * 409) >> 10);
+        }
+        v0 = scratch[width - 4] & 0xFF;
+        v1 = scratch[width - 3] & 0xFF;
+        v2 = scratch[width - 2] & 0xFF;
+        v3 = scratch[width - 1] & 0xFF;
+        pixels[offset + width - 2] = (byte) ((((v0 >> 2) + (v1 >> 1) + v2 + (v3 >> 1)) * 455) >> 10);
+        pixels[offset + width - 1] = (byte) ((((v1 >> 2) + (v2 >> 1) + v3) * 585) >> 10);
+    }
+
+    @Override
+    void blurColumns(byte[] up2, byte[] up1, byte[] current, byte[] down1, int down1Offset, byte[] down2,
+                     int down2Offset, byte[] out, int outOffset, int count, int weight) {
+        int vectorCount = count - count % LANES;
+        int i = 0;
+        for (; i < vectorCount; i += LANES) {
+            IntVector sum = unsigned(ByteVector.fromArray(BYTES, up2, i)).lanewise(VectorOperators.ASHR, 2)
+                    .add(unsigned(ByteVector.fromArray(BYTES, up1, i)).lanewise(VectorOperators.ASHR, 1))
+                    .add(unsigned(ByteVector.fromArray(BYTES, current, i)))
+                    .add(unsigned(ByteVector.fromArray(BYTES, down1, down1Offset + i)).lanewise(VectorOperators.ASHR, 1))
+                    .add(unsigned(ByteVector.fromArray(BYTES, down2, down2Offset + i)).lanewise(VectorOperators.ASHR, 2));
+            toBytes(sum.mul(weight).lanewise(VectorOperators.ASHR, 10)).intoArray(out, outOffset + i);
+        }
+        for (; i < count; i++) {
+            int sum = ((up2[i] & 0xFF) >> 2) + ((up1[i] & 0xFF) >> 1) + (current[i] & 0xFF)
+                    + ((down1[down1Offset + i] & 0xFF) >> 1) + ((down2[down2Offset + i] & 0xFF) >> 2);
+            out[outOffset + i] = (byte) ((sum * weight) >> 10);
+        }
+    }
+
+    private static int[] getIndexMap(int pixelStride) {
+        int[] indexMap = new int[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            indexMap[lane] = lane * pixelStride;
+        }
+        return indexMap;
+    }
+
+    private static IntVector unsigned(ByteVector levels) {
+        return ((IntVector) levels.convertShape(VectorOperators.B2I, INTS, 0)).and(0xFF);
+    }
+
+    /**
+     * Narrows int lanes holding 0..255 (or wrapped) values to bytes
+     */
+    private static ByteVector toBytes(IntVector values) {
+        return (ByteVector) values.convertShape(VectorOperators.I2B, BYTES, 0);
+    }
+}
@@ -0,0 +1,43 @@
+package com.pragone.jphash.image.radial;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link CorrelationKernels} on the JDK Vector API. A vector of int lanes holds the dot products of as many shifts
+ * at once: each coefficient of the row, broadcast, is multiplied by the query's coefficients starting at that shift
+ * and added in, so there's no reduction but the final max. The sums are of ints, so the results are those of the
+ * scalar kernels. Hashes shorter than a vector go through the scalar kernels.
+ *
+ * Built by the vector profile only (it needs Java 17+), and loaded by {@link CorrelationKernels#get()} when the
+ * jdk.incubator.vector module is there.
+ */
+class VectorCorrelationKernels extends CorrelationKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = INTS.length();
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    int maxCorrelation(int[] row, int[] coefficients, int N) {
+        if (N < LANES) {
+            return super.maxCorrelation(row, coefficients, N);
+        }
+        IntVector best = IntVector.broadcast(INTS, Integer.MIN_VALUE);
+        for (int d = 0; d < N; d += LANES) {
+            // The last shifts that don't fill a vector are taken with some before them again, which the max doesn't
+            // mind, rather than with a (much slower) masked load
+            int first = Math.min(d, N - LANES);
+            IntVector dots = IntVector.zero(INTS);
+            for (int i = 0; i < N; i++) {
+                dots = dots.add(IntVector.fromArray(INTS, coefficients, first + i).mul(row[i]));
+            }
+            best = best.max(dots);
+        }
+        return best.reduceLanes(VectorOperators.MAX);
+    }
+}